@@ -0,0 +1,252 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Minimal benchmark runner for the bench mains, modelled on JMH's sample-time mode.
+// Every invocation is timed on its own, so a case can do untimed per-invocation setup (refill a
+// cart before checkout). After a warm-up period it runs a number of measurement iterations
+// and reports:
+//   ops/s        invocations per second of timed work
+//   p50 .. max   latency percentiles from a log-linear histogram (about 3% resolution)
+//   B/op, MB/s   heap allocated by the benchmark thread during timed work, per invocation and per second
+// Allocation is read outside the timed region, so reading the counter does not inflate latency.
+// Latencies below ~30 ns are dominated by System.nanoTime itself; the "timer" line of each run
+// shows that floor.
+//
+// Options (shared by every bench main that uses the harness):
+//   --warmup <ms>       warm-up time per case (default 1000)
+//   --time <ms>         time per measurement iteration (default 1000)
+//   --iterations <n>    measurement iterations per case (default 3)
+//   --include <regex>   only run cases whose name matches
+public class BenchHarness {
+    // One benchmarked operation with its fixture
+    public interface Case {
+        default void setUp() throws Exception {
+        }
+
+        // Untimed work before every invocation
+        default void beforeInvocation() throws Exception {
+        }
+
+        void invoke() throws Exception;
+
+        default void tearDown() throws Exception {
+        }
+    }
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private long warmupMillis = 1000;
+    private long iterationMillis = 1000;
+    private int iterations = 3;
+    private Pattern include;
+    private final List<String> arguments = new ArrayList<>();
+    private boolean headerPrinted;
+
+    // Parses the harness options; anything else is left for the bench main in getArguments()
+    public BenchHarness(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup":
+                    warmupMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--time":
+                    iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--include":
+                    include = Pattern.compile(args[++i]);
+                    break;
+                default:
+                    arguments.add(args[i]);
+            }
+        }
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation counters not supported; B/op will read 0");
+        } else {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public boolean includes(String name) {
+        return include == null || include.matcher(name).find();
+    }
+
+    // Run one case and print its result line; returns the result, or null if it was filtered out
+    public Result run(String name, Case benchmark) throws Exception {
+        if (!includes(name)) {
+            return null;
+        }
+        if (!headerPrinted) {
+            printHeader();
+            measureTimer();
+        }
+        benchmark.setUp();
+        try {
+            measure(benchmark, warmupMillis, null);
+            Result result = new Result(name);
+            for (int i = 0; i < iterations; i++) {
+                measure(benchmark, iterationMillis, result);
+            }
+            System.out.println(result);
+            return result;
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    private void printHeader() {
+        headerPrinted = true;
+        System.out.printf("# warmup %d ms, %d x %d ms, JVM %s, %d CPUs%n", warmupMillis, iterations,
+                iterationMillis, System.getProperty("java.version"), Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-48s %12s %9s %9s %9s %9s %10s %11s %9s%n", "case", "ops/s", "p50 ns", "p90 ns",
+                "p99 ns", "p99.9 ns", "max ns", "B/op", "MB/s");
+    }
+
+    private void measureTimer() throws Exception {
+        Result result = new Result("timer (empty invocation)");
+        Case empty = () -> { };
+        measure(empty, Math.min(warmupMillis, 200), null);
+        measure(empty, Math.min(iterationMillis, 500), result);
+        System.out.println(result);
+    }
+
+    private void measure(Case benchmark, long millis, Result result) throws Exception {
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        long threadId = Thread.currentThread().getId();
+        // Check the clock every few invocations so the deadline check stays off the fast path
+        int checkEvery = 1;
+        do {
+            for (int i = 0; i < checkEvery; i++) {
+                benchmark.beforeInvocation();
+                long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                benchmark.invoke();
+                long elapsed = System.nanoTime() - start;
+                long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                if (result != null) {
+                    result.record(elapsed, allocated);
+                }
+            }
+            checkEvery = Math.min(checkEvery * 2, 1024);
+        } while (System.nanoTime() < deadline);
+    }
+
+    public static class Result {
+        private final String name;
+        private final Histogram latencies = new Histogram();
+        private long operations;
+        private long timedNanos;
+        private long allocatedBytes;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, long allocated) {
+            latencies.record(nanos);
+            operations++;
+            timedNanos += nanos;
+            allocatedBytes += allocated;
+        }
+
+        public String getName() { return name; }
+        public long getOperations() { return operations; }
+
+        public double getOpsPerSecond() {
+            return timedNanos == 0 ? 0 : operations * 1e9 / timedNanos;
+        }
+
+        public long getPercentile(double percentile) {
+            return latencies.percentile(percentile);
+        }
+
+        public double getBytesPerOp() {
+            return operations == 0 ? 0 : allocatedBytes / (double) operations;
+        }
+
+        public double getAllocationMbPerSecond() {
+            return timedNanos == 0 ? 0 : allocatedBytes / 1e6 / (timedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-48s %12.0f %9d %9d %9d %9d %10d %11.1f %9.1f", name, getOpsPerSecond(),
+                    getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9),
+                    latencies.max(), getBytesPerOp(), getAllocationMbPerSecond());
+        }
+    }
+
+    // Log-linear histogram of nanosecond values: exact below 64, then 32 buckets per power of two
+    static class Histogram {
+        private static final int SUB_BUCKETS = 32;
+        private final long[] counts = new long[64 + (64 - 6) * SUB_BUCKETS];
+        private long total;
+        private long max;
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts[bucket(value)]++;
+            total++;
+            max = Math.max(max, value);
+        }
+
+        long max() {
+            return max;
+        }
+
+        long count() {
+            return total;
+        }
+
+        void add(Histogram other) {
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                counts[bucket] += other.counts[bucket];
+            }
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        long percentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * total);
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return Math.min(upperBound(bucket), max);
+                }
+            }
+            return max;
+        }
+
+        private static int bucket(long value) {
+            if (value < 64) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 5)) & (SUB_BUCKETS - 1);
+            return 64 + (exponent - 6) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < 64) {
+                return bucket;
+            }
+            int exponent = (bucket - 64) / SUB_BUCKETS + 6;
+            int sub = (bucket - 64) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 5)) - 1;
+        }
+    }
+}
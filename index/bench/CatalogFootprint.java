@@ -0,0 +1,65 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+// Compares the heap held by the object catalog (ProductCatalog of Product objects) with the
+// columnar layout (ColumnarCatalog) for the same SKUs, and the time of a full GC over each.
+//
+// Usage: CatalogFootprint [sku count]   (default 500000; run with e.g. -Xmx1g)
+public class CatalogFootprint {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long baseline = usedAfterGc(memory);
+        ProductCatalog objects = new ProductCatalog(count, new BillingEventBus());
+        for (int i = 0; i < count; i++) {
+            objects.put(new Product(id(i), name(i), price(i), i % 500));
+        }
+        long objectBytes = usedAfterGc(memory) - baseline;
+        long objectGcNanos = timeFullGc();
+        System.out.println(objects.size() + " SKUs");
+        objects = null;
+
+        baseline = usedAfterGc(memory);
+        ColumnarCatalog columns = new ColumnarCatalog(count);
+        for (int i = 0; i < count; i++) {
+            columns.put(id(i), name(i), price(i), i % 500);
+        }
+        long columnBytes = usedAfterGc(memory) - baseline;
+        long columnGcNanos = timeFullGc();
+
+        System.out.printf("%-22s %12s %10s %12s%n", "layout", "heap bytes", "bytes/SKU", "full GC ms");
+        System.out.printf("%-22s %,12d %10.1f %12.1f%n", "ProductCatalog", objectBytes,
+                objectBytes / (double) count, objectGcNanos / 1e6);
+        System.out.printf("%-22s %,12d %10.1f %12.1f%n", "ColumnarCatalog", columnBytes,
+                columnBytes / (double) count, columnGcNanos / 1e6);
+        System.out.printf("%-22s %,12d %10.1f%n", "  (column arrays)", columns.footprintBytes(),
+                columns.footprintBytes() / (double) count);
+        System.out.printf("columnar layout uses %.1f%% of the object layout%n", 100.0 * columnBytes / objectBytes);
+    }
+
+    private static String id(int i) {
+        return String.format("P%07d", i);
+    }
+
+    private static String name(int i) {
+        return "Product " + i + " (500g)";
+    }
+
+    private static double price(int i) {
+        return 10 + (i % 10_000) / 100.0;
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long timeFullGc() {
+        long start = System.nanoTime();
+        System.gc();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Runs many CartSessions on their own threads against a few hot SKUs with little stock, then
+// checks that nothing was oversold or lost:
+//   - stock never goes negative (checked on every STOCK_CHANGED event)
+//   - for every SKU, final stock + units sold == initial stock + restocked units once all carts
+//     are cleared
+//   - the STOCK_CHANGED deltas add up to the same change as the counters
+//
+// Usage: CheckoutStress [lanes] [operations per lane] [skus]   (default 32, 200000, 8)
+public class CheckoutStress {
+    private static final int INITIAL_STOCK = 500;
+
+    public static void main(String[] args) throws InterruptedException {
+        int lanes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int skuCount = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        BillingEventBus events = new BillingEventBus();
+        ProductCatalog catalog = new ProductCatalog(skuCount, events);
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < skuCount; i++) {
+            products.add(new Product("P" + i, "Product " + i, 10 + i, INITIAL_STOCK));
+        }
+        catalog.putAll(products);
+
+        AtomicLongArray eventDeltas = new AtomicLongArray(skuCount);
+        AtomicInteger negativeStock = new AtomicInteger();
+        events.subscribe(event -> {
+            if (event.getType() == BillingEvent.Type.STOCK_CHANGED) {
+                eventDeltas.addAndGet(event.getIndex(), event.getDelta());
+                if (event.getProduct().getQuantity() < 0) {
+                    negativeStock.incrementAndGet();
+                }
+            }
+        });
+
+        AtomicLongArray sold = new AtomicLongArray(skuCount);
+        AtomicLongArray restocked = new AtomicLongArray(skuCount);
+        AtomicInteger receipts = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int lane = 0; lane < lanes; lane++) {
+            CartSession session = new CartSession(lane, catalog);
+            Random random = new Random(lane);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int op = 0; op < operations; op++) {
+                    int choice = random.nextInt(100);
+                    if (choice < 60) {
+                        if (!session.add("P" + random.nextInt(skuCount), 1 + random.nextInt(5))) {
+                            rejected.incrementAndGet();
+                        }
+                    } else if (choice < 75 && !session.isEmpty()) {
+                        List<Product> lines = session.getLines();
+                        session.remove(lines.get(random.nextInt(lines.size())).getId());
+                    } else if (choice < 80) {
+                        session.clear();
+                    } else if (choice < 82) {
+                        // Deliveries keep the hot SKUs from selling out for good
+                        int sku = random.nextInt(skuCount);
+                        catalog.adjustQuantity(catalog.get("P" + sku), 20);
+                        restocked.addAndGet(sku, 20);
+                    } else if (!session.isEmpty()) {
+                        Receipt receipt = session.toReceipt(receipts.incrementAndGet(), "None (0%)", 0);
+                        for (Product line : receipt.getItems()) {
+                            sold.addAndGet(catalog.indexOf(line.getId()), line.getQuantity());
+                        }
+                        session.completeCheckout(receipt.getNumber());
+                    }
+                }
+                session.clear();
+            }, "lane-" + lane);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        boolean ok = negativeStock.get() == 0;
+        for (int i = 0; i < skuCount; i++) {
+            Product product = catalog.get(i);
+            long accounted = product.getQuantity() + sold.get(i) - restocked.get(i);
+            boolean skuOk = accounted == INITIAL_STOCK
+                    && eventDeltas.get(i) == product.getQuantity() - INITIAL_STOCK;
+            ok &= skuOk;
+            System.out.printf("%-4s stock %5d  sold %8d  restocked %8d  deltas %8d  %s%n", product.getId(),
+                    product.getQuantity(), sold.get(i), restocked.get(i), eventDeltas.get(i),
+                    skuOk ? "ok" : "MISMATCH");
+        }
+        long total = (long) lanes * operations;
+        System.out.printf("%d lanes, %,d operations in %.0f ms (%,.0f ops/s), %,d receipts, %,d adds rejected%n",
+                lanes, total, elapsedNanos / 1e6, total * 1e9 / elapsedNanos, receipts.get(), rejected.get());
+        System.out.println(ok ? "PASS" : "FAIL (" + negativeStock.get() + " negative stock observations)");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Drives BillingEngine with no display: opens a durable engine in a scratch directory, rings up
+// and checks out baskets, and reports checkouts per second and how many receipts were written.
+//
+// Usage: java -Djava.awt.headless=true HeadlessCheckout [checkouts] [items per basket] [dir]
+public class HeadlessCheckout {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int checkouts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int items = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        File directory = args.length > 2 ? new File(args[2])
+                : Files.createTempDirectory("headless-checkout").toFile();
+
+        BillingEngine engine = BillingEngine.open(new File(directory, "receipts"),
+                new File(directory, "inventory"), 0);
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            products.add(new Product(String.format("P%04d", i), "Product " + i, 5 + i % 300, Integer.MAX_VALUE / 2));
+        }
+        engine.getCatalog().putAll(products);
+
+        AtomicInteger saved = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch written = new CountDownLatch(checkouts);
+        ReceiptCallback callback = new ReceiptCallback() {
+            @Override
+            public void receiptSaved(Receipt receipt, String location) {
+                saved.incrementAndGet();
+                written.countDown();
+            }
+
+            @Override
+            public void receiptFailed(Receipt receipt, IOException error) {
+                failed.incrementAndGet();
+                written.countDown();
+            }
+        };
+
+        CartSession session = engine.openSession(0);
+        Random random = new Random(1);
+        int rejected = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < checkouts; i++) {
+            for (int item = 0; item < items; item++) {
+                session.add(products.get(random.nextInt(products.size())).getId(), 1 + random.nextInt(3));
+            }
+            CheckoutResult result = engine.checkout(session, i % 5 == 0 ? "Senior Citizen (10.0%)" : "None (0%)",
+                    callback);
+            if (!result.isSuccess()) {
+                rejected++;
+                written.countDown();
+                session.clear();
+            }
+        }
+        long queuedNanos = System.nanoTime() - start;
+        written.await();
+        long writtenNanos = System.nanoTime() - start;
+        engine.close();
+
+        System.out.println("headless: " + java.awt.GraphicsEnvironment.isHeadless() + ", data in " + directory);
+        System.out.printf("%,d checkouts x %d items: queued in %.0f ms (%,.0f/s), written in %.0f ms (%,.0f/s)%n",
+                checkouts, items, queuedNanos / 1e6, checkouts * 1e9 / queuedNanos,
+                writtenNanos / 1e6, checkouts * 1e9 / writtenNanos);
+        System.out.printf("saved %,d, failed %,d, rejected %,d%n", saved.get(), failed.get(), rejected);
+        System.out.println(engine.getReceiptWriter());
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Capacity-planning load generator: replays baskets through add-to-cart and checkout on N
+// simulated lanes against one durable BillingEngine, then reports sustained checkouts/s,
+// latency percentiles per operation and whether stock still adds up.
+//
+// Baskets come from historical receipts (receipt_*.txt files and/or a receipt journal), or are
+// synthesised: basket sizes are geometric around --basket-mean, SKUs are Zipf-distributed over
+// --skus products, most quantities are 1 and a share of baskets carry a discount.
+//
+// With --rate each lane starts baskets on a fixed schedule (rate / lanes per second); the
+// "basket" latency is then measured from the scheduled start, so a slow lane shows up as queueing
+// instead of silently lowering the offered load. Without --rate lanes run flat out.
+//
+// Usage: java -Djava.awt.headless=true LoadGenerator [options]
+//   --receipts <dir>     replay receipt_*.txt files          --journal <dir>   replay a receipt journal
+//   --synthetic <n>      synthesise n baskets (default when nothing else is given: 100000)
+//   --skus <n>           SKUs for synthetic baskets (5000)  --basket-mean <n> mean lines per basket (12)
+//   --lanes <n>          simulated lanes (30)               --rate <n>        checkouts/s over all lanes (0 = max)
+//   --duration <s>       run time (30)                      --stock <n>       initial stock per SKU (1000000)
+//   --virtual            one virtual thread per lane (Java 21+; platform threads otherwise)
+//   --dir <dir>          engine data directory (a new temp directory by default)
+public class LoadGenerator {
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--virtual")) {
+                options.put("virtual", "true");
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        int lanes = Integer.parseInt(options.getOrDefault("lanes", "30"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        long durationNanos = (long) (Double.parseDouble(options.getOrDefault("duration", "30")) * 1e9);
+        int initialStock = Integer.parseInt(options.getOrDefault("stock", "1000000"));
+        boolean virtual = options.containsKey("virtual");
+
+        // Baskets and the catalog they need
+        List<Receipt> baskets = new ArrayList<>();
+        if (options.containsKey("receipts")) {
+            List<String> errors = new ArrayList<>();
+            baskets.addAll(new ReceiptParser().parseDirectory(new File(options.get("receipts")), errors));
+            for (String error : errors) {
+                System.err.println("skipped " + error);
+            }
+        }
+        if (options.containsKey("journal")) {
+            try (ReceiptJournal journal = new ReceiptJournal(new File(options.get("journal")))) {
+                baskets.addAll(journal.readNumbers(0, Integer.MAX_VALUE));
+            }
+        }
+        if (options.containsKey("synthetic") || baskets.isEmpty()) {
+            baskets.addAll(synthesise(Integer.parseInt(options.getOrDefault("synthetic", "100000")),
+                    Integer.parseInt(options.getOrDefault("skus", "5000")),
+                    Double.parseDouble(options.getOrDefault("basket-mean", "12")), new Random(42)));
+        }
+        Map<String, Product> skus = new LinkedHashMap<>();
+        for (Receipt basket : baskets) {
+            for (Product item : basket.getItems()) {
+                skus.putIfAbsent(item.getId(), new Product(item.getId(), item.getName(), item.getPrice(), initialStock));
+            }
+        }
+        if (skus.isEmpty()) {
+            System.err.println("No baskets to replay");
+            System.exit(1);
+        }
+
+        File directory = options.containsKey("dir") ? new File(options.get("dir"))
+                : Files.createTempDirectory("load-generator").toFile();
+        BillingEngine engine = BillingEngine.open(new File(directory, "receipts"), new File(directory, "inventory"), 0);
+        ProductCatalog catalog = engine.getCatalog();
+        List<Product> initial = new ArrayList<>(skus.values());
+        catalog.putAll(initial);
+        int[] initialStock0 = new int[catalog.size()];
+        for (int i = 0; i < catalog.size(); i++) {
+            initialStock0[i] = catalog.get(i).getQuantity();
+        }
+
+        System.out.printf("%,d baskets, %,d SKUs, %d lanes (%s threads), %s, %.0f s, data in %s%n",
+                baskets.size(), catalog.size(), lanes, virtual && virtualThreadsAvailable() ? "virtual" : "platform",
+                rate > 0 ? String.format("target %,.0f checkouts/s", rate) : "as fast as possible",
+                durationNanos / 1e9, directory);
+
+        AtomicLong cursor = new AtomicLong();
+        AtomicLong receiptsSaved = new AtomicLong();
+        AtomicLong receiptsFailed = new AtomicLong();
+        ReceiptCallback callback = new ReceiptCallback() {
+            @Override
+            public void receiptSaved(Receipt receipt, String location) {
+                receiptsSaved.incrementAndGet();
+            }
+
+            @Override
+            public void receiptFailed(Receipt receipt, IOException error) {
+                receiptsFailed.incrementAndGet();
+            }
+        };
+
+        List<Lane> laneList = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(1);
+        long start = System.nanoTime() + 100_000_000;
+        long deadline = start + durationNanos;
+        for (int i = 0; i < lanes; i++) {
+            Lane lane = new Lane(engine, engine.openSession(i), catalog.size());
+            laneList.add(lane);
+            long interval = rate > 0 ? (long) (1e9 * lanes / rate) : 0;
+            // Stagger the lanes so scheduled starts do not all land on the same instant
+            long firstStart = start + (interval * i) / lanes;
+            Thread thread = newLaneThread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                lane.run(baskets, cursor, firstStart, interval, deadline, callback);
+            }, "lane-" + i, virtual);
+            threads.add(thread);
+            thread.start();
+        }
+        ready.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        engine.getReceiptWriter().close();
+
+        // Merge lane results
+        BenchHarness.Histogram add = new BenchHarness.Histogram();
+        BenchHarness.Histogram checkout = new BenchHarness.Histogram();
+        BenchHarness.Histogram basket = new BenchHarness.Histogram();
+        long checkouts = 0, failedCheckouts = 0, rejectedAdds = 0;
+        long[] sold = new long[catalog.size()];
+        for (Lane lane : laneList) {
+            add.add(lane.add);
+            checkout.add(lane.checkout);
+            basket.add(lane.basket);
+            checkouts += lane.checkouts;
+            failedCheckouts += lane.failedCheckouts;
+            rejectedAdds += lane.rejectedAdds;
+            for (int i = 0; i < sold.length; i++) {
+                sold[i] += lane.sold[i];
+            }
+        }
+
+        System.out.printf("sustained %,.1f checkouts/s (%,d checkouts in %.1f s), %,d failed, %,d adds rejected%n",
+                checkouts * 1e9 / elapsedNanos, checkouts, elapsedNanos / 1e9, failedCheckouts, rejectedAdds);
+        System.out.printf("%-12s %12s %10s %10s %10s %10s%n", "operation", "count", "p50 us", "p99 us",
+                "p99.9 us", "max us");
+        print("addToCart", add);
+        print("checkout", checkout);
+        print(rate > 0 ? "basket*" : "basket", basket);
+        if (rate > 0) {
+            System.out.println("* from the scheduled start of the basket, including time queued behind the lane");
+        }
+        System.out.println("receipts written " + receiptsSaved.get() + ", failed " + receiptsFailed.get()
+                + "; " + engine.getReceiptWriter());
+
+        // Every lane cleared its cart, so stock must be exactly the initial stock minus what was sold
+        long inconsistent = 0;
+        for (int i = 0; i < sold.length; i++) {
+            int stock = catalog.get(i).getQuantity();
+            if (stock < 0 || stock + sold[i] != initialStock0[i]) {
+                if (inconsistent++ < 10) {
+                    System.out.printf("  %s: initial %d, sold %d, stock %d%n", catalog.get(i).getId(),
+                            initialStock0[i], sold[i], stock);
+                }
+            }
+        }
+        if (receiptsSaved.get() != checkouts) {
+            inconsistent++;
+        }
+        System.out.println(inconsistent == 0 ? "stock consistency: OK (" + sold.length + " SKUs)"
+                : "stock consistency: FAILED (" + inconsistent + " problems)");
+        engine.close();
+        if (inconsistent != 0) {
+            System.exit(1);
+        }
+    }
+
+    // State of one simulated lane; only its own thread touches it until the run ends
+    private static class Lane {
+        final BillingEngine engine;
+        final CartSession session;
+        final BenchHarness.Histogram add = new BenchHarness.Histogram();
+        final BenchHarness.Histogram checkout = new BenchHarness.Histogram();
+        final BenchHarness.Histogram basket = new BenchHarness.Histogram();
+        final long[] sold;
+        long checkouts, failedCheckouts, rejectedAdds;
+
+        Lane(BillingEngine engine, CartSession session, int skus) {
+            this.engine = engine;
+            this.session = session;
+            this.sold = new long[skus];
+        }
+
+        void run(List<Receipt> baskets, AtomicLong cursor, long firstStart, long interval, long deadline,
+                 ReceiptCallback callback) {
+            ProductCatalog catalog = engine.getCatalog();
+            long scheduled = firstStart;
+            while (true) {
+                long basketStart;
+                if (interval > 0) {
+                    long now;
+                    while ((now = System.nanoTime()) < scheduled) {
+                        LockSupport.parkNanos(scheduled - now);
+                    }
+                    basketStart = scheduled;
+                    scheduled += interval;
+                } else {
+                    basketStart = System.nanoTime();
+                }
+                if (basketStart >= deadline) {
+                    break;
+                }
+
+                Receipt source = baskets.get((int) (cursor.getAndIncrement() % baskets.size()));
+                for (Product item : source.getItems()) {
+                    long t0 = System.nanoTime();
+                    boolean added = session.add(item.getId(), item.getQuantity());
+                    add.record(System.nanoTime() - t0);
+                    if (!added) {
+                        rejectedAdds++;
+                    }
+                }
+                if (session.isEmpty()) {
+                    continue;
+                }
+
+                List<Product> lines = new ArrayList<>(session.getLines());
+                long t0 = System.nanoTime();
+                CheckoutResult result = engine.checkout(session, source.getDiscountName(), callback);
+                long t1 = System.nanoTime();
+                checkout.record(t1 - t0);
+                basket.record(t1 - basketStart);
+                if (result.isSuccess()) {
+                    checkouts++;
+                    for (Product line : lines) {
+                        sold[catalog.indexOf(line.getId())] += line.getQuantity();
+                    }
+                } else {
+                    failedCheckouts++;
+                    session.clear();
+                }
+            }
+            session.clear();
+        }
+    }
+
+    private static List<Receipt> synthesise(int count, int skus, double basketMean, Random random) {
+        // Zipf(1) popularity: cumulative weights over SKU rank, sampled by binary search
+        double[] cumulative = new double[skus];
+        double sum = 0;
+        for (int rank = 0; rank < skus; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        String[] discounts = {"None (0%)", "None (0%)", "None (0%)", "None (0%)", "None (0%)", "None (0%)",
+                "Loyalty Card (5.0%)", "Senior Citizen (10.0%)", "Special Offer (15.0%)", "Festive Season (20.0%)"};
+
+        List<Receipt> baskets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int lines = 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - 1 / basketMean));
+            List<Product> items = new ArrayList<>(lines);
+            for (int line = 0; line < lines; line++) {
+                int sku = search(cumulative, random.nextDouble() * sum);
+                int roll = random.nextInt(10);
+                int quantity = roll < 7 ? 1 : roll < 9 ? 2 : 3 + random.nextInt(4);
+                items.add(new Product(String.format("S%05d", sku), "Item " + sku, 0.25 * (4 + sku % 2000), quantity));
+            }
+            baskets.add(new Receipt(i, 0, items, discounts[random.nextInt(discounts.length)], 0));
+        }
+        return baskets;
+    }
+
+    private static int search(double[] cumulative, double value) {
+        int low = 0, high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void print(String name, BenchHarness.Histogram histogram) {
+        System.out.printf("%-12s %,12d %10.1f %10.1f %10.1f %10.1f%n", name, histogram.count(),
+                histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+                histogram.percentile(99.9) / 1e3, histogram.max() / 1e3);
+    }
+
+    // The tree targets Java 17, which has no virtual threads; on 21+ they are created reflectively
+    private static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Thread newLaneThread(Runnable body, String name, boolean virtual) {
+        if (virtual && virtualThreadsAvailable()) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class).invoke(builder, name);
+                Method unstarted = builderType.getMethod("unstarted", Runnable.class);
+                return (Thread) unstarted.invoke(builder, body);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads unavailable, using platform threads: " + e);
+            }
+        }
+        return new Thread(body, name);
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cost of live prices on a catalog of --skus products (default 100,000), --overrides of them
+// repriced during the day (default 5,000):
+//   price, no overrides     PriceTable.current().price before any change
+//   price, overrides        the same with the overrides published
+//   pin + unpin             what a cart pays to hold its prices
+//   publish                 a change of --batch prices (default 100) on top of the overrides
+//   add to cart             CartSession.add of a repriced SKU, then clear (pins and unpins the prices)
+// then a consistency run: a writer publishes versions that give every repriced SKU the same
+// price, while carts on other threads check that each of their lines has their version's price
+// and readers check that no version mixes two changes. Afterwards only the current version
+// may be retained.
+//
+// Usage: java PriceTableBenchmark [--skus 100000] [--overrides 5000] [--batch 100] plus the BenchHarness options
+public class PriceTableBenchmark {
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int skus = 100_000;
+        int overrides = 5_000;
+        int batch = 100;
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            switch (rest.get(i)) {
+                case "--skus":
+                    skus = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--overrides":
+                    overrides = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--batch":
+                    batch = Integer.parseInt(rest.get(++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        ProductCatalog catalog = new ProductCatalog(skus, new BillingEventBus());
+        List<Product> products = new ArrayList<>(skus);
+        for (int i = 0; i < skus; i++) {
+            products.add(new Product(String.format("P%06d", i), "Product " + i, 1 + i % 5000 / 100.0, 1_000_000));
+        }
+        catalog.putAll(products);
+        PriceTable prices = catalog.getPrices();
+        Random random = new Random(42);
+
+        harness.run("price, no overrides", () -> sink += (long) prices.current().price(products.get(random.nextInt(
+                products.size()))));
+        Map<String, Double> repriced = new HashMap<>();
+        for (int i = 0; i < overrides; i++) {
+            repriced.put(products.get(i * (skus / overrides)).getId(), 2.50);
+        }
+        prices.publish(repriced);
+        harness.run("price, overrides", () -> sink += (long) prices.current().price(products.get(random.nextInt(
+                products.size()))));
+        harness.run("pin + unpin", () -> {
+            PriceTable.Version version = prices.pin();
+            sink += version.getNumber();
+            prices.unpin(version);
+        });
+        Map<String, Double> change = new HashMap<>();
+        for (int i = 0; i < batch; i++) {
+            change.put(products.get(random.nextInt(skus)).getId(), 3.75);
+        }
+        harness.run("publish", () -> sink += prices.publish(change).getNumber());
+        CartSession session = new CartSession(1, catalog);
+        String id = products.get(0).getId();
+        harness.run("add to cart", () -> {
+            session.add(id, 1);
+            session.clear();
+        });
+
+        checkConsistency(catalog, products, 200);
+    }
+
+    private static void checkConsistency(ProductCatalog catalog, List<Product> products, int repricedCount)
+            throws InterruptedException {
+        PriceTable prices = catalog.getPrices();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < repricedCount; i++) {
+            ids.add(products.get(i).getId());
+        }
+        // Every version from here on gives all of them the same price
+        Map<String, Double> uniform = new HashMap<>();
+        for (String id : ids) {
+            uniform.put(id, 10.0);
+        }
+        prices.publish(uniform);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong checks = new AtomicLong();
+        AtomicLong bad = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int lane = t;
+            threads.add(new Thread(() -> {
+                CartSession session = new CartSession(10 + lane, catalog);
+                Random random = new Random(lane);
+                while (running.get()) {
+                    if (lane == 0) {
+                        // Readers: one version never mixes two changes
+                        PriceTable.Version version = prices.current();
+                        double first = version.price(products.get(0));
+                        for (String id : ids) {
+                            if (version.price(catalog.get(id)) != first) {
+                                bad.incrementAndGet();
+                            }
+                        }
+                    } else {
+                        // Carts: every line has the price of the version the cart pinned
+                        for (int i = 0; i < 5; i++) {
+                            session.add(ids.get(random.nextInt(ids.size())), 1);
+                        }
+                        PriceTable.Version version = session.getPriceVersion();
+                        for (Product line : session.getLines()) {
+                            if (line.getPrice() != version.price(catalog.get(line.getId()))
+                                    || line.getPrice() != session.getLines().get(0).getPrice()) {
+                                bad.incrementAndGet();
+                            }
+                        }
+                        session.clear();
+                    }
+                    checks.incrementAndGet();
+                }
+            }, "prices-" + t));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long versions = 0;
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end) {
+            Map<String, Double> change = new HashMap<>();
+            double price = 10 + (versions + 1) % 1000 / 100.0;
+            for (String id : ids) {
+                change.put(id, price);
+            }
+            prices.publish(change);
+            versions++;
+        }
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int retained = prices.getRetainedVersionCount();
+        boolean ok = bad.get() == 0 && retained == 1;
+        System.out.printf("# consistency: %,d versions published, %,d checks, %d bad, %d version(s) retained: %s%n",
+                versions, checks.get(), bad.get(), retained, ok ? "PASS" : "FAIL");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
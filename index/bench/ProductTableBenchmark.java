@@ -0,0 +1,84 @@
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// The product table on a large catalog (default 1,000,000 SKUs):
+//   sort <key>         ProductOrdering permutation of the whole catalog, as computed off the EDT
+//   filter 'milk'      one pass over the name order
+//   reverse            flipping the direction of the current order (no sort)
+//   paint viewport     scroll a 600 px JTable viewport to a random row of the name-sorted,
+//                      descending view and paint it into an image, as one scroll step on screen
+//
+// Usage: java -Djava.awt.headless=true ProductTableBenchmark [--skus 1000000] plus the BenchHarness options
+public class ProductTableBenchmark {
+    private static final String[] WORDS = {"Rice", "Milk", "Chocolate", "Bread", "Eggs", "Sugar", "Coffee",
+            "Noodles", "Sardines", "Oil", "Soap", "Biscuits", "Juice", "Golden", "Fresh", "Lucky"};
+
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int skus = 1_000_000;
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            if (rest.get(i).equals("--skus")) {
+                skus = Integer.parseInt(rest.get(++i));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        Random random = new Random(42);
+        List<Product> products = new ArrayList<>(skus);
+        for (int i = 0; i < skus; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " " + (1 + random.nextInt(999)) + "g";
+            products.add(new Product(String.format("P%07d", random.nextInt(10_000_000)) + "-" + i, name,
+                    1 + random.nextInt(100_000) / 100.0, random.nextInt(500)));
+        }
+
+        for (ProductOrdering.Key key : new ProductOrdering.Key[] {ProductOrdering.Key.ID, ProductOrdering.Key.NAME,
+                ProductOrdering.Key.PRICE, ProductOrdering.Key.STOCK}) {
+            harness.run("sort " + key, () -> sink += ProductOrdering.sort(products, key)[0]);
+        }
+        int[] byName = ProductOrdering.sort(products, ProductOrdering.Key.NAME);
+        harness.run("filter 'milk'", () -> sink += ProductOrdering.filter(products, byName, "milk").length);
+
+        ProductTableModel model = new ProductTableModel(products);
+        JTable[] table = new JTable[1];
+        JScrollPane[] scrollPane = new JScrollPane[1];
+        SwingUtilities.invokeAndWait(() -> {
+            table[0] = new JTable(model);
+            table[0].setDefaultRenderer(Double.class, new MoneyRenderer());
+            scrollPane[0] = new JScrollPane(table[0]);
+            scrollPane[0].setSize(400, 600);
+            scrollPane[0].doLayout();
+            model.sortBy(ProductOrdering.Key.NAME);
+        });
+        awaitView(model);
+        SwingUtilities.invokeAndWait(() -> model.sortBy(ProductOrdering.Key.NAME));
+
+        harness.run("reverse", () -> SwingUtilities.invokeAndWait(() -> model.sortBy(ProductOrdering.Key.NAME)));
+
+        BufferedImage image = new BufferedImage(400, 600, BufferedImage.TYPE_INT_RGB);
+        harness.run("paint viewport", () -> SwingUtilities.invokeAndWait(() -> {
+            int row = random.nextInt(model.getRowCount());
+            table[0].scrollRectToVisible(table[0].getCellRect(row, 0, true));
+            scrollPane[0].validate();
+            Graphics2D graphics = image.createGraphics();
+            scrollPane[0].paint(graphics);
+            graphics.dispose();
+        }));
+    }
+
+    private static void awaitView(ProductTableModel model) throws Exception {
+        boolean[] updating = {true};
+        while (updating[0]) {
+            Thread.sleep(10);
+            SwingUtilities.invokeAndWait(() -> updating[0] = model.isUpdating());
+        }
+    }
+}
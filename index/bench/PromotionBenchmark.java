@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Cost of promotions against the number of rules, for carts of growing size:
+//   evaluate         PromotionTable.evaluate over the whole cart, as checkout does for the receipt
+//   changeQuantity   add one unit to a line and read the discounted total; the cart re-evaluates
+//                    only that line and the basket rules
+// Every SKU has a few rules of its own (one of each SKU kind, the percent-off ones stackable) and
+// there are a few spend thresholds, so the rule count grows with the catalog while a line only
+// ever sees its own rules: both cases should stay flat as --rules grows.
+//
+// Usage: java PromotionBenchmark [--rules 100,10000,...] [--cart 1,50,...]
+//        plus the BenchHarness options
+public class PromotionBenchmark {
+    private static final String DISCOUNT = "Senior Citizen (10.0%)";
+
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int[] ruleCounts = {100, 10_000, 1_000_000};
+        int[] cartSizes = {1, 50, 500, 5000};
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            if (rest.get(i).equals("--rules")) {
+                ruleCounts = parseSizes(rest.get(++i));
+            } else if (rest.get(i).equals("--cart")) {
+                cartSizes = parseSizes(rest.get(++i));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        for (int ruleCount : ruleCounts) {
+            // Three SKU rules per SKU
+            int skuCount = Math.max(1, ruleCount / 3);
+            PromotionTable table = promotions(skuCount);
+            for (int cartSize : cartSizes) {
+                if (cartSize <= skuCount) {
+                    runCartSize(harness, table, skuCount, ruleCount, cartSize);
+                }
+            }
+        }
+    }
+
+    private static PromotionTable promotions(int skuCount) {
+        List<PromotionRule> rules = new ArrayList<>();
+        for (int i = 0; i < skuCount; i++) {
+            List<String> sku = Arrays.asList(sku(i));
+            rules.add(PromotionRule.buyXGetY("Buy 2 get 1 #" + i, sku, 2, 1, false));
+            rules.add(PromotionRule.multiBuy("3 for less #" + i, sku, 3, 2.5, false));
+            rules.add(PromotionRule.percentOff("Category 5% #" + (i % 100), sku, 0.05, true));
+        }
+        rules.add(PromotionRule.spendThreshold("Spend 500", 500, 0.02, false));
+        rules.add(PromotionRule.spendThreshold("Spend 2000", 2000, 0.04, false));
+        for (Map.Entry<String, Double> entry : BillingEngine.defaultDiscounts().entrySet()) {
+            rules.add(PromotionRule.discountOption(entry.getKey(), entry.getValue()));
+        }
+        return new PromotionTable(rules);
+    }
+
+    private static void runCartSize(BenchHarness harness, PromotionTable table, int skuCount, int ruleCount,
+                                    int cartSize) throws Exception {
+        String suffix = String.format(" [rules=%d, cart=%d]", ruleCount, cartSize);
+        Cart cart = new Cart(table);
+        int stride = skuCount / cartSize;
+        for (int line = 0; line < cartSize; line++) {
+            cart.addLine(new Product(sku(line * stride), "Product " + line, 1 + line % 500 / 100.0, 0), 1 + line % 7);
+        }
+
+        harness.run("evaluate" + suffix, () -> sink += table.evaluate(cart.getLines()).size());
+
+        int last = cartSize - 1;
+        harness.run("changeQuantity" + suffix, new BenchHarness.Case() {
+            @Override
+            public void invoke() {
+                cart.changeQuantity(last, 1);
+                sink += cart.getDiscountedTotalCents(DISCOUNT);
+            }
+
+            @Override
+            public void tearDown() {
+                cart.changeQuantity(last, 1 - cart.get(last).getQuantity());
+            }
+        });
+    }
+
+    private static String sku(int i) {
+        return String.format("P%07d", i);
+    }
+
+    private static int[] parseSizes(String list) {
+        return Stream.of(list.split(",")).mapToInt(size -> Integer.parseInt(size.trim())).toArray();
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Size and speed of receipt archives for one busy day (default 50,000 receipts of up to 20 lines):
+// prints bytes per receipt as text, in the journal and in the archive, and the time to write the
+// archive, then measures
+//   encode block    ReceiptCodec.encodeBlock of ReceiptArchive.BLOCK_RECEIPTS receipts
+//   decode block    the reverse
+//   read one        ReceiptArchive.read of a random receipt number (one block inflated and decoded)
+//   render one      the same, then BillingEngine.generateReceipt
+//
+// Usage: java ReceiptArchiveBenchmark [--receipts 50000] [--dir path] plus the BenchHarness options
+public class ReceiptArchiveBenchmark {
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int receiptCount = 50_000;
+        File directory = new File(System.getProperty("java.io.tmpdir"), "archive-bench");
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            if (rest.get(i).equals("--receipts")) {
+                receiptCount = Integer.parseInt(rest.get(++i));
+            } else if (rest.get(i).equals("--dir")) {
+                directory = new File(rest.get(++i));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        Random random = new Random(42);
+        List<Receipt> receipts = new ArrayList<>(receiptCount);
+        long start = System.currentTimeMillis() - 86_400_000L;
+        for (int n = 0; n < receiptCount; n++) {
+            List<Product> items = new ArrayList<>();
+            for (int i = 0, lines = 1 + random.nextInt(20); i < lines; i++) {
+                int sku = random.nextInt(20_000);
+                items.add(new Product(String.format("P%05d", sku), "Product " + sku, (100 + sku % 50_000) / 100.0,
+                        1 + random.nextInt(3)));
+            }
+            List<Receipt.Promotion> promotions = new ArrayList<>();
+            if (random.nextInt(4) == 0) {
+                promotions.add(new Receipt.Promotion("Buy 2 get 1", (50 + random.nextInt(500)) / 100.0));
+            }
+            boolean loyalty = random.nextBoolean();
+            receipts.add(new Receipt(1000 + n, start + n * 1500L, items, promotions,
+                    loyalty ? "Loyalty Card (5.0%)" : "None (0%)", loyalty ? 0.05 : 0));
+        }
+
+        deleteAll(directory);
+        File journalDirectory = new File(directory, "journal");
+        long textBytes = 0;
+        long journalBytes = 0;
+        try (ReceiptJournal journal = new ReceiptJournal(journalDirectory)) {
+            for (int from = 0; from < receipts.size(); from += 1000) {
+                journal.write(receipts.subList(from, Math.min(from + 1000, receipts.size())));
+            }
+        }
+        for (Receipt receipt : receipts) {
+            textBytes += new ReceiptRenderer().render(receipt).remaining();
+        }
+        for (File file : journalDirectory.listFiles()) {
+            if (file.getName().endsWith(".seg")) {
+                journalBytes += file.length();
+            }
+        }
+
+        File archiveFile = new File(directory, "receipts.rca");
+        long writeStart = System.nanoTime();
+        ReceiptArchive.write(archiveFile, receipts);
+        long writeMillis = (System.nanoTime() - writeStart) / 1_000_000;
+        System.out.printf("# %,d receipts: text %.0f B, journal %.0f B, archive %.1f B per receipt; archive written in %d ms%n",
+                receiptCount, textBytes / (double) receiptCount, journalBytes / (double) receiptCount,
+                archiveFile.length() / (double) receiptCount, writeMillis);
+
+        List<Receipt> block = receipts.subList(0, Math.min(ReceiptArchive.BLOCK_RECEIPTS, receipts.size()));
+        byte[] encoded = ReceiptCodec.encodeBlock(block);
+        harness.run("encode block", () -> sink += ReceiptCodec.encodeBlock(block).length);
+        harness.run("decode block", () -> sink += ReceiptCodec.decodeBlock(encoded).size());
+
+        int count = receiptCount;
+        try (ReceiptArchive archive = new ReceiptArchive(archiveFile)) {
+            harness.run("read one", () -> sink += archive.read(1000 + random.nextInt(count)).getItems().size());
+            harness.run("render one", () -> sink += BillingEngine.generateReceipt(
+                    archive.read(1000 + random.nextInt(count))).length());
+        }
+        deleteAll(directory);
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,121 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Checks that ReceiptRenderer produces exactly the bytes of generateReceipt, then compares
+// the time and heap allocation of both per receipt line.
+//
+// Usage: ReceiptRenderBenchmark [receipts] [lines per receipt]   (default 20000 and 25)
+public class ReceiptRenderBenchmark {
+    private static final String[] DISCOUNTS = {
+            "None (0%)", "Loyalty Card (5.0%)", "Senior Citizen (10.0%)",
+            "Special Offer (15.0%)", "Festive Season (20.0%)"};
+    private static final double[] RATES = {0, 0.05, 0.10, 0.15, 0.20};
+    private static final String[] NAMES = {
+            "Rice (5kg)", "Milk", "Pandesal (10 pcs)", "Corned Beef 150g", "Jalapeño Chips",
+            "Extra Virgin Olive Oil 1L Imported", "Café con Leche ₱ Promo", "Eggs"};
+
+    public static void main(String[] args) {
+        int receiptCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 25;
+
+        ReceiptRenderer renderer = new ReceiptRenderer();
+        int mismatches = verify(renderer, 50_000);
+        System.out.println("byte identity: " + (mismatches == 0 ? "OK" : mismatches + " mismatches")
+                + " over 50000 random receipts");
+
+        List<Receipt> receipts = new ArrayList<>(receiptCount);
+        Random random = new Random(42);
+        for (int i = 0; i < receiptCount; i++) {
+            receipts.add(randomReceipt(random, 1000 + i, lines));
+        }
+        long totalLines = (long) receiptCount * lines;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Warm up both paths, then measure each over the same receipts
+        for (int round = 0; round < 3; round++) {
+            runRenderer(renderer, receipts);
+            runFormatter(receipts);
+        }
+
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long sink = runRenderer(renderer, receipts);
+        long rendererNanos = System.nanoTime() - start;
+        long rendererBytes = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        sink += runFormatter(receipts);
+        long formatterNanos = System.nanoTime() - start;
+        long formatterBytes = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.printf("%,d receipts x %d lines (checksum %d)%n", receiptCount, lines, sink);
+        System.out.printf("%-18s %12s %14s %16s%n", "path", "ns/line", "bytes/line", "bytes/receipt");
+        System.out.printf("%-18s %12.1f %14.2f %16.1f%n", "generateReceipt",
+                formatterNanos / (double) totalLines, formatterBytes / (double) totalLines,
+                formatterBytes / (double) receiptCount);
+        System.out.printf("%-18s %12.1f %14.2f %16.1f%n", "ReceiptRenderer",
+                rendererNanos / (double) totalLines, rendererBytes / (double) totalLines,
+                rendererBytes / (double) receiptCount);
+    }
+
+    private static int verify(ReceiptRenderer renderer, int count) {
+        Random random = new Random(7);
+        int mismatches = 0;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Receipt receipt = randomReceipt(random, random.nextInt(Integer.MAX_VALUE), 1 + random.nextInt(12));
+            // Spread timestamps over several years to cross days and DST changes
+            receipt = new Receipt(receipt.getNumber(), now - (long) (random.nextDouble() * 4 * 365 * 86_400_000L),
+                    receipt.getItems(), receipt.getDiscountName(), receipt.getDiscountRate());
+            byte[] expected = BillingEngine.generateReceipt(receipt).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer rendered = renderer.render(receipt);
+            byte[] actual = new byte[rendered.remaining()];
+            rendered.get(actual);
+            if (!Arrays.equals(expected, actual)) {
+                if (mismatches++ == 0) {
+                    System.out.println("first mismatch, expected:\n" + new String(expected, StandardCharsets.UTF_8)
+                            + "\nactual:\n" + new String(actual, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    private static long runRenderer(ReceiptRenderer renderer, List<Receipt> receipts) {
+        long bytes = 0;
+        for (Receipt receipt : receipts) {
+            bytes += renderer.render(receipt).remaining();
+        }
+        return bytes;
+    }
+
+    private static long runFormatter(List<Receipt> receipts) {
+        long bytes = 0;
+        for (Receipt receipt : receipts) {
+            bytes += BillingEngine.generateReceipt(receipt).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+
+    private static Receipt randomReceipt(Random random, int number, int lines) {
+        List<Product> items = new ArrayList<>(lines);
+        for (int line = 0; line < lines; line++) {
+            // Prices on exact half-cent ties as well as arbitrary doubles
+            double price = random.nextBoolean()
+                    ? random.nextInt(200_000) / 200.0
+                    : random.nextDouble() * 5000;
+            String id = "P" + random.nextInt(random.nextBoolean() ? 1000 : 100_000_000);
+            items.add(new Product(id, NAMES[random.nextInt(NAMES.length)], price, 1 + random.nextInt(120)));
+        }
+        int discount = random.nextInt(DISCOUNTS.length);
+        return new Receipt(number, 1_760_000_000_000L + random.nextInt(86_400_000), items,
+                DISCOUNTS[discount], RATES[discount]);
+    }
+}
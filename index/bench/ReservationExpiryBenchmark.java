@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Cost of reservation records with --open reservations outstanding (default 50,000):
+//   wheel schedule + cancel   TimingWheel.schedule and cancel of one more entry
+//   reserve + release         StockReservations.reserve and release of one unit
+//   add + clear               CartSession.add and clear with reservations (touch, record, release)
+// then an expiry run: --carts carts (default 5,000) hold the open reservations with a ttl of
+// --ttl ms (default 500). Half the carts keep being used, half are abandoned. Once the ttl has
+// passed, every reservation of an abandoned cart must have expired and its stock be back, the
+// carts in use must have kept theirs, and the carts in use are then checked out, committing
+// every reservation still open. Last, an abandoned cart is used again and must take its
+// stock back.
+//
+// Usage: java ReservationExpiryBenchmark [--open 50000] [--carts 5000] [--ttl 500] plus the BenchHarness options
+public class ReservationExpiryBenchmark {
+    private static final int SKUS = 1000;
+    private static final int INITIAL_STOCK = 1_000_000;
+
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int open = 50_000;
+        int cartCount = 5_000;
+        long ttl = 500;
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            switch (rest.get(i)) {
+                case "--open":
+                    open = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--carts":
+                    cartCount = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--ttl":
+                    ttl = Long.parseLong(rest.get(++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        ProductCatalog catalog = new ProductCatalog(SKUS, new BillingEventBus());
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < SKUS; i++) {
+            products.add(new Product("P" + i, "Product " + i, 1 + i / 100.0, INITIAL_STOCK));
+        }
+        catalog.putAll(products);
+        Random random = new Random(42);
+
+        TimingWheel wheel = new TimingWheel(10, 0);
+        for (int i = 0; i < open; i++) {
+            wheel.schedule(new TimingWheel.Entry(), 1 + random.nextInt(3_600_000));
+        }
+        TimingWheel.Entry entry = new TimingWheel.Entry();
+        harness.run("wheel schedule + cancel", () -> {
+            wheel.schedule(entry, 1 + random.nextInt(3_600_000));
+            sink += wheel.cancel(entry) ? 1 : 0;
+        });
+
+        // Hour-long ttl: nothing expires while these run
+        try (StockReservations reservations = new StockReservations(catalog, 3_600_000, 100)) {
+            StockReservations.Holder holder = reservations.newHolder();
+            for (int i = 0; i < open; i++) {
+                reservations.reserve(holder, products.get(random.nextInt(SKUS)), 1);
+            }
+            harness.run("reserve + release", () -> {
+                StockReservations.Reservation reservation = reservations.reserve(holder,
+                        products.get(random.nextInt(SKUS)), 1);
+                sink += reservations.release(reservation) ? 1 : 0;
+            });
+            CartSession session = new CartSession(1, catalog, PromotionTable.of(BillingEngine.defaultDiscounts()),
+                    reservations);
+            harness.run("add + clear", () -> {
+                session.add("P" + random.nextInt(SKUS), 1);
+                session.clear();
+            });
+        }
+        for (Product product : products) {
+            product.setQuantity(INITIAL_STOCK);
+        }
+
+        runExpiry(catalog, open, cartCount, ttl, random);
+    }
+
+    private static long held(CartSession cart) {
+        long units = 0;
+        for (Product line : cart.getLines()) {
+            units += line.getQuantity();
+        }
+        return units;
+    }
+
+    private static void runExpiry(ProductCatalog catalog, int open, int cartCount, long ttl, Random random)
+            throws InterruptedException {
+        StockReservations reservations = new StockReservations(catalog, ttl, 10);
+        List<CartSession> carts = new ArrayList<>();
+        for (int c = 0; c < cartCount; c++) {
+            carts.add(new CartSession(c, catalog, PromotionTable.of(BillingEngine.defaultDiscounts()), reservations));
+        }
+        long abandonedUnits = 0;
+        int[] adds = new int[cartCount];
+        for (int i = 0; i < open; i++) {
+            int c = i % cartCount;
+            int quantity = 1 + random.nextInt(3);
+            carts.get(c).add("P" + random.nextInt(SKUS), quantity);
+            adds[c]++;
+            if (c % 2 == 1) {
+                abandonedUnits += quantity;
+            }
+        }
+        long opened = reservations.getActiveCount();
+
+        // Carts in use: one action each, every ttl / 4, for two ttls
+        long start = System.nanoTime();
+        long end = start + ttl * 2_000_000;
+        while (System.nanoTime() < end) {
+            for (int c = 0; c < cartCount; c += 2) {
+                carts.get(c).toReceipt(0, "None (0%)", 0);
+            }
+            Thread.sleep(Math.max(1, ttl / 4));
+        }
+        long expiredAt = System.nanoTime();
+        long stock = 0;
+        for (int i = 0; i < SKUS; i++) {
+            stock += catalog.get(i).getQuantity();
+        }
+        long held = (long) SKUS * INITIAL_STOCK - stock;
+        long heldByUsed = 0;
+        for (int c = 0; c < cartCount; c += 2) {
+            heldByUsed += held(carts.get(c));
+        }
+        long expired = reservations.getExpiredCount();
+        long active = reservations.getActiveCount();
+        boolean ok = held == heldByUsed && expired + active == opened;
+
+        for (int c = 0; c < cartCount; c += 2) {
+            carts.get(c).completeCheckout(c);
+        }
+        ok &= reservations.getActiveCount() == 0 && reservations.getCommittedCount() == active;
+
+        // An abandoned cart used again takes its stock again
+        CartSession returning = carts.get(1);
+        long units = held(returning);
+        returning.toReceipt(0, "None (0%)", 0);
+        ok &= held(returning) == units && reservations.getActiveCount() == adds[1];
+        returning.clear();
+        reservations.close();
+        System.out.printf("# expiry: %,d reservations in %,d carts, ttl %d ms: %,d expired (%,d units back), "
+                        + "%,d kept by carts in use and then committed, %d ms run: %s%n",
+                opened, cartCount, ttl, expired, abandonedUnits, active,
+                (expiredAt - start) / 1_000_000, ok ? "PASS" : "FAIL");
+        if (!ok) {
+            System.out.printf("# held %d, held by carts in use %d, committed %d%n", held, heldByUsed,
+                    reservations.getCommittedCount());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Cost of the sales ledger on a large catalog (default 500,000 SKUs that have all sold):
+//   record       add one receipt of --lines lines, as checkout does
+//   report       X-report; it should not depend on the number of SKUs
+//   top sellers  the ten best SKUs by units and by revenue, one pass over the SKU columns
+// then, once, the time to rebuild the ledger from a journal of --receipts receipts on 1 thread
+// and on every CPU.
+//
+// Usage: java SalesLedgerBenchmark [--skus 500000] [--lines 20] [--receipts 200000] [--dir path]
+//        plus the BenchHarness options
+public class SalesLedgerBenchmark {
+    private static final String[] DISCOUNTS = {"None (0%)", "Loyalty Card (5.0%)", "Senior Citizen (10.0%)"};
+    private static final double[] RATES = {0, 0.05, 0.10};
+
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int skus = 500_000;
+        int lines = 20;
+        int receiptCount = 200_000;
+        File directory = new File(System.getProperty("java.io.tmpdir"), "ledger-bench");
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            switch (rest.get(i)) {
+                case "--skus":
+                    skus = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--lines":
+                    lines = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--receipts":
+                    receiptCount = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--dir":
+                    directory = new File(rest.get(++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        Random random = new Random(42);
+        Product[] catalog = new Product[skus];
+        for (int i = 0; i < skus; i++) {
+            catalog[i] = new Product(String.format("P%07d", i), "Product " + i, 1 + random.nextInt(50_000) / 100.0, 1);
+        }
+        List<Receipt> receipts = new ArrayList<>(1024);
+        for (int n = 0; n < 1024; n++) {
+            receipts.add(receipt(random, catalog, n, lines));
+        }
+
+        SalesLedger ledger = new SalesLedger(0);
+        // Every SKU has sold, so the SKU columns are full size
+        for (int i = 0; i < skus; i += lines) {
+            List<Product> items = new ArrayList<>(lines);
+            for (int j = i; j < Math.min(i + lines, skus); j++) {
+                items.add(new Product(catalog[j].getId(), catalog[j].getName(), catalog[j].getPrice(), 1));
+            }
+            ledger.record(new Receipt(i, System.currentTimeMillis(), items, DISCOUNTS[0], RATES[0]));
+        }
+
+        harness.run("record (" + lines + " lines)", new BenchHarness.Case() {
+            private int next;
+
+            @Override
+            public void invoke() {
+                ledger.record(receipts.get(next++ & 1023));
+            }
+        });
+        harness.run("report", () -> sink += ledger.report().getReceipts());
+        harness.run("top sellers by units", () -> sink += ledger.topSellers(SalesLedger.DEFAULT_TOP,
+                SalesLedger.Measure.UNITS).size());
+        harness.run("top sellers by revenue", () -> sink += ledger.topSellers(SalesLedger.DEFAULT_TOP,
+                SalesLedger.Measure.REVENUE).size());
+
+        deleteAll(directory);
+        try (ReceiptJournal journal = new ReceiptJournal(directory, 16L << 20, true)) {
+            List<Receipt> batch = new ArrayList<>(1000);
+            for (int n = 0; n < receiptCount; n++) {
+                batch.add(receipt(random, catalog, n, lines));
+                if (batch.size() == 1000 || n == receiptCount - 1) {
+                    journal.write(batch);
+                    batch.clear();
+                }
+            }
+            int cpus = Runtime.getRuntime().availableProcessors();
+            for (int threads : cpus > 1 ? new int[] {1, cpus} : new int[] {1}) {
+                long start = System.nanoTime();
+                SalesLedger rebuilt = SalesLedger.rebuild(journal, 0, threads);
+                System.out.printf("# rebuilt %,d receipts (%,d SKUs) on %d thread(s) in %d ms%n",
+                        rebuilt.getReceiptCount(), rebuilt.getSkuCount(), threads,
+                        (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+        deleteAll(directory);
+    }
+
+    private static Receipt receipt(Random random, Product[] catalog, int number, int lines) {
+        List<Product> items = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            Product product = catalog[random.nextInt(catalog.length)];
+            items.add(new Product(product.getId(), product.getName(), product.getPrice(), 1 + random.nextInt(3)));
+        }
+        int discount = random.nextInt(DISCOUNTS.length);
+        return new Receipt(number, System.currentTimeMillis() - random.nextInt(86_400_000), items,
+                DISCOUNTS[discount], RATES[discount]);
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Type-ahead latency of ProductSearchIndex on a large catalog (default 500,000 SKUs) with
+// generated names such as "Golden Farm Chocolate Milk 500ml". Reports the index build time once,
+// then for each query the latency of returning the first ProductSearchIndex.DEFAULT_LIMIT
+// matches, and the cost of renaming one product (an upsert re-indexing its words).
+//
+// Usage: java -Djava.awt.headless=true SearchBenchmark [--skus 500000] plus the BenchHarness options
+// 500k SKUs need roughly -Xmx1g.
+public class SearchBenchmark {
+    private static final String[] BRANDS = {"Golden Farm", "Sunrise", "Island Fresh", "Lucky", "Metro",
+            "Mountain Valley", "Blue Bay", "Harvest", "Prime", "Tropical"};
+    private static final String[] PRODUCTS = {"Rice", "Milk", "Chocolate Milk", "Bread", "Eggs", "Sugar",
+            "Coffee", "Instant Noodles", "Corned Beef", "Sardines", "Cooking Oil", "Soy Sauce", "Vinegar",
+            "Shampoo", "Soap", "Toothpaste", "Detergent", "Biscuits", "Chocolate Bar", "Mango Juice"};
+    private static final String[] SIZES = {"100g", "250g", "500g", "1kg", "5kg", "250ml", "500ml", "1L"};
+
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int skus = 500_000;
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            if (rest.get(i).equals("--skus")) {
+                skus = Integer.parseInt(rest.get(++i));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        Random random = new Random(42);
+        List<Product> products = new ArrayList<>(skus);
+        for (int i = 0; i < skus; i++) {
+            String name = BRANDS[random.nextInt(BRANDS.length)] + " " + PRODUCTS[random.nextInt(PRODUCTS.length)]
+                    + " " + SIZES[random.nextInt(SIZES.length)] + " #" + i;
+            products.add(new Product(String.format("P%07d", i), name, 1 + random.nextInt(50_000) / 100.0, 100));
+        }
+        ProductCatalog catalog = new ProductCatalog(skus, new BillingEventBus());
+        catalog.putAll(products);
+
+        long start = System.nanoTime();
+        ProductSearchIndex index = new ProductSearchIndex(catalog);
+        System.out.printf("# indexed %,d SKUs (%,d words) in %d ms%n", skus, index.getWordCount(),
+                (System.nanoTime() - start) / 1_000_000);
+
+        String exactId = String.format("P%07d", skus / 2);
+        String[] queries = {"m", "mil", "milk", "chocolate mi", "golden choc milk 500", "p00012", exactId,
+                "zzz", "sauce soy prime"};
+        for (String query : queries) {
+            harness.run("search '" + query + "'", () -> sink += index.search(query).size());
+        }
+
+        harness.run("rename one product", new BenchHarness.Case() {
+            private int next;
+
+            @Override
+            public void invoke() {
+                Product product = products.get(next++ % products.size());
+                String name = (next & 1) == 0 ? product.getName() : product.getName() + " Promo";
+                catalog.put(new Product(product.getId(), name, product.getPrice(), product.getQuantity()));
+            }
+        });
+        index.close();
+    }
+}
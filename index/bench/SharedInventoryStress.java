@@ -0,0 +1,210 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs lane processes (separate JVMs) against one SharedMemoryInventory and kills some of them
+// with SIGKILL part way, then checks what the shared table says:
+//   - stock never goes negative (every process checks on every STOCK_CHANGED event)
+//   - for every SKU, final stock + units sold <= initial stock: nothing was handed out twice
+//   - for processes that exited normally nothing is lost; a killed process may lose at most
+//     the units of the cart it was checking out (counted before its lane is recovered)
+// Killed terminals are started again under the same number, so both ways of recovery run: by
+// the other lanes while it is gone, and by itself when it attaches again.
+//
+// Usage: SharedInventoryStress [processes] [seconds] [skus] [kills]   (default 4, 10, 8, 3)
+public class SharedInventoryStress {
+    private static final int INITIAL_STOCK = 2_000_000;
+    private static final int SLOTS = 1024;
+    private static final int THREADS = 2;
+    private static final int MAX_CART_LINES = 6;
+    private static final int MAX_LINE_UNITS = 5;
+
+    // Counter file of one process: done flag, negative stock observations, then units sold per
+    // thread and SKU. Mapped, so it survives the process being killed.
+    private static final int DONE = 0, NEGATIVE = 8, SOLD = 16;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--lane")) {
+            runLane(new File(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    Long.parseLong(args[4]), new File(args[5]));
+            return;
+        }
+        int processes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int skuCount = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int kills = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        File directory = new File(System.getProperty("java.io.tmpdir"), "shared-inventory-stress");
+        deleteAll(directory);
+        directory.mkdirs();
+        long endMillis = System.currentTimeMillis() + seconds * 1000L;
+
+        List<Process> running = new ArrayList<>();
+        List<File> counterFiles = new ArrayList<>();
+        for (int terminal = 1; terminal <= processes; terminal++) {
+            running.add(startLane(directory, terminal, skuCount, endMillis, counterFiles));
+        }
+
+        // Kill lanes at random points of the first half of the run and start them again
+        Random random = new Random(7);
+        int killed = 0;
+        for (int k = 0; k < kills; k++) {
+            Thread.sleep(Math.max(100, seconds * 500L / Math.max(1, kills) - 200 + random.nextInt(400)));
+            int victim = random.nextInt(processes);
+            if (!running.get(victim).isAlive()) {
+                continue; // the run is over
+            }
+            running.get(victim).destroyForcibly().waitFor();
+            killed++;
+            // Leave it dead for a while, so the other lanes recover it
+            Thread.sleep(SharedMemoryInventory.RECOVERY_INTERVAL_MILLIS * 2);
+            running.set(victim, startLane(directory, victim + 1, skuCount, endMillis, counterFiles));
+        }
+        boolean exitedOk = true;
+        for (Process process : running) {
+            exitedOk &= process.waitFor() == 0;
+        }
+
+        // A last attach recovers any lane left behind
+        long[] sold = new long[skuCount];
+        long negative = 0;
+        int unfinished = 0;
+        for (File file : counterFiles) {
+            MappedByteBuffer counters = mapCounters(file, skuCount);
+            negative += counters.getLong(NEGATIVE);
+            if (counters.getLong(DONE) == 0) {
+                unfinished++;
+            }
+            for (int thread = 0; thread < THREADS; thread++) {
+                for (int sku = 0; sku < skuCount; sku++) {
+                    sold[sku] += counters.getLong(SOLD + (thread * skuCount + sku) * 8);
+                }
+            }
+        }
+        boolean ok = exitedOk && negative == 0 && unfinished <= killed;
+        long lost = 0;
+        try (SharedMemoryInventory inventory = new SharedMemoryInventory(directory, 0, SLOTS)) {
+            for (int sku = 0; sku < skuCount; sku++) {
+                int stock = inventory.stockOf("P" + sku);
+                long accounted = stock + sold[sku];
+                lost += INITIAL_STOCK - accounted;
+                boolean skuOk = stock >= 0 && accounted <= INITIAL_STOCK;
+                ok &= skuOk;
+                System.out.printf("%-4s stock %8d  sold %8d  missing %4d  %s%n", "P" + sku, stock, sold[sku],
+                        INITIAL_STOCK - accounted, skuOk ? "ok" : "OVERSOLD");
+            }
+        }
+        long allowed = (long) killed * THREADS * MAX_CART_LINES * MAX_LINE_UNITS;
+        ok &= lost <= allowed;
+        System.out.printf("%d processes for %d s, %d killed; %d units missing (at most %d allowed)%n",
+                processes, seconds, killed, lost, allowed);
+        System.out.println(ok ? "PASS" : "FAIL (" + negative + " negative stock observations, "
+                + unfinished + " processes did not finish)");
+        deleteAll(directory);
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static Process startLane(File directory, int terminal, int skuCount, long endMillis,
+                                     List<File> counterFiles) throws IOException {
+        File counters = new File(directory, "counters_" + counterFiles.size() + ".dat");
+        counterFiles.add(counters);
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "-Djava.awt.headless=true",
+                SharedInventoryStress.class.getName(), "--lane", directory.getPath(), String.valueOf(terminal),
+                String.valueOf(skuCount), String.valueOf(endMillis), counters.getPath())
+                .inheritIO().start();
+    }
+
+    // One lane process: THREADS carts adding, removing and checking out until endMillis
+    private static void runLane(File directory, int terminal, int skuCount, long endMillis, File counterFile)
+            throws Exception {
+        MappedByteBuffer counters = mapCounters(counterFile, skuCount);
+        BillingEventBus events = new BillingEventBus();
+        ProductCatalog catalog = new ProductCatalog(skuCount, events);
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < skuCount; i++) {
+            products.add(new Product("P" + i, "Product " + i, 10 + i, INITIAL_STOCK));
+        }
+        catalog.putAll(products);
+
+        AtomicInteger negative = new AtomicInteger();
+        try (SharedMemoryInventory inventory = new SharedMemoryInventory(directory, terminal, SLOTS)) {
+            inventory.share(catalog);
+            events.subscribe(event -> {
+                if (event.getType() == BillingEvent.Type.STOCK_CHANGED && event.getProduct().getQuantity() < 0) {
+                    negative.incrementAndGet();
+                }
+            });
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                CartSession session = new CartSession(terminal, catalog);
+                Random random = new Random(terminal * 31L + t + System.nanoTime());
+                threads.add(new Thread(() -> {
+                    int receipts = 0;
+                    while (System.currentTimeMillis() < endMillis) {
+                        int choice = random.nextInt(100);
+                        if (choice < 60 && session.getLines().size() < MAX_CART_LINES) {
+                            session.add("P" + random.nextInt(skuCount), 1 + random.nextInt(MAX_LINE_UNITS));
+                        } else if (choice < 75 && !session.isEmpty()) {
+                            List<Product> lines = session.getLines();
+                            session.remove(lines.get(random.nextInt(lines.size())).getId());
+                        } else if (choice < 80) {
+                            session.clear();
+                        } else if (!session.isEmpty()) {
+                            Receipt receipt = session.toReceipt(++receipts, "None (0%)", 0);
+                            session.completeCheckout(receipt.getNumber());
+                            for (Product line : receipt.getItems()) {
+                                int offset = SOLD + (thread * skuCount + catalog.indexOf(line.getId())) * 8;
+                                counters.putLong(offset, counters.getLong(offset) + line.getQuantity());
+                            }
+                        }
+                    }
+                    session.clear();
+                }, "lane-" + terminal + "-" + t));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (inventory.getReservedUnits() != 0) {
+                System.err.println("Terminal " + terminal + " still holds " + inventory.getReservedUnits() + " units");
+                negative.incrementAndGet();
+            }
+        }
+        counters.putLong(NEGATIVE, negative.get());
+        counters.putLong(DONE, 1);
+        counters.force();
+    }
+
+    private static MappedByteBuffer mapCounters(File file, int skuCount) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SOLD + THREADS * skuCount * 8L);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        }
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Low-stock lookups on a large catalog (default 500,000 SKUs, --low of them below their
+// reorder point, default 1,000):
+//   stock change, no index      ProductCatalog.adjustQuantity with nothing listening
+//   stock change, indexed       the same with a StockLevelIndex following the catalog
+//   below threshold, indexed    StockLevelIndex.belowThreshold
+//   below threshold, scan       the same answer by reading every product's quantity
+// then a run of --threads lanes moving stock across the reorder points for two seconds, with a
+// ReplenishmentFeed attached. Afterwards the index must agree with a full scan, and the last
+// line of each SKU in the feed must give its level.
+//
+// Usage: java StockLevelBenchmark [--skus 500000] [--low 1000] [--threads 4] plus the BenchHarness options
+public class StockLevelBenchmark {
+    private static final int REORDER_POINT = 20;
+
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness harness = new BenchHarness(args);
+        int skus = 500_000;
+        int lowCount = 1_000;
+        int threads = 4;
+        List<String> rest = harness.getArguments();
+        for (int i = 0; i < rest.size(); i++) {
+            switch (rest.get(i)) {
+                case "--skus":
+                    skus = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--low":
+                    lowCount = Integer.parseInt(rest.get(++i));
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(rest.get(++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + rest.get(i));
+            }
+        }
+
+        Random random = new Random(42);
+        int low = lowCount;
+        int size = skus;
+        ProductCatalog plain = catalog(skus, low);
+        Product plainProduct = plain.get(skus - 1);
+        harness.run("stock change, no index", () -> {
+            plain.adjustQuantity(plainProduct, -1);
+            plain.adjustQuantity(plainProduct, 1);
+        });
+
+        ProductCatalog catalog = catalog(skus, low);
+        StockLevelIndex index = new StockLevelIndex(catalog, REORDER_POINT);
+        Product product = catalog.get(skus - 1);
+        harness.run("stock change, indexed", () -> {
+            catalog.adjustQuantity(product, -1);
+            catalog.adjustQuantity(product, 1);
+        });
+        harness.run("below threshold, indexed", () -> sink += index.belowThreshold().size());
+        harness.run("below threshold, scan", () -> {
+            List<Product> found = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Product candidate = catalog.get(i);
+                if (candidate.getQuantity() <= REORDER_POINT) {
+                    found.add(candidate);
+                }
+            }
+            sink += found.size();
+        });
+
+        checkUnderLoad(threads, Math.min(skus, 2_000), random);
+    }
+
+    // SKUs 0 .. low-1 start at their reorder point, the rest well above it
+    private static ProductCatalog catalog(int skus, int low) {
+        ProductCatalog catalog = new ProductCatalog(skus, new BillingEventBus());
+        List<Product> products = new ArrayList<>(skus);
+        for (int i = 0; i < skus; i++) {
+            products.add(new Product(String.format("P%07d", i), "Product " + i, 1.99, i < low ? REORDER_POINT : 1_000));
+        }
+        catalog.putAll(products);
+        return catalog;
+    }
+
+    private static void checkUnderLoad(int threadCount, int skus, Random random) throws Exception {
+        ProductCatalog catalog = new ProductCatalog(skus, new BillingEventBus());
+        List<Product> products = new ArrayList<>(skus);
+        for (int i = 0; i < skus; i++) {
+            products.add(new Product(String.format("P%07d", i), "Product, " + i, 1.99, REORDER_POINT + random.nextInt(5)));
+        }
+        catalog.putAll(products);
+        StockLevelIndex index = new StockLevelIndex(catalog, 0);
+        for (int i = 0; i < skus; i++) {
+            index.setThreshold(products.get(i).getId(), REORDER_POINT, 100);
+        }
+        File file = File.createTempFile("replenishment", ".csv");
+        file.delete();
+        AtomicLong changes = new AtomicLong();
+        ReplenishmentFeed feed = new ReplenishmentFeed(file, index);
+        index.addListener((product, from, to, stock, reorderPoint, reorderQuantity) -> changes.incrementAndGet());
+
+        long end = System.currentTimeMillis() + 2000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            Random lane = new Random(t);
+            threads.add(new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    Product product = products.get(lane.nextInt(skus));
+                    if (lane.nextBoolean()) {
+                        // A little more out than in, so stock keeps crossing the reorder points
+                        catalog.tryReserve(product, 1 + lane.nextInt(5));
+                    } else {
+                        catalog.adjustQuantity(product, 1 + lane.nextInt(4));
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        feed.close();
+
+        // Latest feed line per SKU
+        String[] lastLevel = new String[skus];
+        List<String> lines = Files.readAllLines(file.toPath());
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            lastLevel[Integer.parseInt(fields[3].substring(1))] = fields[2];
+        }
+        int mismatches = 0;
+        int below = 0;
+        for (int i = 0; i < skus; i++) {
+            int stock = products.get(i).getQuantity();
+            StockLevelIndex.Level expected = stock <= 0 ? StockLevelIndex.Level.OUT
+                    : stock <= REORDER_POINT ? StockLevelIndex.Level.LOW : StockLevelIndex.Level.OK;
+            if (expected != StockLevelIndex.Level.OK) {
+                below++;
+            }
+            String fed = lastLevel[i] == null ? "OK" : lastLevel[i];
+            if (index.levelOf(products.get(i).getId()) != expected || !fed.equals(expected.name())) {
+                mismatches++;
+            }
+        }
+        boolean ok = mismatches == 0 && below == index.countBelowThreshold() && feed.getFailure() == null;
+        System.out.printf("# %d threads, %,d SKUs: %,d level changes, %,d feed lines, %d below threshold, "
+                + "%d mismatches: %s%n", threadCount, skus, changes.get(), lines.size() - 1, below, mismatches,
+                ok ? "PASS" : "FAIL");
+        file.delete();
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// The checkout lane the JMH benchmarks measure (see benchmarks.CheckoutLane): a durable
+// BillingEngine in a temp directory, inventory log and receipt journal included, with one session.
+public class LaneFixture implements benchmarks.CheckoutLane {
+    private static final String DISCOUNT = "Senior Citizen (10.0%)";
+
+    private final File directory;
+    private final BillingEngine engine;
+    private final CartSession session;
+    private final ReceiptRenderer renderer = new ReceiptRenderer();
+    private final String[] ids;
+    private final String lastId;
+    private Receipt receipt;
+
+    public LaneFixture(int catalogSize, int cartSize) throws IOException {
+        directory = Files.createTempDirectory("billing-jmh").toFile();
+        engine = BillingEngine.open(new File(directory, "receipts"), new File(directory, "inventory"), 0);
+        List<Product> products = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            // Enough stock that no benchmark ever runs out
+            products.add(new Product(String.format("P%07d", i), "Product " + i + " (500g)",
+                    1 + (i % 50_000) / 100.0, Integer.MAX_VALUE / 2));
+        }
+        engine.getCatalog().putAll(products);
+        session = engine.openSession(0);
+
+        // Cart lines are spread over the whole catalog
+        ids = new String[Math.min(cartSize, catalogSize)];
+        int stride = catalogSize / ids.length;
+        for (int line = 0; line < ids.length; line++) {
+            ids[line] = engine.getCatalog().get(line * stride).getId();
+        }
+        lastId = ids[ids.length - 1];
+    }
+
+    @Override
+    public void fill() {
+        for (String id : ids) {
+            session.add(id, 1);
+        }
+    }
+
+    @Override
+    public void refillLastLine() {
+        if (session.getLines().size() < ids.length) {
+            session.add(lastId, 1);
+        }
+    }
+
+    @Override
+    public void addToLastLine() {
+        session.add(lastId, 1);
+    }
+
+    @Override
+    public void removeLastLine() {
+        session.remove(lastId);
+    }
+
+    @Override
+    public void clear() {
+        session.clear();
+    }
+
+    @Override
+    public double calculateTotal() {
+        return session.getTotal();
+    }
+
+    @Override
+    public void prepareReceipt() {
+        receipt = session.toReceipt(1000, DISCOUNT, engine.discountRate(DISCOUNT));
+    }
+
+    @Override
+    public int generateReceipt() {
+        return BillingEngine.generateReceipt(receipt).length();
+    }
+
+    @Override
+    public int renderReceipt() {
+        return renderer.render(receipt).remaining();
+    }
+
+    @Override
+    public void checkout() {
+        if (!engine.checkout(session, DISCOUNT).isSuccess()) {
+            throw new IllegalStateException("checkout failed");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        engine.close();
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
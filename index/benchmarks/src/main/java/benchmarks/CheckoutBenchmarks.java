@@ -0,0 +1,141 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The checkout hot path on a durable lane (inventory log and receipt journal in a temp
+// directory), for every catalog size and cart size:
+//   addToCart        add one unit to the last line of a full cart
+//   removeFromCart   remove the last line (put back untimed before each invocation)
+//   clearCart        return every line to stock (cart refilled untimed)
+//   calculateTotal   subtotal of the cart
+//   generateReceipt  reference String receipt text
+//   renderReceipt    ReceiptRenderer output, as written by the receipt sinks
+//   checkout         sell the cart and queue the receipt (cart refilled untimed); the journal
+//                    write happens on the writer thread and pushes back through the queue
+// Throughput and sampled latency (percentiles) are both reported. A cart is never longer than
+// the catalog: with more lines than SKUs it has one line per SKU.
+//
+// Usage: java -jar target/benchmarks.jar -prof gc                       allocation rate too
+//        java -jar target/benchmarks.jar checkout -p catalogSize=1000000 -p cartSize=500
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class CheckoutBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Lane {
+        @Param({"10", "1000", "100000", "1000000"})
+        public int catalogSize;
+
+        @Param({"1", "50", "500", "5000"})
+        public int cartSize;
+
+        CheckoutLane lane;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            lane = CheckoutLane.open(catalogSize, cartSize);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws Exception {
+            lane.close();
+        }
+    }
+
+    // A full cart for the whole iteration
+    @State(Scope.Thread)
+    public static class FullCart {
+        CheckoutLane lane;
+
+        @Setup(Level.Iteration)
+        public void fill(Lane owner) {
+            lane = owner.lane;
+            lane.fill();
+            lane.prepareReceipt();
+        }
+
+        @TearDown(Level.Iteration)
+        public void clear() {
+            lane.clear();
+        }
+    }
+
+    // A full cart whose last line is put back before every invocation, for removeFromCart only:
+    // invocation-level setup costs the other benchmarks too much to share
+    @State(Scope.Thread)
+    public static class RemovableCart extends FullCart {
+        @Setup(Level.Invocation)
+        public void refillLastLine() {
+            lane.refillLastLine();
+        }
+    }
+
+    // A cart filled again before every invocation, for the benchmarks that empty it
+    @State(Scope.Thread)
+    public static class RefilledCart {
+        CheckoutLane lane;
+
+        @Setup(Level.Invocation)
+        public void fill(Lane owner) {
+            lane = owner.lane;
+            lane.fill();
+        }
+
+        @TearDown(Level.Iteration)
+        public void clear() {
+            lane.clear();
+        }
+    }
+
+    @Benchmark
+    public void addToCart(FullCart cart) {
+        cart.lane.addToLastLine();
+    }
+
+    @Benchmark
+    public void removeFromCart(RemovableCart cart) {
+        cart.lane.removeLastLine();
+    }
+
+    @Benchmark
+    public void clearCart(RefilledCart cart) {
+        cart.lane.clear();
+    }
+
+    @Benchmark
+    public double calculateTotal(FullCart cart) {
+        return cart.lane.calculateTotal();
+    }
+
+    @Benchmark
+    public int generateReceipt(FullCart cart) {
+        return cart.lane.generateReceipt();
+    }
+
+    @Benchmark
+    public int renderReceipt(FullCart cart) {
+        return cart.lane.renderReceipt();
+    }
+
+    @Benchmark
+    public void checkout(RefilledCart cart) {
+        cart.lane.checkout();
+    }
+}
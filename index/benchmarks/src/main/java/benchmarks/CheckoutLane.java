@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.io.IOException;
+
+// One lane of a durable BillingEngine, as the benchmarks drive it.
+// JMH refuses benchmark classes in the default package, and the billing classes live there,
+// out of reach of an import; the default-package LaneFixture works the engine behind this
+// interface. It is created once per trial by reflection, so the calls measured are plain
+// interface calls.
+public interface CheckoutLane extends AutoCloseable {
+    // A BillingEngine in a new temp directory with catalogSize products, and an empty cart of
+    // one session whose lines spread over the whole catalog (at most one line per product)
+    static CheckoutLane open(int catalogSize, int cartSize) throws Exception {
+        return (CheckoutLane) Class.forName("LaneFixture").getConstructor(int.class, int.class)
+                .newInstance(catalogSize, cartSize);
+    }
+
+    // Put one unit of every line in the cart
+    void fill();
+
+    // Put back the last line if it is missing
+    void refillLastLine();
+
+    void addToLastLine();
+
+    void removeLastLine();
+
+    void clear();
+
+    double calculateTotal();
+
+    // Build the receipt of the cart as it is now, for generateReceipt and renderReceipt
+    void prepareReceipt();
+
+    // Length of the reference String receipt text
+    int generateReceipt();
+
+    // Bytes ReceiptRenderer writes for the receipt, as the receipt sinks do
+    int renderReceipt();
+
+    // Sell the cart and queue its receipt for the journal
+    void checkout();
+
+    // Stop the engine and delete its directory
+    @Override
+    void close() throws IOException;
+}
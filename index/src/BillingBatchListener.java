@@ -0,0 +1,6 @@
+import java.util.List;
+
+// Receives billing events on the event dispatch thread, coalesced to at most one batch per frame
+public interface BillingBatchListener {
+    void billingChanged(List<BillingEvent> events);
+}
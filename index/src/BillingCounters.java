@@ -0,0 +1,52 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Event counts of the billing hot paths. LongAdder keeps increments from many lanes cheap.
+public class BillingCounters implements BillingCountersMBean {
+    final LongAdder linesAdded = new LongAdder();
+    final LongAdder addsRejected = new LongAdder();
+    final LongAdder checkouts = new LongAdder();
+    final LongAdder checkoutsFailed = new LongAdder();
+    final LongAdder receiptsWritten = new LongAdder();
+    final LongAdder receiptsFailed = new LongAdder();
+    final LongAdder edtStalls = new LongAdder();
+    // Stock reservations open now (a gauge), and those that ended by sale or by timing out
+    final LongAdder reservationsActive = new LongAdder();
+    final LongAdder reservationsCommitted = new LongAdder();
+    final LongAdder reservationsExpired = new LongAdder();
+    // Times the inventory store stopped logging stock changes
+    final LongAdder inventoryFailures = new LongAdder();
+
+    @Override
+    public long getLinesAdded() { return linesAdded.sum(); }
+    @Override
+    public long getAddsRejected() { return addsRejected.sum(); }
+    @Override
+    public long getCheckouts() { return checkouts.sum(); }
+    @Override
+    public long getCheckoutsFailed() { return checkoutsFailed.sum(); }
+    @Override
+    public long getReceiptsWritten() { return receiptsWritten.sum(); }
+    @Override
+    public long getReceiptsFailed() { return receiptsFailed.sum(); }
+    @Override
+    public long getEdtStalls() { return edtStalls.sum(); }
+    @Override
+    public long getReservationsActive() { return reservationsActive.sum(); }
+    @Override
+    public long getReservationsCommitted() { return reservationsCommitted.sum(); }
+    @Override
+    public long getReservationsExpired() { return reservationsExpired.sum(); }
+    @Override
+    public long getInventoryFailures() { return inventoryFailures.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format("lines added %d, adds rejected %d, checkouts %d, checkouts failed %d, "
+                        + "receipts written %d, receipts failed %d, EDT stalls %d, "
+                        + "reservations active %d, committed %d, expired %d, inventory failures %d",
+                getLinesAdded(), getAddsRejected(), getCheckouts(), getCheckoutsFailed(),
+                getReceiptsWritten(), getReceiptsFailed(), getEdtStalls(),
+                getReservationsActive(), getReservationsCommitted(), getReservationsExpired(),
+                getInventoryFailures());
+    }
+}
@@ -0,0 +1,14 @@
+// JMX view of BillingCounters; all counts since start
+public interface BillingCountersMBean {
+    long getLinesAdded();
+    long getAddsRejected();
+    long getCheckouts();
+    long getCheckoutsFailed();
+    long getReceiptsWritten();
+    long getReceiptsFailed();
+    long getEdtStalls();
+    long getReservationsActive();
+    long getReservationsCommitted();
+    long getReservationsExpired();
+    long getInventoryFailures();
+}
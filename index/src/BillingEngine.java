@@ -0,0 +1,444 @@
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The billing logic without any user interface: catalog, carts, discounts and checkout.
+// Results come back as values (CheckoutResult) and receipt writes are reported through a
+// ReceiptCallback, so the engine runs the same in the Swing forms, a kiosk backend, a batch
+// job or a benchmark. Nothing here touches Swing: the event bus only starts a Swing timer
+// once a form subscribes for batches. Pass -Djava.awt.headless=true when there is no display.
+public class BillingEngine implements AutoCloseable {
+    // How long checkout waits for room in a full receipt queue
+    public static final long DEFAULT_RECEIPT_ENQUEUE_TIMEOUT_MILLIS = 2000;
+
+    private static final ReceiptCallback IGNORE_RECEIPTS = new ReceiptCallback() {
+        @Override
+        public void receiptSaved(Receipt receipt, String location) {
+        }
+
+        @Override
+        public void receiptFailed(Receipt receipt, IOException error) {
+        }
+    };
+
+    private final BillingEventBus events;
+    private final ProductCatalog catalog;
+    private final PromotionTable promotions;
+    private final HashMap<String, Double> discounts;
+    private final ReceiptSequence receiptSequence;
+    private final ReceiptWriter receiptWriter;
+    private SalesLedger ledger = new SalesLedger(System.currentTimeMillis());
+    private long receiptEnqueueTimeoutMillis = DEFAULT_RECEIPT_ENQUEUE_TIMEOUT_MILLIS;
+
+    // Built on first use
+    private ProductSearchIndex searchIndex;
+
+    // Resources opened by open() and released by close()
+    private InventoryStore inventoryStore;
+    private ReceiptJournal journal;
+    private File salesPeriodFile;
+    private SharedMemoryInventory sharedInventory;
+    // Expires the stock of idle carts; null keeps reserved stock until it is released
+    private StockReservations reservations;
+    private StockLevelIndex stockLevels;
+    private ReplenishmentFeed replenishmentFeed;
+
+    public BillingEngine(ProductCatalog catalog, Map<String, Double> discounts,
+                         ReceiptSequence receiptSequence, ReceiptWriter receiptWriter) {
+        this(catalog, PromotionTable.of(discounts), receiptSequence, receiptWriter);
+    }
+
+    // promotions: the automatic promotions and the discount options offered at checkout
+    public BillingEngine(ProductCatalog catalog, PromotionTable promotions,
+                         ReceiptSequence receiptSequence, ReceiptWriter receiptWriter) {
+        this.events = catalog.getEvents();
+        this.catalog = catalog;
+        this.promotions = promotions;
+        this.discounts = new HashMap<>(promotions.getDiscounts());
+        this.receiptSequence = receiptSequence;
+        this.receiptWriter = receiptWriter;
+    }
+
+    // Open the durable engine of one terminal: stock from the inventory store (every later stock
+    // change is logged to it), receipts appended to the journal under receiptDirectory/journal,
+    // and receipt numbers from the terminal's persistent sequence. Promotions are read from the
+    // file named by the billing.promotions system property (PromotionRule.parse format); without
+    // it the default discount options apply and there are no automatic promotions. With the
+    // billing.shared.inventory property set to a directory, stock is shared with the other lane
+    // processes of the store server through SharedMemoryInventory, and the terminal's store and
+    // replenishment feed move to inventoryDirectory/lane_<terminal> (a new lane starts from the
+    // products in inventoryDirectory). The stock of a cart left idle for billing.reservation.ttl
+    // seconds (default 15 minutes, 0 never) goes back to the catalog. Stock levels are indexed
+    // against the reorder points of inventoryDirectory/reorder.csv (billing.reorder.point for
+    // SKUs not in it, default 0) and every crossing is appended to replenishment.csv in the
+    // store directory.
+    public static BillingEngine open(File receiptDirectory, File inventoryDirectory, int terminal)
+            throws IOException {
+        // Closed again, newest first, if a later step fails: lane locks, open logs and threads
+        // must not outlive a failed start
+        ArrayList<AutoCloseable> opened = new ArrayList<>();
+        try {
+            BillingEventBus events = new BillingEventBus();
+            // Lanes sharing stock each keep their own store: one process owns a store directory
+            String sharedDirectory = System.getProperty("billing.shared.inventory");
+            File storeDirectory = sharedDirectory == null
+                    ? inventoryDirectory
+                    : new File(inventoryDirectory, "lane_" + terminal);
+            InventoryStore inventoryStore = new InventoryStore(storeDirectory);
+            opened.add(inventoryStore);
+            List<Product> stored = inventoryStore.load();
+            Map<String, Double> storedPrices = inventoryStore.getLoadedPrices();
+            if (stored.isEmpty() && sharedDirectory != null) {
+                // A new lane starts from the products and prices of the store in
+                // inventoryDirectory, if any
+                try (InventoryStore seed = new InventoryStore(inventoryDirectory)) {
+                    stored = seed.load();
+                    storedPrices = seed.getLoadedPrices();
+                }
+                inventoryStore.logPut(stored);
+                inventoryStore.logPrices(storedPrices);
+            }
+            ProductCatalog catalog = new ProductCatalog(Math.max(16, stored.size()), events);
+            catalog.putAll(stored);
+
+            // Price overrides go in after share(), whose upsert would drop them, and are not
+            // passed on to the other lanes again
+            SharedMemoryInventory sharedInventory = null;
+            if (sharedDirectory != null) {
+                sharedInventory = new SharedMemoryInventory(new File(sharedDirectory), terminal);
+                opened.add(sharedInventory);
+                sharedInventory.share(catalog);
+                if (!storedPrices.isEmpty()) {
+                    sharedInventory.applyPrices(storedPrices);
+                }
+            } else if (!storedPrices.isEmpty()) {
+                catalog.getPrices().publish(storedPrices);
+            }
+
+            StockLevelIndex stockLevels = new StockLevelIndex(catalog, Integer.getInteger("billing.reorder.point", 0));
+            File thresholds = new File(inventoryDirectory, "reorder.csv");
+            if (thresholds.exists()) {
+                List<String> errors = new ArrayList<>();
+                stockLevels.loadThresholds(thresholds, errors);
+                for (String error : errors) {
+                    System.err.println("Skipped reorder point: " + error);
+                }
+            }
+            ReplenishmentFeed replenishmentFeed = new ReplenishmentFeed(
+                    new File(storeDirectory, "replenishment.csv"), stockLevels);
+            opened.add(replenishmentFeed);
+
+            // From here on every stock change and upsert is written to the log; if that stops, the
+            // forms and any other subscriber hear of it
+            inventoryStore.setFailureListener(error -> events.publish(BillingEvent.inventoryFailed()));
+            events.subscribe(inventoryStore);
+
+            // Create directory for receipts if it doesn't exist
+            if (!receiptDirectory.exists()) {
+                receiptDirectory.mkdir();
+            }
+
+            // Receipts are appended to a segmented journal; ReceiptExport turns them back into text files
+            ReceiptJournal journal = new ReceiptJournal(new File(receiptDirectory, "journal"));
+            opened.add(journal);
+
+            // Latency recorders and counters become visible in jconsole
+            BillingMetrics.registerMBeans();
+
+            // Receipt numbers survive restarts; each terminal has its own range
+            long highestUsed = Math.max(ReceiptSequence.highestReceiptNumber(receiptDirectory),
+                    journal.getHighestNumber());
+            ReceiptSequence sequence = new ReceiptSequence(receiptDirectory, terminal,
+                    ReceiptSequence.DEFAULT_START, ReceiptSequence.DEFAULT_RANGE_SIZE,
+                    ReceiptSequence.DEFAULT_BLOCK_SIZE, highestUsed);
+            opened.add(sequence);
+
+            String promotionFile = System.getProperty("billing.promotions");
+            PromotionTable promotions = promotionFile == null
+                    ? PromotionTable.of(defaultDiscounts())
+                    : PromotionTable.load(new File(promotionFile));
+
+            // Sales since the last Z-report, added up again from the journal
+            File salesPeriodFile = new File(receiptDirectory, "sales_period.txt");
+            SalesLedger ledger = SalesLedger.rebuild(journal, SalesLedger.loadPeriodStart(salesPeriodFile),
+                    Runtime.getRuntime().availableProcessors());
+
+            ReceiptWriter receiptWriter = new ReceiptWriter(journal);
+            opened.add(receiptWriter);
+            BillingEngine engine = new BillingEngine(catalog, promotions, sequence, receiptWriter);
+            engine.inventoryStore = inventoryStore;
+            engine.journal = journal;
+            engine.ledger = ledger;
+            engine.salesPeriodFile = salesPeriodFile;
+            engine.sharedInventory = sharedInventory;
+            engine.stockLevels = stockLevels;
+            engine.replenishmentFeed = replenishmentFeed;
+            long ttlSeconds = Long.getLong("billing.reservation.ttl", StockReservations.DEFAULT_TTL_MILLIS / 1000);
+            if (ttlSeconds > 0) {
+                engine.reservations = new StockReservations(catalog, ttlSeconds * 1000,
+                        StockReservations.DEFAULT_TICK_MILLIS);
+            }
+            return engine;
+        } catch (IOException | RuntimeException e) {
+            for (int i = opened.size() - 1; i >= 0; i--) {
+                try {
+                    opened.get(i).close();
+                } catch (Exception closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+    }
+
+    public static Map<String, Double> defaultDiscounts() {
+        Map<String, Double> discounts = new HashMap<>();
+        discounts.put("Loyalty Card", 0.05);
+        discounts.put("Senior Citizen", 0.10);
+        discounts.put("Special Offer", 0.15);
+        discounts.put("Festive Season", 0.20);
+        return discounts;
+    }
+
+    public BillingEventBus getEvents() {
+        return events;
+    }
+
+    public ProductCatalog getCatalog() {
+        return catalog;
+    }
+
+    public HashMap<String, Double> getDiscounts() {
+        return discounts;
+    }
+
+    public PromotionTable getPromotions() {
+        return promotions;
+    }
+
+    // Type-ahead index over the catalog. It is built on the first call, which takes a while on a
+    // large catalog, so call it off the EDT.
+    public synchronized ProductSearchIndex getSearchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new ProductSearchIndex(catalog);
+        }
+        return searchIndex;
+    }
+
+    public ReceiptSequence getReceiptSequence() {
+        return receiptSequence;
+    }
+
+    public ReceiptWriter getReceiptWriter() {
+        return receiptWriter;
+    }
+
+    // Sales of the current period, updated by every checkout
+    public SalesLedger getSalesLedger() {
+        return ledger;
+    }
+
+    // Z-report: the sales of the current period, which then ends. For an engine created by open()
+    // the start of the new period is saved, so a restart does not count the closed period again.
+    public SalesLedger.Report closeSalesPeriod() throws IOException {
+        SalesLedger.Report report = ledger.closePeriod();
+        if (salesPeriodFile != null) {
+            SalesLedger.savePeriodStart(salesPeriodFile, report.getPeriodEnd());
+        }
+        return report;
+    }
+
+    // The durable inventory store, or null if the engine was not created by open()
+    public InventoryStore getInventoryStore() {
+        return inventoryStore;
+    }
+
+    public void setReceiptEnqueueTimeoutMillis(long timeoutMillis) {
+        this.receiptEnqueueTimeoutMillis = timeoutMillis;
+    }
+
+    // A new, empty cart for a lane
+    public CartSession openSession(int terminal) {
+        return new CartSession(terminal, catalog, promotions, reservations);
+    }
+
+    // SKUs below their reorder point, kept as stock moves; null unless opened with open()
+    public StockLevelIndex getStockLevels() {
+        return stockLevels;
+    }
+
+    // Reservation records of the sessions opened here, or null if reserved stock does not expire
+    public StockReservations getReservations() {
+        return reservations;
+    }
+
+    // Rate of a discount option given by name ("Senior Citizen") or label ("Senior Citizen (10.0%)");
+    // 0 for "None" or unknown options
+    public double discountRate(String discountType) {
+        return promotions.discountRate(discountType);
+    }
+
+    public CheckoutResult checkout(CartSession session, String discountType) {
+        return checkout(session, discountType, IGNORE_RECEIPTS);
+    }
+
+    // Sell the cart of a session. The receipt is queued for the background writer, which reports
+    // the write through callback on its own thread. The cart is only emptied if the receipt was queued.
+    public CheckoutResult checkout(CartSession session, String discountType, ReceiptCallback callback) {
+        long start = System.nanoTime();
+        CheckoutResult result = sell(session, discountType, callback);
+        BillingMetrics.CHECKOUT.recordSince(start);
+        if (result.isSuccess()) {
+            BillingMetrics.COUNTERS.checkouts.increment();
+        } else {
+            BillingMetrics.COUNTERS.checkoutsFailed.increment();
+        }
+        return result;
+    }
+
+    private CheckoutResult sell(CartSession session, String discountType, ReceiptCallback callback) {
+        if (session.isEmpty()) {
+            return CheckoutResult.failed(CheckoutResult.Status.EMPTY_CART, "Cart is empty");
+        }
+        double discountRate = discountRate(discountType);
+
+        // From here until the sale completes or fails, no reservation of the cart may expire
+        if (!session.holdForCheckout()) {
+            return CheckoutResult.failed(CheckoutResult.Status.STOCK_CHANGED,
+                    "Some items are no longer in stock; the cart was updated");
+        }
+
+        // Allocate a receipt number that has never been used, even across restarts
+        int receiptNumber;
+        try {
+            receiptNumber = receiptSequence.next();
+        } catch (IOException | IllegalStateException e) {
+            session.cancelCheckout();
+            return CheckoutResult.failed(CheckoutResult.Status.NUMBER_UNAVAILABLE,
+                    "Error allocating receipt number: " + e.getMessage());
+        }
+
+        // Capture the sale; the receipt text is rendered by the sink on the writer thread
+        Receipt receipt = session.toReceipt(receiptNumber, discountType, discountRate);
+
+        // Hand the receipt to the background writer; the lane continues as soon as it is queued
+        if (!receiptWriter.submit(receipt, callback, receiptEnqueueTimeoutMillis)) {
+            session.cancelCheckout();
+            return CheckoutResult.failed(CheckoutResult.Status.QUEUE_FULL,
+                    "Error saving receipt: receipt queue is full");
+        }
+
+        // Clear cart for next customer; stock was already reserved when items were added
+        session.completeCheckout(receiptNumber);
+        ledger.record(receipt);
+        return CheckoutResult.completed(receipt);
+    }
+
+    // Write out queued receipts, then close the receipt sequence and the files opened by open()
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (searchIndex != null) {
+                searchIndex.close();
+            }
+        }
+        if (reservations != null) {
+            reservations.close();
+        }
+        if (replenishmentFeed != null) {
+            replenishmentFeed.close();
+        }
+        receiptWriter.close();
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } finally {
+            try {
+                receiptSequence.close();
+            } finally {
+                try {
+                    if (inventoryStore != null) {
+                        inventoryStore.close();
+                    }
+                } finally {
+                    if (sharedInventory != null) {
+                        sharedInventory.close();
+                    }
+                }
+            }
+        }
+    }
+
+    // Generate receipt content
+    public static String generateReceipt(Receipt sale) {
+        long start = System.nanoTime();
+        String text = formatReceipt(sale);
+        BillingMetrics.GENERATE_RECEIPT.recordSince(start);
+        return text;
+    }
+
+    private static String formatReceipt(Receipt sale) {
+        String discountName = sale.getDiscountName();
+
+        StringBuilder receipt = new StringBuilder();
+
+        // Header
+        receipt.append("====================================\n");
+        receipt.append("          SUPERMARKET RECEIPT        \n");
+        receipt.append("====================================\n\n");
+
+        // Receipt details
+        receipt.append("Receipt #: ").append(sale.getNumber()).append("\n");
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        receipt.append("Date: ").append(dateFormat.format(new Date(sale.getTimestamp()))).append("\n\n");
+
+        // Items
+        receipt.append("ITEMS:\n");
+        receipt.append(String.format("%-5s %-20s %-10s %-10s %-10s\n",
+                "ID", "Product", "Price", "Qty", "Total"));
+        receipt.append("------------------------------------------------------------\n");
+
+        for (Product product : sale.getItems()) {
+            double total = product.getPrice() * product.getQuantity();
+            receipt.append(String.format("%-5s %-20s ₱%-9.2f %-10d ₱%-9.2f\n",
+                    product.getId(),
+                    product.getName(),
+                    product.getPrice(),
+                    product.getQuantity(),
+                    total));
+        }
+
+        receipt.append("------------------------------------------------------------\n\n");
+
+        // Totals in cents, as the cart worked them out; the discount applies to what is left
+        // after promotions
+        receipt.append(String.format("Subtotal:          ₱%.2f\n", sale.getSubtotalCents() / 100.0));
+
+        for (Receipt.Promotion promotion : sale.getPromotions()) {
+            receipt.append(String.format("Promo (%s): -₱%.2f\n", promotion.getName(), promotion.getAmount()));
+        }
+
+        // Discount info
+        if (!discountName.startsWith("None")) {
+            String discountType = discountName.split("\\(")[0].trim();
+            receipt.append(String.format("Discount (%s): -₱%.2f\n",
+                    discountType, sale.getDiscountCents() / 100.0));
+        }
+
+        receipt.append(String.format("TOTAL:             ₱%.2f\n\n", sale.getTotalCents() / 100.0));
+
+        // Footer
+        receipt.append("====================================\n");
+        receipt.append("         Thank you for shopping!    \n");
+        receipt.append("====================================\n");
+
+        return receipt.toString();
+    }
+}
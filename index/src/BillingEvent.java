@@ -0,0 +1,144 @@
+import java.util.Collections;
+import java.util.List;
+
+// A change to stock or to the cart, published through the BillingEventBus
+public class BillingEvent {
+    public enum Type {
+        STOCK_CHANGED,      // product stock changed by delta; index is the catalog position
+        STOCK_SOLD,         // units a cart held of product were sold; stock is unchanged
+        PRODUCTS_UPSERTING, // products are about to be added or replaced; no lane can see them yet
+        PRODUCTS_UPSERTED,  // products were added to or replaced in the catalog
+        PRICES_CHANGING,    // a PriceTable version is about to change prices; products carry the new ones
+        PRICES_CHANGED,     // a new PriceTable version changed the prices of products
+        CART_LINE_ADDED,    // a new cart line was appended at index
+        CART_LINE_UPDATED,  // the quantity of the cart line at index changed
+        CART_LINE_REMOVED,  // the cart line at index was removed
+        CART_CLEARED,       // all cart lines were returned to stock
+        CHECKOUT_COMPLETED, // the cart was sold and emptied
+        INVENTORY_FAILED    // the inventory store stopped logging; stock changes are no longer durable
+    }
+
+    private final Type type;
+    private final Product product;
+    private final int index;
+    private final int delta;
+    private final int reserved;
+    private final int receiptNumber;
+    private final List<Product> products;
+    private final CartSession session;
+
+    private BillingEvent(Type type, Product product, int index, int delta,
+                         int receiptNumber, List<Product> products, CartSession session) {
+        this(type, product, index, delta, 0, receiptNumber, products, session);
+    }
+
+    private BillingEvent(Type type, Product product, int index, int delta, int reserved,
+                         int receiptNumber, List<Product> products, CartSession session) {
+        this.type = type;
+        this.product = product;
+        this.index = index;
+        this.delta = delta;
+        this.reserved = reserved;
+        this.receiptNumber = receiptNumber;
+        this.products = products;
+        this.session = session;
+    }
+
+    public static BillingEvent stockChanged(Product product, int index, int delta) {
+        return new BillingEvent(Type.STOCK_CHANGED, product, index, delta, 0, Collections.emptyList(), null);
+    }
+
+    // quantity units went from stock into a cart
+    public static BillingEvent stockReserved(Product product, int index, int quantity) {
+        return new BillingEvent(Type.STOCK_CHANGED, product, index, -quantity, quantity, 0,
+                Collections.emptyList(), null);
+    }
+
+    // quantity units a cart held went back to stock
+    public static BillingEvent stockReleased(Product product, int index, int quantity) {
+        return new BillingEvent(Type.STOCK_CHANGED, product, index, quantity, -quantity, 0,
+                Collections.emptyList(), null);
+    }
+
+    public static BillingEvent stockSold(Product product, int index, int quantity) {
+        return new BillingEvent(Type.STOCK_SOLD, product, index, 0, -quantity, 0,
+                Collections.emptyList(), null);
+    }
+
+    public static BillingEvent productsUpserting(List<Product> products) {
+        return new BillingEvent(Type.PRODUCTS_UPSERTING, null, -1, 0, 0, products, null);
+    }
+
+    public static BillingEvent productsUpserted(List<Product> products) {
+        return new BillingEvent(Type.PRODUCTS_UPSERTED, null, -1, 0, 0, products, null);
+    }
+
+    // repriced: copies of the products with the new prices, in the order given to publish
+    public static BillingEvent pricesChanging(List<Product> repriced) {
+        return new BillingEvent(Type.PRICES_CHANGING, null, -1, 0, 0, repriced, null);
+    }
+
+    public static BillingEvent pricesChanged(List<Product> products) {
+        return new BillingEvent(Type.PRICES_CHANGED, null, -1, 0, 0, products, null);
+    }
+
+    public static BillingEvent cartLineAdded(CartSession session, Product line, int index) {
+        return new BillingEvent(Type.CART_LINE_ADDED, line, index, line.getQuantity(), 0,
+                Collections.emptyList(), session);
+    }
+
+    public static BillingEvent cartLineUpdated(CartSession session, Product line, int index, int delta) {
+        return new BillingEvent(Type.CART_LINE_UPDATED, line, index, delta, 0, Collections.emptyList(), session);
+    }
+
+    public static BillingEvent cartLineRemoved(CartSession session, Product line, int index) {
+        return new BillingEvent(Type.CART_LINE_REMOVED, line, index, -line.getQuantity(), 0,
+                Collections.emptyList(), session);
+    }
+
+    public static BillingEvent cartCleared(CartSession session) {
+        return new BillingEvent(Type.CART_CLEARED, null, -1, 0, 0, Collections.emptyList(), session);
+    }
+
+    public static BillingEvent inventoryFailed() {
+        return new BillingEvent(Type.INVENTORY_FAILED, null, -1, 0, 0, Collections.emptyList(), null);
+    }
+
+    public static BillingEvent checkoutCompleted(CartSession session, int receiptNumber) {
+        return new BillingEvent(Type.CHECKOUT_COMPLETED, null, -1, 0, receiptNumber,
+                Collections.emptyList(), session);
+    }
+
+    public Type getType() { return type; }
+    public Product getProduct() { return product; }
+    public int getIndex() { return index; }
+    public int getDelta() { return delta; }
+    // Change in units held by carts: positive when stock went into a cart, negative when a cart
+    // gave it back or sold it; 0 for other stock changes
+    public int getReserved() { return reserved; }
+    public int getReceiptNumber() { return receiptNumber; }
+    public List<Product> getProducts() { return products; }
+    // Cart the event belongs to; null for stock and catalog events
+    public CartSession getSession() { return session; }
+
+    // True for events that add or remove cart rows rather than change one in place
+    public boolean isCartStructureChange() {
+        return type == Type.CART_LINE_ADDED || type == Type.CART_LINE_REMOVED
+                || type == Type.CART_CLEARED || type == Type.CHECKOUT_COMPLETED;
+    }
+
+    public boolean isCartChange() {
+        return isCartStructureChange() || type == Type.CART_LINE_UPDATED;
+    }
+
+    // True for cart events of the given session
+    public boolean isCartChange(CartSession cart) {
+        return session == cart && isCartChange();
+    }
+
+    @Override
+    public String toString() {
+        return type + "[index=" + index + ", delta=" + delta
+                + (product != null ? ", id=" + product.getId() : "") + "]";
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Fans out stock and cart changes to subscribers.
+// Plain listeners are called immediately; batch listeners (the forms) get everything
+// published during one frame in a single call on the EDT, so a burst of scans
+// costs one repaint instead of one per scan. The Swing timer behind the frames is only
+// created when the first batch listener subscribes, so a headless engine never loads Swing.
+public class BillingEventBus {
+    public static final int FRAME_MILLIS = 16;
+
+    private final CopyOnWriteArrayList<BillingListener> listeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<BillingBatchListener> batchListeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<BillingEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Set before the first batch listener is added, so publish sees it once it sees a listener
+    private volatile javax.swing.Timer frameTimer;
+
+    public void subscribe(BillingListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(BillingListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void subscribeBatch(BillingBatchListener listener) {
+        if (frameTimer == null) {
+            javax.swing.Timer timer = new javax.swing.Timer(FRAME_MILLIS, e -> flush());
+            timer.setRepeats(false);
+            frameTimer = timer;
+        }
+        batchListeners.add(listener);
+    }
+
+    public void unsubscribeBatch(BillingBatchListener listener) {
+        batchListeners.remove(listener);
+    }
+
+    public void publish(BillingEvent event) {
+        for (BillingListener listener : listeners) {
+            listener.billingChanged(event);
+        }
+
+        if (batchListeners.isEmpty()) {
+            return;
+        }
+        pending.add(event);
+        if (flushScheduled.compareAndSet(false, true)) {
+            frameTimer.start();
+        }
+    }
+
+    // Runs on the EDT once per frame while events are pending
+    private void flush() {
+        // Clear the flag first so events published during delivery schedule the next frame
+        flushScheduled.set(false);
+
+        List<BillingEvent> batch = new ArrayList<>();
+        BillingEvent event;
+        while ((event = pending.poll()) != null) {
+            batch.add(event);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        for (BillingBatchListener listener : batchListeners) {
+            listener.billingChanged(batch);
+        }
+    }
+}
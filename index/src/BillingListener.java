@@ -0,0 +1,4 @@
+// Receives every billing event synchronously on the thread that published it
+public interface BillingListener {
+    void billingChanged(BillingEvent event);
+}
@@ -0,0 +1,70 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// The latency recorders and counters of the billing hot paths, shared by every engine in the JVM.
+// registerMBeans() publishes them on the platform MBean server (jconsole, VisualVM) as
+//   billing:type=Latency,name=<recorder>   billing:type=Counters
+// and MetricsReporter writes them to a log periodically.
+public final class BillingMetrics {
+    public static final LatencyRecorder ADD_TO_CART = new LatencyRecorder("addToCart");
+    public static final LatencyRecorder REMOVE_FROM_CART = new LatencyRecorder("removeFromCart");
+    public static final LatencyRecorder CLEAR_CART = new LatencyRecorder("clearCart");
+    public static final LatencyRecorder CHECKOUT = new LatencyRecorder("checkout");
+    public static final LatencyRecorder GENERATE_RECEIPT = new LatencyRecorder("generateReceipt");
+    // One sink write of a batch of receipts, and the time from checkout until a receipt is durable
+    public static final LatencyRecorder RECEIPT_WRITE = new LatencyRecorder("receiptWrite");
+    public static final LatencyRecorder RECEIPT_DURABLE = new LatencyRecorder("receiptDurable");
+    // One batch of billing events applied by a form, on the EDT
+    public static final LatencyRecorder PRODUCT_FORM_REFRESH = new LatencyRecorder("refresh.productManagement");
+    public static final LatencyRecorder CART_FORM_REFRESH = new LatencyRecorder("refresh.shoppingCart");
+    public static final LatencyRecorder CHECKOUT_FORM_REFRESH = new LatencyRecorder("refresh.checkout");
+    // How long the EDT stayed blocked, for stalls EdtWatchdog caught
+    public static final LatencyRecorder EDT_STALL = new LatencyRecorder("edtStall");
+
+    public static final BillingCounters COUNTERS = new BillingCounters();
+
+    private static final List<LatencyRecorder> RECORDERS = Collections.unmodifiableList(Arrays.asList(
+            ADD_TO_CART, REMOVE_FROM_CART, CLEAR_CART, CHECKOUT, GENERATE_RECEIPT, RECEIPT_WRITE,
+            RECEIPT_DURABLE, PRODUCT_FORM_REFRESH, CART_FORM_REFRESH, CHECKOUT_FORM_REFRESH, EDT_STALL));
+
+    private static boolean registered;
+
+    private BillingMetrics() {
+    }
+
+    public static List<LatencyRecorder> recorders() {
+        return RECORDERS;
+    }
+
+    // Publish the recorders and counters through JMX; later calls do nothing
+    public static synchronized void registerMBeans() {
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (LatencyRecorder recorder : RECORDERS) {
+                server.registerMBean(recorder, new ObjectName("billing:type=Latency,name=" + recorder.getName()));
+            }
+            server.registerMBean(COUNTERS, new ObjectName("billing:type=Counters"));
+            registered = true;
+        } catch (JMException e) {
+            // Metrics stay available in process and in the log; JMX is only a view
+            System.err.println("Cannot register billing MBeans: " + e);
+        }
+    }
+
+    // Publish another MBean (the EDT watchdog) under billing:type=<type>
+    public static void registerMBean(Object bean, String type) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName("billing:type=" + type));
+        } catch (JMException e) {
+            System.err.println("Cannot register billing MBean " + type + ": " + e);
+        }
+    }
+}
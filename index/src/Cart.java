@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Cart lines with O(1) lookup by SKU and running totals.
+// Lines stay in the order they were added (the cart table and the receipt show them that way)
+// and every line remembers its position, so finding a line never scans the cart. The subtotal,
+// the promotion savings and the discounted total of every discount option are kept in whole
+// cents and updated on each change: a change re-evaluates the promotions of that one line
+// (PromotionTable.lineDiscountCents) and the basket rules, so reading a total costs the same for
+// one line or five thousand. Removing a line shifts the lines after it up by one; removing the
+// last line is O(1).
+//
+// Line prices are taken to the nearest cent, as the receipt prints them.
+public class Cart {
+    private final ArrayList<Product> lines = new ArrayList<>();
+    private final HashMap<String, Line> linesById = new HashMap<>();
+    private final PromotionTable promotions;
+    private final long[] discountedCents;
+    private long subtotalCents;
+    private long linePromotionCents;
+    private long basketPromotionCents;
+
+    // A cart line: the product as sold, its position in lines, its unit price in cents and what
+    // its promotions currently save
+    private static class Line extends Product {
+        final long priceCents;
+        int position;
+        long promotionCents;
+
+        Line(Product product, double price, int quantity, int position) {
+            super(product.getId(), product.getName(), price, quantity);
+            this.priceCents = Math.round(price * 100);
+            this.position = position;
+        }
+    }
+
+    public Cart() {
+        this(new HashMap<>());
+    }
+
+    // discounts: name -> rate, as in BillingEngine.getDiscounts(); no promotions
+    public Cart(Map<String, Double> discounts) {
+        this(PromotionTable.of(discounts));
+    }
+
+    public Cart(PromotionTable promotions) {
+        this.promotions = promotions;
+        this.discountedCents = new long[promotions.getDiscountOptionCount()];
+    }
+
+    public PromotionTable getPromotions() {
+        return promotions;
+    }
+
+    // Live list of lines in cart order, for table models
+    public ArrayList<Product> getLines() {
+        return lines;
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public Product get(int index) {
+        return lines.get(index);
+    }
+
+    // Position of the line for a SKU, or -1
+    public int indexOf(String id) {
+        Line line = linesById.get(id);
+        return line == null ? -1 : line.position;
+    }
+
+    // Append a line for a product that is not in the cart yet, at the product's own price;
+    // returns its position
+    public int addLine(Product product, int quantity) {
+        return addLine(product, product.getPrice(), quantity);
+    }
+
+    // Append a line at a unit price from a PriceTable version
+    public int addLine(Product product, double price, int quantity) {
+        if (linesById.containsKey(product.getId())) {
+            throw new IllegalArgumentException("Already in cart: " + product.getId());
+        }
+        Line line = new Line(product, price, quantity, lines.size());
+        lines.add(line);
+        linesById.put(line.getId(), line);
+        subtotalCents += line.priceCents * quantity;
+        updatePromotion(line);
+        return line.position;
+    }
+
+    // Change the quantity of the line at index by delta
+    public void changeQuantity(int index, int delta) {
+        Line line = (Line) lines.get(index);
+        line.setQuantity(line.getQuantity() + delta);
+        subtotalCents += line.priceCents * delta;
+        updatePromotion(line);
+    }
+
+    // Remove the line at index and return it
+    public Product removeLine(int index) {
+        Line line = (Line) lines.remove(index);
+        linesById.remove(line.getId());
+        for (int i = index; i < lines.size(); i++) {
+            ((Line) lines.get(i)).position = i;
+        }
+        subtotalCents -= line.priceCents * line.getQuantity();
+        linePromotionCents -= line.promotionCents;
+        updateBasketTotals();
+        return line;
+    }
+
+    public void clear() {
+        lines.clear();
+        linesById.clear();
+        subtotalCents = 0;
+        linePromotionCents = 0;
+        updateBasketTotals();
+    }
+
+    public long getSubtotalCents() {
+        return subtotalCents;
+    }
+
+    public double getSubtotal() {
+        return subtotalCents / 100.0;
+    }
+
+    // Savings of all promotions, line and basket
+    public long getPromotionCents() {
+        return linePromotionCents + basketPromotionCents;
+    }
+
+    public double getPromotionTotal() {
+        return getPromotionCents() / 100.0;
+    }
+
+    // Total after promotions and a discount option such as "Senior Citizen (10.0%)";
+    // for "None" or an unknown option, the total after promotions
+    public long getDiscountedTotalCents(String discountType) {
+        int slot = promotions.discountSlot(discountType);
+        return slot < 0 ? subtotalCents - getPromotionCents() : discountedCents[slot];
+    }
+
+    public double getDiscountedTotal(String discountType) {
+        return getDiscountedTotalCents(discountType) / 100.0;
+    }
+
+    private void updatePromotion(Line line) {
+        long cents = promotions.lineDiscountCents(line.getId(), line.priceCents, line.getQuantity());
+        linePromotionCents += cents - line.promotionCents;
+        line.promotionCents = cents;
+        updateBasketTotals();
+    }
+
+    // Basket rules and discount options only depend on the totals; there are only a handful
+    private void updateBasketTotals() {
+        long net = subtotalCents - linePromotionCents;
+        basketPromotionCents = promotions.basketDiscountCents(net);
+        net -= basketPromotionCents;
+        for (int slot = 0; slot < discountedCents.length; slot++) {
+            discountedCents[slot] = net - Math.round(net * promotions.discountRate(slot));
+        }
+    }
+}
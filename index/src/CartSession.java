@@ -0,0 +1,314 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+// The cart of one checkout lane.
+// Each terminal has its own session and drives it from one thread at a time, so the lines need
+// no locking. The only state shared between sessions is catalog stock. It is reserved with
+// ProductCatalog.tryReserve when an item goes into the cart and returned when it comes out,
+// so lanes selling the same SKUs never oversell.
+// Prices come from the PriceTable version pinned by the first line of the cart; a price change
+// published while the cart is open applies from the next cart.
+// With StockReservations, every reservation is a record that expires once the cart has been
+// idle for the reservations' ttl. Expired stock goes back to the catalog; when the cart is used
+// again it takes the stock again, and lines whose stock has gone meanwhile are cut back.
+// A checkout holds the reservations (holdForCheckout) before the receipt is captured, so none
+// can expire between the receipt and completeCheckout.
+public class CartSession {
+    private final int terminal;
+    private final ProductCatalog catalog;
+    private final BillingEventBus events;
+    private final Cart cart;
+    // Pinned while the cart is open; null before its first line
+    private PriceTable.Version prices;
+    // Reservation records per SKU; null without StockReservations
+    private final StockReservations reservations;
+    private final StockReservations.Holder holder;
+    private final HashMap<String, List<StockReservations.Reservation>> held = new HashMap<>();
+
+    public CartSession(int terminal, ProductCatalog catalog) {
+        this(terminal, catalog, new HashMap<>());
+    }
+
+    // discounts: name -> rate; the cart keeps a running total for each of them
+    public CartSession(int terminal, ProductCatalog catalog, Map<String, Double> discounts) {
+        this(terminal, catalog, PromotionTable.of(discounts));
+    }
+
+    public CartSession(int terminal, ProductCatalog catalog, PromotionTable promotions) {
+        this(terminal, catalog, promotions, null);
+    }
+
+    // reservations: expire the stock of this cart when it is left idle; null keeps it until released
+    public CartSession(int terminal, ProductCatalog catalog, PromotionTable promotions,
+                       StockReservations reservations) {
+        this.terminal = terminal;
+        this.catalog = catalog;
+        this.events = catalog.getEvents();
+        this.cart = new Cart(promotions);
+        this.reservations = reservations;
+        this.holder = reservations == null ? null : reservations.newHolder();
+    }
+
+    public int getTerminal() {
+        return terminal;
+    }
+
+    // Cart lines in the order they were added; quantities are the reserved amounts
+    public ArrayList<Product> getLines() {
+        return cart.getLines();
+    }
+
+    public Cart getCart() {
+        return cart;
+    }
+
+    public boolean isEmpty() {
+        return cart.isEmpty();
+    }
+
+    // Prices of the open cart, or null if nothing has been added since the last clear or checkout
+    public PriceTable.Version getPriceVersion() {
+        return prices;
+    }
+
+    // Reserve quantity units of a product and add them to the cart.
+    // Returns false if the product is unknown or not enough stock is left.
+    public boolean add(String id, int quantity) {
+        long start = System.nanoTime();
+        boolean added = reserveAndAdd(id, quantity);
+        BillingMetrics.ADD_TO_CART.recordSince(start);
+        if (added) {
+            BillingMetrics.COUNTERS.linesAdded.increment();
+        } else {
+            BillingMetrics.COUNTERS.addsRejected.increment();
+        }
+        return added;
+    }
+
+    private boolean reserveAndAdd(String id, int quantity) {
+        Product product = catalog.get(id);
+        if (product == null || quantity <= 0) {
+            return false;
+        }
+        resume();
+        if (!reserve(product, quantity)) {
+            return false;
+        }
+
+        // Check if product already in cart
+        int line = cart.indexOf(id);
+        if (line == -1) {
+            if (prices == null) {
+                prices = catalog.getPrices().pin();
+            }
+            line = cart.addLine(product, prices.price(product), quantity);
+            events.publish(BillingEvent.cartLineAdded(this, cart.get(line), line));
+        } else {
+            cart.changeQuantity(line, quantity);
+            events.publish(BillingEvent.cartLineUpdated(this, cart.get(line), line, quantity));
+        }
+        return true;
+    }
+
+    // Remove the line for a product and return its quantity to stock
+    public void remove(String id) {
+        long start = System.nanoTime();
+        int line = cart.indexOf(id);
+        if (line != -1) {
+            touch();
+            Product cartProduct = cart.removeLine(line);
+            release(cartProduct);
+            events.publish(BillingEvent.cartLineRemoved(this, cartProduct, line));
+        }
+        BillingMetrics.REMOVE_FROM_CART.recordSince(start);
+    }
+
+    // Return every line to stock and empty the cart
+    public void clear() {
+        long start = System.nanoTime();
+        for (Product cartProduct : cart.getLines()) {
+            release(cartProduct);
+        }
+        cart.clear();
+        held.clear();
+        unpinPrices();
+        events.publish(BillingEvent.cartCleared(this));
+        BillingMetrics.CLEAR_CART.recordSince(start);
+    }
+
+    // Keep the cart's stock from expiring until completeCheckout or cancelCheckout. Returns false,
+    // holding nothing, if stock of a line had gone: the lines were cut back and the cashier
+    // should see the cart again before selling it.
+    public boolean holdForCheckout() {
+        if (reservations == null) {
+            return true;
+        }
+        boolean cut = resume();
+        if (!reservations.hold(holder)) {
+            // Expired between resume and hold; held now, so this is the last of it
+            cut |= resume();
+        }
+        if (cut) {
+            reservations.unhold(holder);
+            return false;
+        }
+        return true;
+    }
+
+    // The checkout did not go through: the cart's stock expires again when it is left idle
+    public void cancelCheckout() {
+        if (reservations != null) {
+            reservations.unhold(holder);
+        }
+    }
+
+    // Capture the current lines and the promotions they earned as a sale; the cart is unchanged
+    // until completeCheckout
+    public Receipt toReceipt(int receiptNumber, String discountName, double discountRate) {
+        resume();
+        ArrayList<Product> items = new ArrayList<>(cart.getLines());
+        return new Receipt(receiptNumber, System.currentTimeMillis(), items,
+                cart.getPromotions().evaluate(items), discountName, discountRate);
+    }
+
+    // The sale went through: the reserved stock is sold, so the lines are dropped without release
+    public void completeCheckout(int receiptNumber) {
+        if (reservations != null) {
+            for (List<StockReservations.Reservation> records : held.values()) {
+                for (StockReservations.Reservation reservation : records) {
+                    if (!reservations.commit(reservation)) {
+                        // Only without holdForCheckout: the goods are sold all the same, so take
+                        // the units again if they are still there, never below zero
+                        takeSold(reservation.getProductId(), reservation.getQuantity());
+                    }
+                }
+            }
+            held.clear();
+            reservations.unhold(holder);
+        } else {
+            for (Product line : cart.getLines()) {
+                catalog.sold(line.getId(), line.getQuantity());
+            }
+        }
+        cart.clear();
+        unpinPrices();
+        events.publish(BillingEvent.checkoutCompleted(this, receiptNumber));
+    }
+
+    private void takeSold(String id, int quantity) {
+        Product product = catalog.get(id);
+        if (product != null && catalog.tryReserve(product, quantity)) {
+            catalog.sold(id, quantity);
+        } else {
+            System.err.println("Terminal " + terminal + " sold " + quantity + " x " + id
+                    + " after its reservation expired and the stock was taken");
+        }
+    }
+
+    private void unpinPrices() {
+        if (prices != null) {
+            catalog.getPrices().unpin(prices);
+            prices = null;
+        }
+    }
+
+    // Total without discount; constant time
+    public double getTotal() {
+        return cart.getSubtotal();
+    }
+
+    // Savings of all promotions; constant time
+    public double getPromotionTotal() {
+        return cart.getPromotionTotal();
+    }
+
+    // Total after promotions and a discount option such as "Senior Citizen (10.0%)"; constant time
+    public double getDiscountedTotal(String discountType) {
+        return cart.getDiscountedTotal(discountType);
+    }
+
+    private boolean reserve(Product product, int quantity) {
+        if (reservations == null) {
+            return catalog.tryReserve(product, quantity);
+        }
+        StockReservations.Reservation reservation = reservations.reserve(holder, product, quantity);
+        if (reservation == null) {
+            return false;
+        }
+        held.computeIfAbsent(product.getId(), id -> new ArrayList<>()).add(reservation);
+        return true;
+    }
+
+    private void release(Product cartProduct) {
+        if (reservations != null) {
+            List<StockReservations.Reservation> records = held.remove(cartProduct.getId());
+            if (records != null) {
+                for (StockReservations.Reservation reservation : records) {
+                    reservations.release(reservation);
+                }
+            }
+            return;
+        }
+        Product product = catalog.get(cartProduct.getId());
+        if (product != null) {
+            catalog.release(product, cartProduct.getQuantity());
+        }
+    }
+
+    private void touch() {
+        if (reservations != null) {
+            reservations.touch(holder);
+        }
+    }
+
+    // The cart is in use again: keep its reservations alive, and take the stock of any that
+    // expired again. Units no longer in stock come out of their lines; returns whether any did.
+    private boolean resume() {
+        if (reservations == null) {
+            return false;
+        }
+        reservations.touch(holder);
+        if (!holder.takeExpired()) {
+            return false;
+        }
+        boolean cut = false;
+        // Backwards, so removing a line does not move the ones still to do
+        for (int index = cart.size() - 1; index >= 0; index--) {
+            Product line = cart.get(index);
+            Product product = catalog.get(line.getId());
+            List<StockReservations.Reservation> records = held.get(line.getId());
+            int lost = 0;
+            for (ListIterator<StockReservations.Reservation> it = records.listIterator(); it.hasNext(); ) {
+                StockReservations.Reservation reservation = it.next();
+                if (!reservation.isExpired()) {
+                    continue;
+                }
+                StockReservations.Reservation again = product == null ? null
+                        : reservations.reserve(holder, product, reservation.getQuantity());
+                if (again != null) {
+                    it.set(again);
+                } else {
+                    it.remove();
+                    lost += reservation.getQuantity();
+                }
+            }
+            cut |= lost > 0;
+            if (lost == line.getQuantity()) {
+                held.remove(line.getId());
+                events.publish(BillingEvent.cartLineRemoved(this, cart.removeLine(index), index));
+            } else if (lost > 0) {
+                cart.changeQuantity(index, -lost);
+                events.publish(BillingEvent.cartLineUpdated(this, cart.get(index), index, -lost));
+            }
+        }
+        return cut;
+    }
+
+    @Override
+    public String toString() {
+        return "CartSession[terminal=" + terminal + ", lines=" + cart.size() + "]";
+    }
+}
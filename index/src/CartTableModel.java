@@ -0,0 +1,69 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+
+// Table model that reads rows straight from the live cart
+public class CartTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"ID", "Name", "Price", "Quantity", "Total"};
+    private static final Class<?>[] COLUMN_CLASSES =
+            {String.class, String.class, Double.class, Integer.class, Double.class};
+
+    private final List<Product> cart;
+
+    public CartTableModel(List<Product> cart) {
+        this.cart = cart;
+    }
+
+    public Product getLineAt(int row) {
+        return cart.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return cart.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Product line = cart.get(row);
+        switch (column) {
+            case 0: return line.getId();
+            case 1: return line.getName();
+            case 2: return line.getPrice();
+            case 3: return line.getQuantity();
+            case 4: return line.getPrice() * line.getQuantity();
+            default: return null;
+        }
+    }
+
+    public void linesUpdated(int first, int last) {
+        fireTableRowsUpdated(first, last);
+    }
+
+    public void lineInserted(int index) {
+        fireTableRowsInserted(index, index);
+    }
+
+    public void lineRemoved(int index) {
+        fireTableRowsDeleted(index, index);
+    }
+
+    public void cleared() {
+        fireTableDataChanged();
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Bulk importer for the nightly head office price and stock file.
+//
+// The file has one product per line: id, name, price, quantity, separated by commas (CSV,
+// fields may be double-quoted) or tabs (TSV, detected from the first line). A UTF-8 byte order
+// mark is skipped. The first line is a header if it has the four fields but its price or
+// quantity is not a number; it is reported as skipped, not as malformed. The file is split at
+// line boundaries into ranges that are memory mapped and parsed in parallel on a fork-join
+// pool. Fields are located as byte offsets and numbers are parsed straight from the bytes, so
+// the only Strings created per row are the product id and name. Malformed rows are reported
+// with their line number and skipped; they never abort the import.
+public class CatalogImporter {
+    public static final int DEFAULT_SPLIT_SIZE = 8 << 20;
+    private static final int FIELDS = 4;
+    private static final int MAX_REPORTED_ERRORS = 10_000;
+
+    private final int parallelism;
+    private final int splitSize;
+
+    public CatalogImporter() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_SPLIT_SIZE);
+    }
+
+    public CatalogImporter(int parallelism, int splitSize) {
+        this.parallelism = parallelism;
+        this.splitSize = splitSize;
+    }
+
+    // Parse a price file into products, in file order
+    public Result parse(File file) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte delimiter = detectDelimiter(channel);
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                Chunk result = pool.invoke(new ParseTask(channel, delimiter, 0, size, splitSize));
+                if (result.failure != null) {
+                    throw result.failure;
+                }
+                return new Result(result.products, result.errors, result.errorCount, result.lines,
+                        result.headerSkipped, size, System.nanoTime() - start);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Parse a file and upsert the products into the catalog
+    public Result importInto(File file, ProductCatalog catalog) throws IOException {
+        Result result = parse(file);
+        catalog.putAll(result.getProducts());
+        return result;
+    }
+
+    private static byte detectDelimiter(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(4096);
+        channel.read(head, 0);
+        for (int i = 0; i < head.position(); i++) {
+            byte b = head.get(i);
+            if (b == '\t') {
+                return '\t';
+            }
+            if (b == '\n') {
+                break;
+            }
+        }
+        return ',';
+    }
+
+    // Result of parsing one range of the file; lines and error line numbers are relative to the range
+    private static class Chunk {
+        final List<Product> products;
+        final List<RowError> errors;
+        long errorCount;
+        long lines;
+        boolean headerSkipped;
+        IOException failure;
+
+        Chunk(List<Product> products, List<RowError> errors) {
+            this.products = products;
+            this.errors = errors;
+        }
+
+        // Append the range that follows this one
+        Chunk append(Chunk next) {
+            if (failure == null) {
+                failure = next.failure;
+            }
+            headerSkipped |= next.headerSkipped;
+            products.addAll(next.products);
+            for (RowError error : next.errors) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(new RowError(error.line + lines, error.message));
+                }
+            }
+            errorCount += next.errorCount;
+            lines += next.lines;
+            return this;
+        }
+    }
+
+    private static class ParseTask extends RecursiveTask<Chunk> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final byte delimiter;
+        private final long from;
+        private final long to;
+        private final int splitSize;
+
+        ParseTask(FileChannel channel, byte delimiter, long from, long to, int splitSize) {
+            this.channel = channel;
+            this.delimiter = delimiter;
+            this.from = from;
+            this.to = to;
+            this.splitSize = splitSize;
+        }
+
+        @Override
+        protected Chunk compute() {
+            try {
+                if (to - from > splitSize) {
+                    long middle = lineStartAfter(channel, from + (to - from) / 2, to);
+                    if (middle > from && middle < to) {
+                        ParseTask left = new ParseTask(channel, delimiter, from, middle, splitSize);
+                        ParseTask right = new ParseTask(channel, delimiter, middle, to, splitSize);
+                        right.fork();
+                        Chunk first = left.compute();
+                        return first.append(right.join());
+                    }
+                }
+                return parseRange();
+            } catch (IOException e) {
+                Chunk failed = new Chunk(new ArrayList<>(), new ArrayList<>());
+                failed.failure = e;
+                return failed;
+            }
+        }
+
+        private Chunk parseRange() throws IOException {
+            int length = (int) (to - from);
+            byte[] bytes = new byte[length];
+            if (length > 0) {
+                channel.map(FileChannel.MapMode.READ_ONLY, from, length).get(bytes);
+            }
+
+            Chunk chunk = new Chunk(new ArrayList<>(length / 40 + 1), new ArrayList<>());
+            RowParser parser = new RowParser(bytes, delimiter);
+            int lineStart = 0;
+            if (from == 0 && length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB
+                    && bytes[2] == (byte) 0xBF) {
+                lineStart = 3; // UTF-8 byte order mark
+            }
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && bytes[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                chunk.lines++;
+
+                Product product = parser.parse(lineStart, lineEnd);
+                if (product != null) {
+                    chunk.products.add(product);
+                } else if (from == 0 && chunk.lines == 1 && parser.badNumber) {
+                    // Column titles where the numbers should be
+                    chunk.headerSkipped = true;
+                } else if (parser.error != null) {
+                    chunk.errorCount++;
+                    if (chunk.errors.size() < MAX_REPORTED_ERRORS) {
+                        chunk.errors.add(new RowError(chunk.lines, parser.error));
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            return chunk;
+        }
+    }
+
+    // First position after the next '\n' at or after position, or limit if there is none
+    private static long lineStartAfter(FileChannel channel, long position, long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position < limit) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return limit;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return Math.min(position + i + 1, limit);
+                }
+            }
+            position += read;
+        }
+        return limit;
+    }
+
+    // Splits one line into fields by byte offset and builds the Product
+    private static class RowParser {
+        private final byte[] bytes;
+        private final byte delimiter;
+        private final int[] starts = new int[FIELDS + 2];
+        private final int[] ends = new int[FIELDS + 2];
+        private final boolean[] quoted = new boolean[FIELDS + 2];
+        String error;
+        // The error was a price or quantity that is not a number
+        boolean badNumber;
+
+        RowParser(byte[] bytes, byte delimiter) {
+            this.bytes = bytes;
+            this.delimiter = delimiter;
+        }
+
+        // Returns null for a blank line (error == null) or a malformed one (error set)
+        Product parse(int start, int end) {
+            error = null;
+            badNumber = false;
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            if (end == start) {
+                return null;
+            }
+
+            int fields = split(start, end);
+            if (fields < 0) {
+                return null;
+            }
+            if (fields != FIELDS) {
+                error = "expected " + FIELDS + " fields but found " + (fields > FIELDS ? "more" : fields);
+                return null;
+            }
+
+            String id = text(0).trim();
+            String name = text(1).trim();
+            if (id.isEmpty()) {
+                error = "missing product id";
+                return null;
+            }
+            double price = parsePrice(starts[2], ends[2]);
+            if (price < 0) {
+                error = "invalid price '" + text(2) + "'";
+                badNumber = true;
+                return null;
+            }
+            long quantity = parseQuantity(starts[3], ends[3]);
+            if (quantity < 0) {
+                error = "invalid quantity '" + text(3) + "'";
+                badNumber = true;
+                return null;
+            }
+            return new Product(id, name, price, (int) quantity);
+        }
+
+        // Record field boundaries; returns the field count (FIELDS + 1 meaning "too many"),
+        // or -1 after setting error
+        private int split(int start, int end) {
+            int field = 0;
+            int position = start;
+            while (true) {
+                if (field == FIELDS + 1) {
+                    return FIELDS + 1;
+                }
+                quoted[field] = position < end && bytes[position] == '"' && delimiter == ',';
+                if (quoted[field]) {
+                    int close = position + 1;
+                    while (true) {
+                        while (close < end && bytes[close] != '"') {
+                            close++;
+                        }
+                        if (close + 1 < end && bytes[close + 1] == '"') {
+                            close += 2; // escaped quote
+                            continue;
+                        }
+                        break;
+                    }
+                    if (close >= end) {
+                        error = "unterminated quoted field";
+                        return -1;
+                    }
+                    starts[field] = position + 1;
+                    ends[field] = close;
+                    position = close + 1;
+                    if (position < end && bytes[position] != delimiter) {
+                        error = "unexpected character after quoted field";
+                        return -1;
+                    }
+                } else {
+                    starts[field] = position;
+                    while (position < end && bytes[position] != delimiter) {
+                        position++;
+                    }
+                    ends[field] = position;
+                }
+                field++;
+                if (position >= end) {
+                    return field;
+                }
+                position++; // skip the delimiter
+                if (position == end) {
+                    // Trailing delimiter: one more, empty field
+                    starts[field] = ends[field] = end;
+                    quoted[field] = false;
+                    return field + 1;
+                }
+            }
+        }
+
+        private String text(int field) {
+            String value = new String(bytes, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+            return quoted[field] && value.indexOf('"') >= 0 ? value.replace("\"\"", "\"") : value;
+        }
+
+        // Decimal with an optional fraction, e.g. 40, 40.5, 40.00; -1 if invalid
+        private double parsePrice(int start, int end) {
+            start = skipSpaces(start, end);
+            end = trimSpaces(start, end);
+            long mantissa = 0;
+            int scale = -1;
+            int digits = 0;
+            for (int i = start; i < end; i++) {
+                byte b = bytes[i];
+                if (b >= '0' && b <= '9') {
+                    if (++digits > 15) {
+                        return -1;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                } else if (b == '.' && scale < 0) {
+                    scale = 0;
+                } else {
+                    return -1;
+                }
+            }
+            if (digits == 0) {
+                return -1;
+            }
+            return scale <= 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+        }
+
+        // Non-negative integer; -1 if invalid
+        private long parseQuantity(int start, int end) {
+            start = skipSpaces(start, end);
+            end = trimSpaces(start, end);
+            if (start == end || end - start > 9) {
+                return -1;
+            }
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                byte b = bytes[i];
+                if (b < '0' || b > '9') {
+                    return -1;
+                }
+                value = value * 10 + (b - '0');
+            }
+            return value;
+        }
+
+        private int skipSpaces(int start, int end) {
+            while (start < end && bytes[start] == ' ') {
+                start++;
+            }
+            return start;
+        }
+
+        private int trimSpaces(int start, int end) {
+            while (end > start && bytes[end - 1] == ' ') {
+                end--;
+            }
+            return end;
+        }
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16
+    };
+
+    // A row that could not be imported
+    public static class RowError {
+        private final long line;
+        private final String message;
+
+        RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public long getLine() { return line; }
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+
+    public static class Result {
+        private final List<Product> products;
+        private final List<RowError> errors;
+        private final long errorCount;
+        private final long lines;
+        private final boolean headerSkipped;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        Result(List<Product> products, List<RowError> errors, long errorCount, long lines,
+               boolean headerSkipped, long bytes, long elapsedNanos) {
+            this.products = products;
+            this.errors = errors;
+            this.errorCount = errorCount;
+            this.lines = lines;
+            this.headerSkipped = headerSkipped;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<Product> getProducts() { return products; }
+        // The first errors found, in line order (at most 10,000 are kept)
+        public List<RowError> getErrors() { return errors; }
+        public long getErrorCount() { return errorCount; }
+        public long getLines() { return lines; }
+        // Whether the first line was skipped as a header
+        public boolean isHeaderSkipped() { return headerSkipped; }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%d products from %d lines%s, %d malformed rows, %.1f MB in %.2fs (%.0f MB/s)",
+                    products.size(), lines, headerSkipped ? " (header skipped)" : "", errorCount, bytes / 1e6,
+                    seconds, bytes / 1e6 / Math.max(seconds, 1e-9));
+        }
+    }
+
+    // Offline import into the inventory store while the application is not running:
+    //   CatalogImporter <price file> [inventory dir]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CatalogImporter <price file> [inventory dir]");
+            System.exit(2);
+        }
+
+        Result result = new CatalogImporter().parse(new File(args[0]));
+        System.out.println(result);
+        for (RowError error : result.getErrors().subList(0, Math.min(20, result.getErrors().size()))) {
+            System.out.println("  " + error);
+        }
+
+        try (InventoryStore store = new InventoryStore(new File(args.length > 1 ? args[1] : "inventory"))) {
+            store.logPut(result.getProducts());
+            store.snapshot();
+        }
+    }
+}
@@ -1,15 +1,22 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
 import java.util.*;
+import java.util.List;
 
 // Form 3: Checkout
-public class CheckoutForm extends JFrame {
-    private JLabel totalLabel, discountedTotalLabel;
+public class CheckoutForm extends JFrame implements BillingBatchListener {
+    private static final long serialVersionUID = 1L;
+    private JLabel itemCountLabel, totalLabel, promotionLabel, discountedTotalLabel;
     private JComboBox<String> discountCombo;
     private JButton checkoutButton, newBillButton;
+    private final BillingEngine engine;
+    private final CartSession session;
 
-    public CheckoutForm() {
+    public CheckoutForm(BillingEngine engine, CartSession session) {
+        this.engine = engine;
+        this.session = session;
         setTitle("Checkout");
         setSize(400, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -26,8 +33,8 @@ public class CheckoutForm extends JFrame {
 
         discountCombo = new JComboBox<>();
         discountCombo.addItem("None (0%)");
-        for (Map.Entry<String, Double> entry : SupermarketBillingSystem.getDiscounts().entrySet()) {
-            discountCombo.addItem(entry.getKey() + " (" + (entry.getValue() * 100) + "%)");
+        for (Map.Entry<String, Double> entry : engine.getDiscounts().entrySet()) {
+            discountCombo.addItem(PromotionTable.label(entry.getKey(), entry.getValue()));
         }
         discountCombo.addActionListener(e -> updateTotals());
         discountPanel.add(discountCombo);
@@ -35,18 +42,11 @@ public class CheckoutForm extends JFrame {
         mainPanel.add(discountPanel, BorderLayout.NORTH);
 
         // Total summary panel
-        JPanel summaryPanel = new JPanel(new GridLayout(3, 2, 5, 5));
+        JPanel summaryPanel = new JPanel(new GridLayout(4, 2, 5, 5));
         summaryPanel.setBorder(BorderFactory.createTitledBorder("Order Summary"));
 
         summaryPanel.add(new JLabel("Cart Items:"));
-        JLabel itemCountLabel = new JLabel("0");
-        // Update the item count dynamically
-        // Replace java.util.Timer with javax.swing.Timer
-        javax.swing.Timer timer = new javax.swing.Timer(500, e -> {
-            int count = SupermarketBillingSystem.getCart().size();
-            itemCountLabel.setText(Integer.toString(count));
-        });
-        timer.start();
+        itemCountLabel = new JLabel("0");
         summaryPanel.add(itemCountLabel);
 
         summaryPanel.add(new JLabel("Total Amount:"));
@@ -54,6 +54,10 @@ public class CheckoutForm extends JFrame {
         totalLabel.setFont(new Font("Arial", Font.BOLD, 16));
         summaryPanel.add(totalLabel);
 
+        summaryPanel.add(new JLabel("Promotions:"));
+        promotionLabel = new JLabel("-₱0.00");
+        summaryPanel.add(promotionLabel);
+
         summaryPanel.add(new JLabel("Discounted Total:"));
         discountedTotalLabel = new JLabel("₱0.00");
         discountedTotalLabel.setFont(new Font("Arial", Font.BOLD, 16));
@@ -68,16 +72,18 @@ public class CheckoutForm extends JFrame {
         checkoutButton = new JButton("Checkout & Print Receipt");
         checkoutButton.addActionListener(e -> {
             String selectedDiscount = (String) discountCombo.getSelectedItem();
-            boolean success = SupermarketBillingSystem.checkout(selectedDiscount);
-            if (!success) {
+            CheckoutResult result = engine.checkout(session, selectedDiscount, receiptDialogs);
+            if (result.getStatus() == CheckoutResult.Status.EMPTY_CART) {
                 JOptionPane.showMessageDialog(this, "Cart is empty! Add items before checkout.");
+            } else if (!result.isSuccess()) {
+                JOptionPane.showMessageDialog(this, result.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         });
         buttonPanel.add(checkoutButton);
 
         newBillButton = new JButton("Start New Bill");
         newBillButton.addActionListener(e -> {
-            SupermarketBillingSystem.clearCart();
+            session.clear();
         });
         buttonPanel.add(newBillButton);
 
@@ -95,20 +101,51 @@ public class CheckoutForm extends JFrame {
         // Add main panel to frame
         add(mainPanel);
 
-        // Update totals initially
+        // Update totals initially and then whenever the cart changes
         updateTotals();
+        engine.getEvents().subscribeBatch(this);
 
         // Make the window visible
         setLocationRelativeTo(null);
         setVisible(true);
     }
 
+    @Override
+    public void billingChanged(List<BillingEvent> events) {
+        long start = System.nanoTime();
+        applyEvents(events);
+        BillingMetrics.CHECKOUT_FORM_REFRESH.recordSince(start);
+    }
+
+    private void applyEvents(List<BillingEvent> events) {
+        boolean cartChanged = false;
+        boolean cartEmptied = false;
+        for (BillingEvent event : events) {
+            if (!event.isCartChange(session)) {
+                continue;
+            }
+            cartChanged = true;
+            cartEmptied |= event.getType() == BillingEvent.Type.CART_CLEARED
+                    || event.getType() == BillingEvent.Type.CHECKOUT_COMPLETED;
+        }
+
+        if (cartEmptied) {
+            // Resetting the discount fires the combo listener, which updates the totals
+            resetDiscount();
+        }
+        if (cartChanged) {
+            updateTotals();
+        }
+    }
+
     public void updateTotals() {
-        double total = SupermarketBillingSystem.calculateTotal();
-        double discountRate = getSelectedDiscountRate();
-        double discountedTotal = total * (1 - discountRate);
+        itemCountLabel.setText(Integer.toString(session.getLines().size()));
+
+        double total = session.getTotal();
+        double discountedTotal = session.getDiscountedTotal((String) discountCombo.getSelectedItem());
 
         totalLabel.setText(String.format("₱%.2f", total));
+        promotionLabel.setText(String.format("-₱%.2f", session.getPromotionTotal()));
         discountedTotalLabel.setText(String.format("₱%.2f", discountedTotal));
     }
 
@@ -116,17 +153,19 @@ public class CheckoutForm extends JFrame {
         discountCombo.setSelectedIndex(0);
     }
 
-    private double getSelectedDiscountRate() {
-        String selected = (String) discountCombo.getSelectedItem();
-        if (selected.startsWith("None")) {
-            return 0;
+    // Reports the outcome of a background receipt write on the EDT
+    private final ReceiptCallback receiptDialogs = new ReceiptCallback() {
+        @Override
+        public void receiptSaved(Receipt receipt, String location) {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(CheckoutForm.this,
+                    "Checkout successful!\nReceipt saved as: " + location));
         }
 
-        for (Map.Entry<String, Double> entry : SupermarketBillingSystem.getDiscounts().entrySet()) {
-            if (selected.startsWith(entry.getKey())) {
-                return entry.getValue();
-            }
+        @Override
+        public void receiptFailed(Receipt receipt, IOException error) {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(CheckoutForm.this,
+                    "Error saving receipt #" + receipt.getNumber() + ": " + error.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE));
         }
-        return 0;
-    }
+    };
 }
\ No newline at end of file
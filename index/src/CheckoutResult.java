@@ -0,0 +1,43 @@
+// Outcome of BillingEngine.checkout. On success the receipt has been queued for writing;
+// whether it reached disk is reported later through the ReceiptCallback.
+public class CheckoutResult {
+    public enum Status {
+        COMPLETED,          // receipt queued, cart emptied
+        EMPTY_CART,         // nothing to sell
+        NUMBER_UNAVAILABLE, // no receipt number could be allocated; the cart is unchanged
+        QUEUE_FULL,         // the receipt writer did not accept the receipt in time; the cart is unchanged
+        STOCK_CHANGED       // reserved stock of some lines had expired and gone; the lines were cut back
+    }
+
+    private final Status status;
+    private final Receipt receipt;
+    private final String message;
+
+    private CheckoutResult(Status status, Receipt receipt, String message) {
+        this.status = status;
+        this.receipt = receipt;
+        this.message = message;
+    }
+
+    static CheckoutResult completed(Receipt receipt) {
+        return new CheckoutResult(Status.COMPLETED, receipt, "Checkout successful");
+    }
+
+    static CheckoutResult failed(Status status, String message) {
+        return new CheckoutResult(status, null, message);
+    }
+
+    public Status getStatus() { return status; }
+    // The queued receipt, or null if the checkout did not complete
+    public Receipt getReceipt() { return receipt; }
+    public String getMessage() { return message; }
+
+    public boolean isSuccess() {
+        return status == Status.COMPLETED;
+    }
+
+    @Override
+    public String toString() {
+        return status + (receipt != null ? "[receipt=" + receipt.getNumber() + "]" : "[" + message + "]");
+    }
+}
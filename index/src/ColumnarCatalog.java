@@ -0,0 +1,280 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+// Compact catalog layout for lane PCs with small heaps.
+// Instead of one Product object (plus two Strings and a HashMap entry) per SKU, every
+// field lives in a primitive column indexed by SKU ordinal:
+//   priceCents[ordinal], stock[ordinal]  - ints
+//   text                                 - UTF-8 bytes of all ids and names, back to back
+//   textOffsets[2 * ordinal .. + 2]      - where the id and the name of the SKU start and end
+//   slots                                - open-addressing hash table of ordinal + 1, keyed by id
+// A catalog of N SKUs is a handful of arrays regardless of N, so the GC has almost nothing
+// to trace. product(ordinal) returns a short-lived Product view over the columns.
+// Stock moves through a VarHandle on the stock column, so lanes may sell from the views at once
+// (Product.compareAndSetQuantity); adding SKUs may grow the columns and must not run alongside.
+public class ColumnarCatalog {
+    private static final VarHandle STOCK = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private int size;
+    private int[] priceCents;
+    private int[] stock;
+    private byte[] text;
+    private int textLength;
+    private int[] textOffsets;
+    private int[] hashes;
+    private int[] slots;
+
+    public ColumnarCatalog() {
+        this(16);
+    }
+
+    public ColumnarCatalog(int expectedSize) {
+        int capacity = Math.max(expectedSize, 4);
+        priceCents = new int[capacity];
+        stock = new int[capacity];
+        text = new byte[capacity * 24];
+        textOffsets = new int[capacity * 2 + 1];
+        hashes = new int[capacity];
+        slots = new int[tableSizeFor(capacity)];
+    }
+
+    public static ColumnarCatalog of(Collection<? extends Product> products) {
+        ColumnarCatalog catalog = new ColumnarCatalog(products.size());
+        for (Product product : products) {
+            catalog.put(product.getId(), product.getName(), product.getPrice(), product.getQuantity());
+        }
+        return catalog;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Add a SKU or update the one with the same id; returns its ordinal
+    public int put(String id, String name, double price, int quantity) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(idBytes, 0, idBytes.length);
+        int ordinal = find(idBytes, hash);
+        if (ordinal >= 0) {
+            // Names rarely change; when they do the old bytes are simply left behind
+            if (!name.equals(getName(ordinal))) {
+                int nameStart = textLength;
+                appendText(name.getBytes(StandardCharsets.UTF_8));
+                relocateName(ordinal, nameStart);
+            }
+            priceCents[ordinal] = toCents(price);
+            stock[ordinal] = quantity;
+            return ordinal;
+        }
+
+        ordinal = size;
+        ensureCapacity(size + 1);
+        textOffsets[2 * ordinal] = textLength;
+        appendText(idBytes);
+        textOffsets[2 * ordinal + 1] = textLength;
+        appendText(name.getBytes(StandardCharsets.UTF_8));
+        textOffsets[2 * ordinal + 2] = textLength;
+        priceCents[ordinal] = toCents(price);
+        stock[ordinal] = quantity;
+        hashes[ordinal] = hash;
+        size++;
+        insertSlot(hash, ordinal);
+        return ordinal;
+    }
+
+    // Ordinal of a SKU, or -1
+    public int ordinalOf(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        return find(idBytes, hash(idBytes, 0, idBytes.length));
+    }
+
+    // View of a SKU, or null if it is not in the catalog
+    public Product get(String id) {
+        int ordinal = ordinalOf(id);
+        return ordinal < 0 ? null : product(ordinal);
+    }
+
+    public Product product(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + ", size " + size);
+        }
+        return new View(this, ordinal);
+    }
+
+    public String getId(int ordinal) {
+        int start = textOffsets[2 * ordinal];
+        return new String(text, start, textOffsets[2 * ordinal + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    public String getName(int ordinal) {
+        int start = nameStart(ordinal);
+        return new String(text, start, nameEnd(ordinal) - start, StandardCharsets.UTF_8);
+    }
+
+    public int getPriceCents(int ordinal) {
+        return priceCents[ordinal];
+    }
+
+    public int getStock(int ordinal) {
+        return (int) STOCK.getVolatile(stock, ordinal);
+    }
+
+    public void setStock(int ordinal, int quantity) {
+        STOCK.setVolatile(stock, ordinal, quantity);
+    }
+
+    public boolean compareAndSetStock(int ordinal, int expected, int quantity) {
+        return STOCK.compareAndSet(stock, ordinal, expected, quantity);
+    }
+
+    // Bytes held by the columns, including unused capacity
+    public long footprintBytes() {
+        return arrayBytes(priceCents.length, 4) + arrayBytes(stock.length, 4) + arrayBytes(text.length, 1)
+                + arrayBytes(textOffsets.length, 4) + arrayBytes(hashes.length, 4) + arrayBytes(slots.length, 4);
+    }
+
+    private static long arrayBytes(int length, int elementSize) {
+        return 16 + (long) length * elementSize;
+    }
+
+    static int toCents(double price) {
+        return (int) Math.round(price * 100);
+    }
+
+    // Renamed SKUs keep their id bytes in place and point at a name appended at the end.
+    // textOffsets only describes contiguous id+name runs, so the moved name goes in a side table.
+    private int[] movedNames;
+
+    private void relocateName(int ordinal, int start) {
+        if (movedNames == null) {
+            movedNames = new int[priceCents.length * 2];
+            Arrays.fill(movedNames, -1);
+        }
+        movedNames[2 * ordinal] = start;
+        movedNames[2 * ordinal + 1] = textLength;
+    }
+
+    private int nameStart(int ordinal) {
+        if (movedNames != null && movedNames[2 * ordinal] >= 0) {
+            return movedNames[2 * ordinal];
+        }
+        return textOffsets[2 * ordinal + 1];
+    }
+
+    private int nameEnd(int ordinal) {
+        if (movedNames != null && movedNames[2 * ordinal] >= 0) {
+            return movedNames[2 * ordinal + 1];
+        }
+        return textOffsets[2 * ordinal + 2];
+    }
+
+    private void appendText(byte[] bytes) {
+        if (textLength + bytes.length > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + bytes.length));
+        }
+        System.arraycopy(bytes, 0, text, textLength, bytes.length);
+        textLength += bytes.length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= priceCents.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, priceCents.length * 2);
+        priceCents = Arrays.copyOf(priceCents, newCapacity);
+        stock = Arrays.copyOf(stock, newCapacity);
+        hashes = Arrays.copyOf(hashes, newCapacity);
+        textOffsets = Arrays.copyOf(textOffsets, newCapacity * 2 + 1);
+        if (movedNames != null) {
+            int oldLength = movedNames.length;
+            movedNames = Arrays.copyOf(movedNames, newCapacity * 2);
+            Arrays.fill(movedNames, oldLength, movedNames.length, -1);
+        }
+        if (newCapacity > slots.length / 2) {
+            rehash(tableSizeFor(newCapacity));
+        }
+    }
+
+    private int find(byte[] id, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int ordinal = entry - 1;
+            if (hashes[ordinal] == hash && idEquals(ordinal, id)) {
+                return ordinal;
+            }
+        }
+    }
+
+    private boolean idEquals(int ordinal, byte[] id) {
+        int start = textOffsets[2 * ordinal];
+        int length = textOffsets[2 * ordinal + 1] - start;
+        return length == id.length && Arrays.equals(text, start, start + length, id, 0, length);
+    }
+
+    private void insertSlot(int hash, int ordinal) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = ordinal + 1;
+    }
+
+    private void rehash(int tableSize) {
+        slots = new int[tableSize];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            insertSlot(hashes[ordinal], ordinal);
+        }
+    }
+
+    // Table at most half full
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity, 4) * 4 - 1);
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    // Flyweight Product over one row of the columns; holds no product data itself
+    private static class View extends Product {
+        private final ColumnarCatalog catalog;
+        private final int ordinal;
+
+        View(ColumnarCatalog catalog, int ordinal) {
+            this.catalog = catalog;
+            this.ordinal = ordinal;
+        }
+
+        @Override
+        public String getId() { return catalog.getId(ordinal); }
+
+        @Override
+        public String getName() { return catalog.getName(ordinal); }
+
+        @Override
+        public double getPrice() { return catalog.getPriceCents(ordinal) / 100.0; }
+
+        @Override
+        public int getQuantity() { return catalog.getStock(ordinal); }
+
+        @Override
+        public void setQuantity(int quantity) { catalog.setStock(ordinal, quantity); }
+
+        @Override
+        public boolean compareAndSetQuantity(int expected, int quantity) {
+            return catalog.compareAndSetStock(ordinal, expected, quantity);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.awt.EventQueue;
+import java.io.PrintStream;
+
+// Notices when the event dispatch thread stops processing events.
+// A daemon thread posts a heartbeat to the event queue and checks on it every threshold / 4. If a
+// heartbeat has waited longer than the threshold, the EDT's stack is taken right then (while it is
+// still stuck, so it shows the culprit) and logged; when the heartbeat finally runs, the length of
+// the stall goes into BillingMetrics.EDT_STALL. One stall is reported once, however long it lasts.
+// The heartbeats keep AWT from shutting down on its own, so stop() the watchdog in applications
+// that rely on that rather than on System.exit.
+public class EdtWatchdog implements EdtWatchdogMBean {
+    public static final long DEFAULT_THRESHOLD_MILLIS = 200;
+
+    private final PrintStream log;
+    private volatile long thresholdMillis;
+    private volatile Thread edt;
+    // System.nanoTime() when the pending heartbeat was posted, 0 when none is pending
+    private volatile long postedNanos;
+    private volatile boolean reported;
+    private volatile boolean running;
+
+    private volatile long stallCount;
+    private volatile long longestStallMillis;
+    private volatile long lastStallMillis;
+    private volatile String lastStallStackTrace = "";
+
+    public EdtWatchdog() {
+        this(DEFAULT_THRESHOLD_MILLIS, System.err);
+    }
+
+    public EdtWatchdog(long thresholdMillis, PrintStream log) {
+        this.thresholdMillis = thresholdMillis;
+        this.log = log;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::run, "edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void run() {
+        while (running) {
+            long threshold = thresholdMillis;
+            try {
+                Thread.sleep(Math.max(5, threshold / 4));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long posted = postedNanos;
+            if (posted == 0) {
+                postHeartbeat();
+            } else if (!reported && System.nanoTime() - posted > threshold * 1_000_000) {
+                reportStall(threshold);
+            }
+        }
+    }
+
+    private void postHeartbeat() {
+        reported = false;
+        long posted = System.nanoTime();
+        postedNanos = posted;
+        EventQueue.invokeLater(() -> {
+            edt = Thread.currentThread();
+            long waitedMillis = (System.nanoTime() - posted) / 1_000_000;
+            if (reported) {
+                BillingMetrics.EDT_STALL.record(waitedMillis * 1_000_000);
+                synchronized (this) {
+                    lastStallMillis = waitedMillis;
+                    longestStallMillis = Math.max(longestStallMillis, waitedMillis);
+                }
+                log.println("EDT stall ended after " + waitedMillis + " ms");
+            }
+            postedNanos = 0;
+        });
+    }
+
+    private void reportStall(long threshold) {
+        reported = true;
+        Thread thread = edt;
+        StringBuilder trace = new StringBuilder();
+        if (thread != null) {
+            for (StackTraceElement element : thread.getStackTrace()) {
+                trace.append("\tat ").append(element).append('\n');
+            }
+        }
+        synchronized (this) {
+            stallCount++;
+            lastStallStackTrace = trace.toString();
+        }
+        BillingMetrics.COUNTERS.edtStalls.increment();
+        log.println("EDT stalled for more than " + threshold + " ms" + (thread == null ? "" : " in " + thread.getName())
+                + ":\n" + trace);
+    }
+
+    @Override
+    public long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    @Override
+    public void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    @Override
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    @Override
+    public long getLongestStallMillis() {
+        return longestStallMillis;
+    }
+
+    @Override
+    public long getLastStallMillis() {
+        return lastStallMillis;
+    }
+
+    @Override
+    public String getLastStallStackTrace() {
+        return lastStallStackTrace;
+    }
+}
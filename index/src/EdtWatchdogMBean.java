@@ -0,0 +1,9 @@
+// JMX view and settings of EdtWatchdog
+public interface EdtWatchdogMBean {
+    long getThresholdMillis();
+    void setThresholdMillis(long thresholdMillis);
+    long getStallCount();
+    long getLongestStallMillis();
+    long getLastStallMillis();
+    String getLastStallStackTrace();
+}
@@ -0,0 +1,63 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes each receipt to receipt_<number>.txt and syncs the whole batch before returning.
+// UTF-8 receipts are rendered by a ReceiptRenderer; other charsets go through generateReceipt.
+// Only the ReceiptWriter thread calls write, so the renderer is not shared.
+public class FileReceiptSink implements ReceiptSink {
+    private final File directory;
+    private final Charset charset;
+    private final ReceiptRenderer renderer;
+
+    public FileReceiptSink(File directory) {
+        this(directory, StandardCharsets.UTF_8);
+    }
+
+    public FileReceiptSink(File directory, Charset charset) {
+        this.directory = directory;
+        this.charset = charset;
+        this.renderer = StandardCharsets.UTF_8.equals(charset) ? new ReceiptRenderer() : null;
+    }
+
+    public File fileFor(int receiptNumber) {
+        return new File(directory, String.format("receipt_%d.txt", receiptNumber));
+    }
+
+    @Override
+    public void write(List<Receipt> batch) throws IOException {
+        List<FileChannel> channels = new ArrayList<>(batch.size());
+        try {
+            // Write every file first, then force them together so the batch shares one sync pass
+            for (Receipt receipt : batch) {
+                FileChannel channel = FileChannel.open(fileFor(receipt.getNumber()).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                channels.add(channel);
+                ByteBuffer bytes = renderer != null ? renderer.render(receipt)
+                        : charset.encode(BillingEngine.generateReceipt(receipt));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            for (FileChannel channel : channels) {
+                channel.force(false);
+            }
+        } finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public String locationOf(Receipt receipt) {
+        return fileFor(receipt.getNumber()).getAbsolutePath();
+    }
+}
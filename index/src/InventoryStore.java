@@ -0,0 +1,764 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Durable inventory: a binary snapshot of the catalog plus a write-ahead log of changes.
+//
+// Every stock change is logged as a delta and every catalog upsert as a full product record.
+// The record of an upsert is taken from PRODUCTS_UPSERTING, before any lane can reach the new
+// products, so its quantity is the one upserted and every delta to them follows it in the log.
+// Stock that goes into a cart is logged apart from other changes: RESERVE when a cart takes it,
+// RELEASE when a cart gives it back and SOLD when its cart is checked out. The store counts the
+// units still held per SKU (the snapshot carries the count), and load() gives back the units of
+// carts that were never sold: the process that held them is gone. One process owns a store
+// (see below), so every open reservation in it belongs to that process's own terminal.
+// A price override (PriceTable.publish) is logged as a PRICE record when it is announced, and a
+// later PUT of the product drops it, as it does in the PriceTable; getLoadedPrices() returns the
+// overrides load() found, for the caller to publish again.
+// Log records are buffered and written with one fsync per sync interval (group commit).
+// In the background the log is rolled to a new wal_NNNNNN.log file and the closed log files
+// are merged into a new snapshot.dat, so startup only reads the snapshot and the short log
+// tail written since. Merging works from the files alone, so it never has to stop the lanes
+// to take a consistent copy of the live catalog.
+//
+// WAL record: [payload length][crc32 of payload][payload]
+//   payload:  PUT id name price quantity | DELTA id delta | RESERVE, RELEASE or SOLD id quantity
+//             | PRICE id cents
+// Snapshot:   magic, version, last merged wal id, (1, product, units held, override cents or -1)*,
+//             0, crc32 of everything before (version 1 snapshots have neither units held nor
+//             overrides, version 2 no overrides);
+//             strings are [unsigned short length][UTF-8 bytes] so the whole file decodes from one buffer
+//
+// One process owns a store directory: it holds a lock on inventory.lock while the store is open
+// and a second process fails at once, instead of numbering its log files after the first one's
+// and merging and deleting them under it.
+public class InventoryStore implements BillingListener, AutoCloseable {
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 20;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 60_000;
+
+    private static final int SNAPSHOT_MAGIC = 0x494e5653; // "INVS"
+    private static final int SNAPSHOT_VERSION = 3;
+    private static final byte PUT = 1;
+    private static final byte DELTA = 2;
+    private static final byte RESERVE = 3;
+    private static final byte RELEASE = 4;
+    private static final byte SOLD = 5;
+    private static final byte PRICE = 6;
+    private static final long NO_OVERRIDE = -1;
+    private static final Pattern WAL_FILE = Pattern.compile("wal_(\\d{6})\\.log");
+    private static final String LOCK_FILE = "inventory.lock";
+
+    private final File directory;
+    private final File snapshotFile;
+    private final ScheduledExecutorService scheduler;
+    // Held for as long as the store is open; closing it releases the lock
+    private final FileChannel lockChannel;
+
+    // Records logged but not yet written, guarded by this
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(128);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 recordCrc = new CRC32();
+    // The product of the latest PUT per id, to tell changes to a replaced product
+    private final HashMap<String, Product> upserted = new HashMap<>();
+    // First failure to log or write; from then on nothing more is logged and sync() throws it
+    private volatile IOException failure;
+    private volatile Consumer<IOException> failureListener;
+
+    // Current log file, guarded by syncLock; syncs are serialised so records keep their order
+    private final Object syncLock = new Object();
+    private FileChannel wal;
+    private int walId;
+    private long walSize;
+
+    // Price overrides found by load(), by product id
+    private final LinkedHashMap<String, Double> loadedPrices = new LinkedHashMap<>();
+
+    // Last log file merged into the snapshot
+    private volatile int snapshotWalId;
+    private volatile boolean snapshotRunning;
+
+    public InventoryStore(File directory) throws IOException {
+        this(directory, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+    }
+
+    public InventoryStore(File directory, long syncIntervalMillis, long snapshotIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.snapshotFile = new File(directory, "snapshot.dat");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create inventory directory " + directory);
+        }
+
+        lockChannel = lock(directory);
+        try {
+            snapshotWalId = readSnapshotHeader();
+            for (int id : walIds()) {
+                // Runs that changed nothing leave empty log files behind
+                File file = new File(directory, walName(id));
+                if (file.length() == 0) {
+                    Files.delete(file.toPath());
+                }
+            }
+            List<Integer> walIds = walIds();
+            // Never append to a file left by an earlier run: it may end in a torn record
+            walId = Math.max(snapshotWalId, walIds.isEmpty() ? 0 : walIds.get(walIds.size() - 1)) + 1;
+            wal = openWal(walId);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+
+        scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "inventory-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static FileChannel lock(File directory) throws IOException {
+        FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Inventory store " + directory + " is already open in another process");
+        }
+        return channel;
+    }
+
+    // Products as of the last durable log record: the snapshot with every later log file applied,
+    // and the units carts still held given back to stock (logged as RELEASE, so the files agree).
+    // Returns an empty list for a new store. Call it once, before the store hears of any change.
+    public List<Product> load() throws IOException {
+        ArrayList<Product> products = new ArrayList<>();
+        HashMap<String, Integer> held = new HashMap<>();
+        LinkedHashMap<String, Long> overrides = new LinkedHashMap<>();
+        readSnapshot((product, units, priceCents) -> {
+            products.add(product);
+            if (units != 0) {
+                held.put(product.getId(), units);
+            }
+            if (priceCents != NO_OVERRIDE) {
+                overrides.put(product.getId(), priceCents);
+            }
+        });
+
+        List<Integer> tail = new ArrayList<>();
+        for (int id : walIds()) {
+            if (id > snapshotWalId) {
+                tail.add(id);
+            }
+        }
+        if (tail.isEmpty() && held.isEmpty()) {
+            keepLoadedPrices(overrides);
+            return products;
+        }
+
+        // Only index by id when there is a log tail to apply or units to give back
+        HashMap<String, Integer> positions = new HashMap<>((int) (products.size() / 0.75f) + 1);
+        for (int i = 0; i < products.size(); i++) {
+            positions.put(products.get(i).getId(), i);
+        }
+        for (int id : tail) {
+            replayWal(id, new WalVisitor() {
+                @Override
+                public void put(Product product) {
+                    Integer position = positions.putIfAbsent(product.getId(), products.size());
+                    if (position == null) {
+                        products.add(product);
+                    } else {
+                        products.set(position, product);
+                    }
+                    overrides.remove(product.getId());
+                }
+
+                @Override
+                public void delta(String productId, int delta) {
+                    Integer position = positions.get(productId);
+                    if (position != null) {
+                        Product product = products.get(position);
+                        product.setQuantity(product.getQuantity() + delta);
+                    }
+                }
+
+                @Override
+                public void held(String productId, int delta) {
+                    held.merge(productId, delta, Integer::sum);
+                }
+
+                @Override
+                public void price(String productId, long cents) {
+                    if (positions.containsKey(productId)) {
+                        overrides.put(productId, cents);
+                    }
+                }
+            });
+        }
+
+        for (Map.Entry<String, Integer> entry : held.entrySet()) {
+            Integer position = positions.get(entry.getKey());
+            if (position != null && entry.getValue() > 0) {
+                Product product = products.get(position);
+                product.setQuantity(product.getQuantity() + entry.getValue());
+                logHeld(RELEASE, entry.getKey(), entry.getValue());
+            }
+        }
+        keepLoadedPrices(overrides);
+        return products;
+    }
+
+    private void keepLoadedPrices(Map<String, Long> overrides) {
+        for (Map.Entry<String, Long> entry : overrides.entrySet()) {
+            loadedPrices.put(entry.getKey(), entry.getValue() / 100.0);
+        }
+    }
+
+    // The price overrides in force when the store was last written, by product id, in the order
+    // they were set; empty before load(). Publish them once the loaded products are in the catalog.
+    public Map<String, Double> getLoadedPrices() {
+        return Collections.unmodifiableMap(loadedPrices);
+    }
+
+    // Log stock changes, catalog upserts and price overrides as they are published
+    @Override
+    public void billingChanged(BillingEvent event) {
+        if (event.getType() == BillingEvent.Type.STOCK_CHANGED) {
+            if (event.getReserved() > 0) {
+                logStock(event.getProduct(), RESERVE, event.getReserved(), event.getDelta());
+            } else if (event.getReserved() < 0) {
+                logStock(event.getProduct(), RELEASE, -event.getReserved(), event.getDelta());
+            } else {
+                logStock(event.getProduct(), DELTA, event.getDelta(), event.getDelta());
+            }
+        } else if (event.getType() == BillingEvent.Type.STOCK_SOLD) {
+            logStock(event.getProduct(), SOLD, -event.getReserved(), 0);
+        } else if (event.getType() == BillingEvent.Type.PRODUCTS_UPSERTING) {
+            logPut(event.getProducts());
+        } else if (event.getType() == BillingEvent.Type.PRICES_CHANGING) {
+            LinkedHashMap<String, Double> prices = new LinkedHashMap<>();
+            for (Product product : event.getProducts()) {
+                prices.put(product.getId(), product.getPrice());
+            }
+            logPrices(prices);
+        }
+    }
+
+    // Called once, on the thread that hit it, when the store first fails to log or write a
+    // record. Stock changes after that are not durable.
+    public void setFailureListener(Consumer<IOException> listener) {
+        this.failureListener = listener;
+    }
+
+    // The failure that stopped the log, or null while it is working
+    public IOException getFailure() {
+        return failure;
+    }
+
+    // Returns false if the change could not be logged; getFailure() says why
+    public boolean logDelta(String id, int delta) {
+        IOException error;
+        synchronized (this) {
+            if (failure != null) {
+                return false;
+            }
+            try {
+                writeStockRecord(DELTA, id, delta);
+                return true;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        fail(error);
+        return false;
+    }
+
+    // Log a change to the stock of product: a DELTA, or units going into a cart (RESERVE: out of
+    // stock), coming back (RELEASE: into stock) or sold from it (SOLD: stock unchanged). stockDelta
+    // is what the change did to the product's stock. A lane may still change a product that an
+    // upsert has just replaced, after the upsert's PUT is in the log; that stock went with the old
+    // product, so only the units held by carts are kept (a later release goes to the new one).
+    private void logStock(Product product, byte type, int quantity, int stockDelta) {
+        IOException error;
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            Product latest = upserted.get(product.getId());
+            boolean replaced = latest != null && latest != product;
+            if (replaced && type == DELTA) {
+                return;
+            }
+            try {
+                writeStockRecord(type, product.getId(), quantity);
+                if (replaced && stockDelta != 0) {
+                    writeStockRecord(DELTA, product.getId(), -stockDelta);
+                }
+                return;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        fail(error);
+    }
+
+    private void logHeld(byte type, String id, int quantity) {
+        IOException error;
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                writeStockRecord(type, id, quantity);
+                return;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        fail(error);
+    }
+
+    private void writeStockRecord(byte type, String id, int quantity) throws IOException {
+        recordBytes.reset();
+        record.writeByte(type);
+        record.writeUTF(id);
+        record.writeInt(quantity);
+        appendRecord();
+    }
+
+    // Log products with the quantities they have now; call it before lanes can change them
+    // (see billingChanged). Returns false if they could not be logged.
+    public boolean logPut(Collection<Product> products) {
+        IOException error;
+        synchronized (this) {
+            if (failure != null) {
+                return false;
+            }
+            try {
+                for (Product product : products) {
+                    upserted.put(product.getId(), product);
+                    recordBytes.reset();
+                    record.writeByte(PUT);
+                    record.writeUTF(product.getId());
+                    record.writeUTF(product.getName());
+                    record.writeDouble(product.getPrice());
+                    record.writeInt(product.getQuantity());
+                    appendRecord();
+                }
+                return true;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        fail(error);
+        return false;
+    }
+
+    // Log price overrides, by product id; a later PUT of a product drops its override. Returns
+    // false if they could not be logged.
+    public boolean logPrices(Map<String, Double> prices) {
+        IOException error;
+        synchronized (this) {
+            if (failure != null) {
+                return false;
+            }
+            try {
+                for (Map.Entry<String, Double> entry : prices.entrySet()) {
+                    recordBytes.reset();
+                    record.writeByte(PRICE);
+                    record.writeUTF(entry.getKey());
+                    record.writeLong(Math.round(entry.getValue() * 100));
+                    appendRecord();
+                }
+                return true;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        fail(error);
+        return false;
+    }
+
+    private void fail(IOException error) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = error;
+            pending.reset();
+        }
+        BillingMetrics.COUNTERS.inventoryFailures.increment();
+        System.err.println("Inventory store " + directory + " stopped logging stock changes: " + error);
+        Consumer<IOException> listener = failureListener;
+        if (listener != null) {
+            listener.accept(error);
+        }
+    }
+
+    private void appendRecord() throws IOException {
+        recordCrc.reset();
+        recordCrc.update(recordBytes.toByteArray());
+        writeInt(pending, recordBytes.size());
+        writeInt(pending, (int) recordCrc.getValue());
+        recordBytes.writeTo(pending);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // Write and fsync everything logged so far
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            byte[] bytes;
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                bytes = pending.toByteArray();
+                pending.reset();
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    wal.write(buffer);
+                }
+                wal.force(false);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            walSize += bytes.length;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // Reported once by fail()
+        }
+    }
+
+    // Roll the log and merge every closed log file into a new snapshot
+    public void snapshot() throws IOException {
+        int mergeUpTo;
+        synchronized (syncLock) {
+            sync();
+            if (walSize == 0) {
+                return;
+            }
+            wal.close();
+            mergeUpTo = walId;
+            walId++;
+            wal = openWal(walId);
+            walSize = 0;
+        }
+        mergeSnapshot(mergeUpTo);
+    }
+
+    private void snapshotQuietly() {
+        if (snapshotRunning) {
+            return;
+        }
+        snapshotRunning = true;
+        try {
+            snapshot();
+        } catch (IOException e) {
+            // A failed log was reported when it failed
+            if (e != failure) {
+                e.printStackTrace();
+            }
+        } finally {
+            snapshotRunning = false;
+        }
+    }
+
+    private void mergeSnapshot(int mergeUpTo) throws IOException {
+        // Only products changed since the last snapshot are held in memory; the old snapshot
+        // is streamed through. A PUT replaces the product, deltas count from the latest PUT.
+        // Units held by carts carry over a PUT: a cart gives them back to the new product. A PUT
+        // drops a price override (NO_OVERRIDE), a PRICE sets one.
+        LinkedHashMap<String, Product> puts = new LinkedHashMap<>();
+        HashMap<String, Integer> deltas = new HashMap<>();
+        HashMap<String, Integer> held = new HashMap<>();
+        HashMap<String, Long> prices = new HashMap<>();
+        for (int id : walIds()) {
+            if (id > snapshotWalId && id <= mergeUpTo) {
+                replayWal(id, new WalVisitor() {
+                    @Override
+                    public void put(Product product) {
+                        puts.put(product.getId(), product);
+                        deltas.remove(product.getId());
+                        prices.put(product.getId(), NO_OVERRIDE);
+                    }
+
+                    @Override
+                    public void delta(String productId, int delta) {
+                        deltas.merge(productId, delta, Integer::sum);
+                    }
+
+                    @Override
+                    public void held(String productId, int delta) {
+                        held.merge(productId, delta, Integer::sum);
+                    }
+
+                    @Override
+                    public void price(String productId, long cents) {
+                        prices.put(productId, cents);
+                    }
+                });
+            }
+        }
+
+        File tmp = new File(directory, "snapshot.tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(mergeUpTo);
+
+            IOException[] writeError = new IOException[1];
+            readSnapshot((product, units, priceCents) -> {
+                Product put = puts.remove(product.getId());
+                Product merged = put != null ? put : product;
+                Integer delta = deltas.get(product.getId());
+                Integer heldDelta = held.get(product.getId());
+                try {
+                    writeProduct(out, merged, merged.getQuantity() + (delta == null ? 0 : delta),
+                            units + (heldDelta == null ? 0 : heldDelta),
+                            prices.getOrDefault(product.getId(), priceCents));
+                } catch (IOException e) {
+                    writeError[0] = e;
+                }
+            });
+            if (writeError[0] != null) {
+                throw writeError[0];
+            }
+            // Products first seen in the log follow in log order
+            for (Product product : puts.values()) {
+                Integer delta = deltas.get(product.getId());
+                Integer heldDelta = held.get(product.getId());
+                writeProduct(out, product, product.getQuantity() + (delta == null ? 0 : delta),
+                        heldDelta == null ? 0 : heldDelta, prices.getOrDefault(product.getId(), NO_OVERRIDE));
+            }
+
+            out.writeByte(0);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        snapshotWalId = mergeUpTo;
+
+        for (int id : walIds()) {
+            if (id <= mergeUpTo) {
+                Files.deleteIfExists(new File(directory, walName(id)).toPath());
+            }
+        }
+    }
+
+    private static void writeProduct(DataOutputStream out, Product product, int quantity, int held,
+            long priceCents) throws IOException {
+        out.writeByte(1);
+        writeString(out, product.getId());
+        writeString(out, product.getName());
+        out.writeDouble(product.getPrice());
+        out.writeInt(quantity);
+        out.writeInt(held);
+        out.writeLong(priceCents);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String too long for inventory snapshot: " + value.length() + " chars");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    // Returns the last wal id merged into the snapshot, or 0 without a snapshot
+    private int readSnapshotHeader() throws IOException {
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || !isSnapshotVersion(in.readInt())) {
+                throw new IOException("Not an inventory snapshot: " + snapshotFile);
+            }
+            return in.readInt();
+        }
+    }
+
+    private static boolean isSnapshotVersion(int version) {
+        return version >= 1 && version <= SNAPSHOT_VERSION;
+    }
+
+    private interface SnapshotVisitor {
+        // held: units of the product in carts when the snapshot's last log file was written;
+        // priceCents: its price override then, or NO_OVERRIDE
+        void product(Product product, int held, long priceCents);
+    }
+
+    // Stream every product of the snapshot to the visitor, in snapshot order
+    private void readSnapshot(SnapshotVisitor visitor) throws IOException {
+        if (!snapshotFile.exists()) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(snapshotFile.toPath());
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, Math.max(0, bytes.length - 8));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            int version;
+            if (buffer.getInt() != SNAPSHOT_MAGIC || !isSnapshotVersion(version = buffer.getInt())) {
+                throw new IOException("Not an inventory snapshot: " + snapshotFile);
+            }
+            if (buffer.getLong(bytes.length - 8) != crc.getValue()) {
+                throw new IOException("Inventory snapshot is corrupt: " + snapshotFile);
+            }
+            buffer.getInt();
+            while (buffer.get() != 0) {
+                Product product = new Product(readString(buffer), readString(buffer), buffer.getDouble(),
+                        buffer.getInt());
+                int held = version == 1 ? 0 : buffer.getInt();
+                visitor.product(product, held, version < 3 ? NO_OVERRIDE : buffer.getLong());
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Inventory snapshot is truncated: " + snapshotFile);
+        }
+    }
+
+    private interface WalVisitor {
+        void put(Product product);
+
+        void delta(String productId, int delta);
+
+        // Units held by carts changed by delta
+        void held(String productId, int delta);
+
+        void price(String productId, long cents);
+    }
+
+    // Apply every intact record of a log file; stops at a torn or corrupt tail left by a crash
+    private void replayWal(int id, WalVisitor visitor) throws IOException {
+        File file = new File(directory, walName(id));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes, buffer.position(), length);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, buffer.position(), length));
+            byte type = in.readByte();
+            if (type == PUT) {
+                visitor.put(new Product(in.readUTF(), in.readUTF(), in.readDouble(), in.readInt()));
+            } else if (type == DELTA) {
+                visitor.delta(in.readUTF(), in.readInt());
+            } else if (type == RESERVE || type == RELEASE || type == SOLD) {
+                String productId = in.readUTF();
+                int quantity = in.readInt();
+                // Stock moves by the opposite of the units held, except for a sale
+                if (type != SOLD) {
+                    visitor.delta(productId, type == RESERVE ? -quantity : quantity);
+                }
+                visitor.held(productId, type == RELEASE || type == SOLD ? -quantity : quantity);
+            } else if (type == PRICE) {
+                visitor.price(in.readUTF(), in.readLong());
+            }
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private FileChannel openWal(int id) throws IOException {
+        return FileChannel.open(new File(directory, walName(id)).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Integer> walIds() {
+        List<Integer> ids = new ArrayList<>();
+        String[] names = directory.list();
+        for (String name : names == null ? new String[0] : names) {
+            Matcher matcher = WAL_FILE.matcher(name);
+            if (matcher.matches()) {
+                ids.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static String walName(int id) {
+        return String.format("wal_%06d.log", id);
+    }
+
+    // Stop the background tasks and make everything logged durable
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (syncLock) {
+            try {
+                sync();
+            } finally {
+                try {
+                    wal.close();
+                } finally {
+                    lockChannel.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram that any number of threads record into without locking.
+// Log-linear buckets as in HdrHistogram: exact below 64 ns, then 32 buckets per power of two, so a
+// percentile is within about 3% of the true value from nanoseconds up to hours in 1,900 counters.
+// Recording costs a clock read by the caller and two atomic adds. Snapshots copy the counters, and
+// the difference of two snapshots describes the interval between them (MetricsReporter).
+public class LatencyRecorder implements LatencyRecorderMBean {
+    private static final int SUB_BUCKETS = 32;
+    private static final int BUCKETS = 64 + (64 - 6) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.getAndIncrement(bucket(nanos));
+        totalNanos.add(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    // Record the time since startNanos, a System.nanoTime() taken by the caller
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            copy[bucket] = counts.get(bucket);
+            count += copy[bucket];
+        }
+        return new Snapshot(copy, count, totalNanos.sum(), max.get());
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return snapshot().getMeanNanos() / 1e3;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return snapshot().getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return snapshot().getPercentile(90) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return snapshot().getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return snapshot().getPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1e3;
+    }
+
+    // Start over; recordings made during the reset may be lost
+    @Override
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        totalNanos.reset();
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().format(name);
+    }
+
+    // Counters of a recorder at one moment
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long totalNanos, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        // Upper bound of the bucket holding the percentile, at most the maximum
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return Math.min(upperBound(bucket), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+
+        // For an interval the exact maximum is not known; the top non-empty bucket bounds it
+        public long getMaxNanos() {
+            return max;
+        }
+
+        // What was recorded between earlier and this snapshot
+        public Snapshot since(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            long top = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                delta[bucket] = Math.max(0, counts[bucket] - earlier.counts[bucket]);
+                if (delta[bucket] > 0) {
+                    top = upperBound(bucket);
+                }
+            }
+            return new Snapshot(delta, Math.max(0, count - earlier.count),
+                    Math.max(0, totalNanos - earlier.totalNanos), Math.min(top, max));
+        }
+
+        public String format(String name) {
+            return String.format("%-28s count %9d  mean %9.1f  p50 %9.1f  p99 %9.1f  p99.9 %9.1f  max %9.1f us",
+                    name, count, getMeanNanos() / 1e3, getPercentile(50) / 1e3, getPercentile(99) / 1e3,
+                    getPercentile(99.9) / 1e3, getMaxNanos() / 1e3);
+        }
+    }
+
+    private static int bucket(long value) {
+        if (value < 64) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 5)) & (SUB_BUCKETS - 1);
+        return 64 + (exponent - 6) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < 64) {
+            return bucket;
+        }
+        int exponent = (bucket - 64) / SUB_BUCKETS + 6;
+        int sub = (bucket - 64) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 5)) - 1;
+    }
+}
@@ -0,0 +1,12 @@
+// JMX view of a LatencyRecorder; times are in microseconds since start or the last reset
+public interface LatencyRecorderMBean {
+    String getName();
+    long getCount();
+    double getMeanMicros();
+    double getP50Micros();
+    double getP90Micros();
+    double getP99Micros();
+    double getP999Micros();
+    double getMaxMicros();
+    void reset();
+}
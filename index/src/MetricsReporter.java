@@ -0,0 +1,62 @@
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes what BillingMetrics recorded during each interval to a log: one line per recorder that
+// saw activity, then the counters. Runs on a daemon thread until close().
+public class MetricsReporter implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL_SECONDS = 60;
+
+    private final PrintStream log;
+    private final long intervalMillis;
+    private final Map<LatencyRecorder, LatencyRecorder.Snapshot> previous = new HashMap<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public MetricsReporter(PrintStream log, long intervalMillis) {
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+        for (LatencyRecorder recorder : BillingMetrics.recorders()) {
+            previous.put(recorder, recorder.snapshot());
+        }
+        thread = new Thread(this::run, "metrics-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            report();
+        }
+    }
+
+    // Log the interval since the previous report
+    public synchronized void report() {
+        StringBuilder text = new StringBuilder("Billing metrics at ")
+                .append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()))
+                .append(" (last ").append(intervalMillis / 1000).append(" s)\n");
+        for (LatencyRecorder recorder : BillingMetrics.recorders()) {
+            LatencyRecorder.Snapshot now = recorder.snapshot();
+            LatencyRecorder.Snapshot interval = now.since(previous.get(recorder));
+            previous.put(recorder, now);
+            if (interval.getCount() > 0) {
+                text.append("  ").append(interval.format(recorder.getName())).append('\n');
+            }
+        }
+        text.append("  ").append(BillingMetrics.COUNTERS);
+        log.println(text);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+}
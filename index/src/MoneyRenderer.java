@@ -0,0 +1,19 @@
+import javax.swing.table.DefaultTableCellRenderer;
+
+// Formats monetary cells with two decimals only when they are painted
+public class MoneyRenderer extends DefaultTableCellRenderer {
+    private static final long serialVersionUID = 1L;
+
+    public MoneyRenderer() {
+        setHorizontalAlignment(RIGHT);
+    }
+
+    @Override
+    protected void setValue(Object value) {
+        setText(value instanceof Number ? format(((Number) value).doubleValue()) : "");
+    }
+
+    public static String format(double amount) {
+        return String.format("%.2f", amount);
+    }
+}
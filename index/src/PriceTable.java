@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Live prices of one catalog, as numbered immutable versions.
+// A product's price is fixed when it is created; a price change during trading is published
+// here instead, as a new Version holding every price that differs from the products (in
+// cents). publish copies the current overrides, applies the changes and swaps the version in
+// with one volatile write, so a reader sees either all of a change or none of it. Readers
+// (current, Version.price) never lock.
+//
+// A cart pins the version it started with (CartSession), so its lines keep one consistent set
+// of prices however many changes come in while it is open. The table keeps the versions that
+// are current or pinned; a version is reclaimed when its last pin goes and it is no longer
+// current, and a pin never lands on a reclaimed version.
+//
+// Upserting a product (a price file import) makes its price the product's own again: the
+// override for its id is dropped. If that changes a price, a new version is installed and the
+// versions before it keep the price the product had, so a pinned cart prices a SKU it adds
+// after an import as before the import. A product new to the catalog has no earlier price and
+// shows its own in every version.
+//
+// Every change is announced as PRICES_CHANGING before it is installed, under the catalog's lock
+// as well as the table's, so listeners hear price changes and upserts in the order they apply.
+// InventoryStore logs them, so overrides outlive a restart, and SharedMemoryInventory passes
+// them on to the other lanes sharing stock.
+public class PriceTable {
+    private final ProductCatalog catalog;
+    private volatile Version current = new Version(0, new HashMap<>());
+    // Current and pinned versions, oldest first; guarded by this
+    private final List<Version> retained = new ArrayList<>();
+
+    // One set of prices. pins counts the carts holding it; -1 once it has been reclaimed.
+    public static final class Version {
+        private final long number;
+        private final HashMap<String, Long> cents;
+        private final AtomicInteger pins = new AtomicInteger();
+        // Prices in cents that products had when they were upserted with another price after
+        // this version was current; copied on write under the table's lock
+        private volatile Map<String, Long> previous = Collections.emptyMap();
+
+        private Version(long number, HashMap<String, Long> cents) {
+            this.number = number;
+            this.cents = cents;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        // Unit price of a product in this version
+        public double price(Product product) {
+            Map<String, Long> kept = previous;
+            if (cents.isEmpty() && kept.isEmpty()) {
+                return product.getPrice();
+            }
+            Long override = cents.get(product.getId());
+            if (override == null) {
+                override = kept.get(product.getId());
+            }
+            return override == null ? product.getPrice() : override / 100.0;
+        }
+
+        // Keep the first earlier price of each id that this version does not override
+        private void keep(Map<String, Long> previousCents) {
+            HashMap<String, Long> kept = new HashMap<>(previous);
+            for (Map.Entry<String, Long> entry : previousCents.entrySet()) {
+                if (!cents.containsKey(entry.getKey())) {
+                    kept.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            previous = kept;
+        }
+
+        public boolean overrides(String id) {
+            return cents.containsKey(id);
+        }
+
+        public int getOverrideCount() {
+            return cents.size();
+        }
+
+        public int getPins() {
+            return Math.max(0, pins.get());
+        }
+
+        @Override
+        public String toString() {
+            return "PriceTable.Version[" + number + ", " + cents.size() + " overrides]";
+        }
+    }
+
+    PriceTable(ProductCatalog catalog) {
+        this.catalog = catalog;
+        retained.add(current);
+    }
+
+    // The latest prices; lock-free
+    public Version current() {
+        return current;
+    }
+
+    // The latest prices, held until unpin. Lock-free: a version reclaimed between the read and
+    // the pin is skipped for the one that replaced it.
+    public Version pin() {
+        while (true) {
+            Version version = current;
+            int pins = version.pins.get();
+            if (pins >= 0 && version.pins.compareAndSet(pins, pins + 1)) {
+                return version;
+            }
+        }
+    }
+
+    public void unpin(Version version) {
+        if (version.pins.decrementAndGet() == 0 && version != current) {
+            reclaim();
+        }
+    }
+
+    // Publish new unit prices, id -> price. Every id must be in the catalog. Returns the new
+    // version; carts already open keep theirs.
+    public Version publish(Map<String, Double> prices) {
+        List<Product> changed = new ArrayList<>(prices.size());
+        List<Product> repriced = new ArrayList<>(prices.size());
+        for (Map.Entry<String, Double> entry : prices.entrySet()) {
+            Product product = catalog.get(entry.getKey());
+            if (product == null) {
+                throw new IllegalArgumentException("Unknown product: " + entry.getKey());
+            }
+            changed.add(product);
+            repriced.add(new Product(product.getId(), product.getName(), entry.getValue(), 0));
+        }
+        Version version;
+        synchronized (catalog) {
+            synchronized (this) {
+                catalog.getEvents().publish(BillingEvent.pricesChanging(repriced));
+                HashMap<String, Long> cents = new HashMap<>(current.cents);
+                for (Map.Entry<String, Double> entry : prices.entrySet()) {
+                    cents.put(entry.getKey(), Math.round(entry.getValue() * 100));
+                }
+                version = install(cents);
+            }
+        }
+        catalog.getEvents().publish(BillingEvent.pricesChanged(changed));
+        return version;
+    }
+
+    // Products are about to be replaced; previousCents holds the prices of those whose price
+    // changes. Called by ProductCatalog under its lock, before the new products can be seen, so
+    // no version made so far ever shows a new price.
+    void productsReplacing(Map<String, Long> previousCents) {
+        if (previousCents.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (Version version : retained) {
+                if (version.pins.get() >= 0) {
+                    version.keep(previousCents);
+                }
+            }
+        }
+    }
+
+    // Products were upserted with prices of their own; repriced if any price changed. Called by
+    // ProductCatalog under its lock once they are in place.
+    void productsReplaced(Collection<? extends Product> products, boolean repriced) {
+        if (current.cents.isEmpty() && !repriced) {
+            return;
+        }
+        synchronized (this) {
+            HashMap<String, Long> cents = null;
+            for (Product product : products) {
+                if (current.cents.containsKey(product.getId())) {
+                    if (cents == null) {
+                        cents = new HashMap<>(current.cents);
+                    }
+                    cents.remove(product.getId());
+                }
+            }
+            if (cents == null && !repriced) {
+                return;
+            }
+            // Versions never change their override maps, so the new one may share the current one's
+            install(cents != null ? cents : current.cents);
+        }
+    }
+
+    // Versions still held, the current one included
+    public synchronized int getRetainedVersionCount() {
+        return retained.size();
+    }
+
+    private Version install(HashMap<String, Long> cents) {
+        Version version = new Version(current.number + 1, cents);
+        retained.add(version);
+        current = version;
+        reclaim();
+        return version;
+    }
+
+    // Drop every version that is neither current nor pinned
+    private synchronized void reclaim() {
+        Version latest = current;
+        for (Iterator<Version> it = retained.iterator(); it.hasNext(); ) {
+            Version version = it.next();
+            if (version != latest && version.pins.compareAndSet(0, -1)) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -1,9 +1,23 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 // Product class to store product information
 public class Product {
     private String id;
     private String name;
     private double price;
-    private int quantity;
+    // Stock of catalog products is shared by all lanes; see compareAndSetQuantity
+    private volatile int quantity;
+
+    private static final VarHandle QUANTITY;
+
+    static {
+        try {
+            QUANTITY = MethodHandles.lookup().findVarHandle(Product.class, "quantity", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     public Product(String id, String name, double price, int quantity) {
         this.id = id;
@@ -12,10 +26,25 @@ public class Product {
         this.quantity = quantity;
     }
 
+    // For views that keep their data elsewhere and override every accessor (see ColumnarCatalog)
+    protected Product() {
+    }
+
     public String getId() { return id; }
     public String getName() { return name; }
     public double getPrice() { return price; }
     public int getQuantity() { return quantity; }
 
     public void setQuantity(int quantity) { this.quantity = quantity; }
-}
\ No newline at end of file
+
+    // Atomically set the quantity if it still equals expected
+    public boolean compareAndSetQuantity(int expected, int quantity) {
+        return QUANTITY.compareAndSet(this, expected, quantity);
+    }
+
+    // Told by ProductCatalog when units of this product go into a cart (positive) or leave one,
+    // sold or put back (negative). Stock kept outside the heap (SharedMemoryInventory) counts
+    // them so that a crashed lane's carts can be given back.
+    protected void reservationChanged(int delta) {
+    }
+}
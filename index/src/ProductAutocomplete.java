@@ -0,0 +1,203 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Product suggestions under a text field, from ProductSearchIndex.
+// Queries run on one background thread and only the answer for the latest text is shown, so
+// typing never waits for the index: the EDT only hands over the text and fills the list. A query
+// that has gone stale before it starts is skipped. Up/Down move through the suggestions, Enter or
+// a click picks one, Escape closes the list. Enter without a highlighted suggestion is left to
+// the field's own action listeners (a scanned barcode ends with Enter).
+public class ProductAutocomplete {
+    private static final int VISIBLE_ROWS = 8;
+
+    private final JTextField field;
+    private final Supplier<ProductSearchIndex> index;
+    private final Consumer<Product> onPick;
+    private final PriceTable prices;
+    private final DefaultListModel<Product> suggestions = new DefaultListModel<>();
+    private final JList<Product> list = new JList<>(suggestions);
+    private final JPopupMenu popup = new JPopupMenu();
+    private final AtomicLong generation = new AtomicLong();
+    private final ExecutorService searcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "product-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Set while a pick changes the field text, so that change does not search again
+    private boolean picking;
+
+    // index is asked for on the search thread, so an index built on first use is built there;
+    // suggestions show the current prices of prices
+    public ProductAutocomplete(JTextField field, Supplier<ProductSearchIndex> index, PriceTable prices,
+                               Consumer<Product> onPick) {
+        this.field = field;
+        this.index = index;
+        this.prices = prices;
+        this.onPick = onPick;
+
+        list.setFocusable(false);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(VISIBLE_ROWS);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                Product product = (Product) value;
+                double price = prices.current().price(product);
+                String text = product.getId() + "  " + product.getName() + "  " + MoneyRenderer.format(price);
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = list.locationToIndex(e.getPoint());
+                if (row >= 0) {
+                    pick(suggestions.get(row));
+                }
+            }
+        });
+
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+        popup.setFocusable(false);
+        popup.add(scrollPane);
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                textChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                textChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                handleKey(e);
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                hide();
+            }
+        });
+    }
+
+    private void textChanged() {
+        if (picking) {
+            return;
+        }
+        String query = field.getText();
+        long current = generation.incrementAndGet();
+        if (query.trim().isEmpty()) {
+            hide();
+            return;
+        }
+        searcher.execute(() -> {
+            if (generation.get() != current) {
+                return;
+            }
+            List<Product> results = index.get().search(query, ProductSearchIndex.DEFAULT_LIMIT);
+            SwingUtilities.invokeLater(() -> {
+                if (generation.get() == current) {
+                    show(results);
+                }
+            });
+        });
+    }
+
+    private void show(List<Product> results) {
+        suggestions.clear();
+        for (Product product : results) {
+            suggestions.addElement(product);
+        }
+        // Text set by the program (a table selection) while the user is elsewhere gets no list
+        if (results.isEmpty() || !field.isFocusOwner()) {
+            hide();
+            return;
+        }
+        list.clearSelection();
+        list.setVisibleRowCount(Math.min(VISIBLE_ROWS, results.size()));
+        popup.setPopupSize(Math.max(field.getWidth(), list.getPreferredScrollableViewportSize().width + 20),
+                list.getPreferredScrollableViewportSize().height + 4);
+        if (!popup.isVisible()) {
+            popup.show(field, 0, field.getHeight());
+        } else {
+            popup.pack();
+        }
+    }
+
+    private void hide() {
+        popup.setVisible(false);
+    }
+
+    private void handleKey(KeyEvent e) {
+        if (!popup.isVisible()) {
+            return;
+        }
+        int selected = list.getSelectedIndex();
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_DOWN:
+                select(Math.min(selected + 1, suggestions.size() - 1));
+                e.consume();
+                break;
+            case KeyEvent.VK_UP:
+                select(Math.max(selected - 1, 0));
+                e.consume();
+                break;
+            case KeyEvent.VK_ENTER:
+                if (selected >= 0) {
+                    pick(suggestions.get(selected));
+                    e.consume();
+                } else {
+                    hide();
+                }
+                break;
+            case KeyEvent.VK_ESCAPE:
+                hide();
+                e.consume();
+                break;
+            default:
+        }
+    }
+
+    private void select(int row) {
+        list.setSelectedIndex(row);
+        list.ensureIndexIsVisible(row);
+    }
+
+    private void pick(Product product) {
+        hide();
+        generation.incrementAndGet();
+        picking = true;
+        try {
+            field.setText(product.getId());
+            onPick.accept(product);
+        } finally {
+            picking = false;
+        }
+    }
+
+    public void dispose() {
+        hide();
+        searcher.shutdownNow();
+    }
+}
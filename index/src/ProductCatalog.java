@@ -0,0 +1,202 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Product catalog with O(1) lookup by id and a stable (insertion) iteration order.
+// Lookups and stock changes are safe from any lane thread without locking; stock moves by CAS
+// on the product (tryReserve, adjustQuantity). Adding products is serialised on the catalog, and
+// the positional views (get(int), size, asList, iterator) are for the thread that adds products.
+public class ProductCatalog implements Iterable<Product> {
+    private final ArrayList<Product> products;
+    private final ConcurrentHashMap<String, Slot> slotsById;
+    private final BillingEventBus events;
+    private final PriceTable prices;
+    // Whether sales must be reported to the products (see sold)
+    private volatile boolean tracksReservations;
+
+    // Position of a product and the current product object for its id
+    private static class Slot {
+        final int index;
+        volatile Product product;
+
+        Slot(int index, Product product) {
+            this.index = index;
+            this.product = product;
+        }
+    }
+
+    public ProductCatalog() {
+        this(16, new BillingEventBus());
+    }
+
+    public ProductCatalog(int expectedSize, BillingEventBus events) {
+        products = new ArrayList<>(expectedSize);
+        slotsById = new ConcurrentHashMap<>(Math.max(16, expectedSize));
+        this.events = events;
+        this.prices = new PriceTable(this);
+    }
+
+    // Bus that receives STOCK_CHANGED, PRODUCTS_UPSERTING and PRODUCTS_UPSERTED events for this catalog
+    public BillingEventBus getEvents() {
+        return events;
+    }
+
+    // Live prices; a product's own price applies unless a later version overrides it
+    public PriceTable getPrices() {
+        return prices;
+    }
+
+    // Find a product by id, or null if it is not in the catalog
+    public Product get(String id) {
+        Slot slot = slotsById.get(id);
+        return slot == null ? null : slot.product;
+    }
+
+    // Position of the product in iteration order, or -1 if it is not in the catalog
+    public int indexOf(String id) {
+        Slot slot = slotsById.get(id);
+        return slot == null ? -1 : slot.index;
+    }
+
+    public boolean contains(String id) {
+        return slotsById.containsKey(id);
+    }
+
+    public Product get(int index) {
+        return products.get(index);
+    }
+
+    public int size() {
+        return products.size();
+    }
+
+    // Add a product, or replace the product with the same id keeping its position.
+    // Returns the position of the product.
+    //
+    // PRODUCTS_UPSERTING goes out under the catalog lock before the products can be seen, so a
+    // listener hears of them in the order they are stored and before any stock change to them
+    // (the inventory log relies on this); PRODUCTS_UPSERTED follows once they are in place.
+    public int put(Product product) {
+        List<Product> upserted = Collections.singletonList(product);
+        int index;
+        synchronized (this) {
+            events.publish(BillingEvent.productsUpserting(upserted));
+            boolean repriced = keepPreviousPrices(upserted);
+            index = store(product);
+            prices.productsReplaced(upserted, repriced);
+        }
+        events.publish(BillingEvent.productsUpserted(upserted));
+        return index;
+    }
+
+    // Bulk add/update; existing ids keep their position, new ids are appended in order
+    public void putAll(Collection<? extends Product> newProducts) {
+        List<Product> upserted = new ArrayList<>(newProducts);
+        synchronized (this) {
+            events.publish(BillingEvent.productsUpserting(upserted));
+            boolean repriced = keepPreviousPrices(upserted);
+            products.ensureCapacity(products.size() + upserted.size());
+            for (Product product : upserted) {
+                store(product);
+            }
+            prices.productsReplaced(upserted, repriced);
+        }
+        events.publish(BillingEvent.productsUpserted(upserted));
+    }
+
+    // Before any lane can see the new products, the price versions pinned so far keep the old
+    // prices of the products they replace. Returns whether any price changes.
+    private boolean keepPreviousPrices(List<Product> upserted) {
+        HashMap<String, Long> previousCents = new HashMap<>();
+        for (Product product : upserted) {
+            Slot slot = slotsById.get(product.getId());
+            if (slot != null && slot.product.getPrice() != product.getPrice()) {
+                previousCents.putIfAbsent(product.getId(), Math.round(slot.product.getPrice() * 100));
+            }
+        }
+        prices.productsReplacing(previousCents);
+        return !previousCents.isEmpty();
+    }
+
+    private int store(Product product) {
+        Slot slot = slotsById.get(product.getId());
+        if (slot != null) {
+            products.set(slot.index, product);
+            slot.product = product;
+            return slot.index;
+        }
+        int newIndex = products.size();
+        products.add(product);
+        slotsById.put(product.getId(), new Slot(newIndex, product));
+        return newIndex;
+    }
+
+    // Change the stock of a product by delta and return the new quantity
+    public int adjustQuantity(Product product, int delta) {
+        int quantity;
+        do {
+            quantity = product.getQuantity();
+        } while (!product.compareAndSetQuantity(quantity, quantity + delta));
+        events.publish(BillingEvent.stockChanged(product, indexOf(product.getId()), delta));
+        return quantity + delta;
+    }
+
+    // Take quantity units out of stock if that many are available. Concurrent reservations of
+    // the same product retry on the product's counter, so stock never goes below zero.
+    public boolean tryReserve(Product product, int quantity) {
+        int available;
+        do {
+            available = product.getQuantity();
+            if (quantity > available) {
+                return false;
+            }
+        } while (!product.compareAndSetQuantity(available, available - quantity));
+        product.reservationChanged(quantity);
+        events.publish(BillingEvent.stockReserved(product, indexOf(product.getId()), quantity));
+        return true;
+    }
+
+    // Give back quantity units taken by tryReserve (an item came out of a cart). The reservation
+    // is dropped before the stock returns, so a crash in between can lose units, never add them.
+    public void release(Product product, int quantity) {
+        product.reservationChanged(-quantity);
+        int available;
+        do {
+            available = product.getQuantity();
+        } while (!product.compareAndSetQuantity(available, available + quantity));
+        events.publish(BillingEvent.stockReleased(product, indexOf(product.getId()), quantity));
+    }
+
+    // Units taken by tryReserve were sold and stay out of stock. The inventory store needs to
+    // hear of it, so units left in carts by a crash can be told from sold ones.
+    public void sold(String id, int quantity) {
+        Product product = get(id);
+        if (product != null) {
+            product.reservationChanged(-quantity);
+            events.publish(BillingEvent.stockSold(product, indexOf(id), quantity));
+        }
+    }
+
+    public boolean tracksReservations() {
+        return tracksReservations;
+    }
+
+    // Products now count reservations, so CartSession reports every sale through sold
+    void setTracksReservations(boolean tracksReservations) {
+        this.tracksReservations = tracksReservations;
+    }
+
+    // Copy of the products in catalog order; unlike asList, safe from any thread
+    public synchronized ArrayList<Product> snapshot() {
+        return new ArrayList<>(products);
+    }
+
+    // Live list view in catalog order, backing SupermarketBillingSystem.getProducts()
+    public ArrayList<Product> asList() {
+        return products;
+    }
+
+    @Override
+    public Iterator<Product> iterator() {
+        return Collections.unmodifiableList(products).iterator();
+    }
+}
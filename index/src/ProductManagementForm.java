@@ -1,16 +1,21 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.List;
 
 // Form 1: Product Management
-public class ProductManagementForm extends JFrame {
+public class ProductManagementForm extends JFrame implements BillingBatchListener {
+    private static final long serialVersionUID = 1L;
     private JTable productTable;
-    private DefaultTableModel productTableModel;
+    private ProductTableModel productTableModel;
     private JTextField productIdField, productNameField, priceField, quantityField;
     private JButton addButton;
+    private final BillingEngine engine;
+    private final CartSession session;
 
-    public ProductManagementForm() {
+    public ProductManagementForm(BillingEngine engine, CartSession session) {
+        this.engine = engine;
+        this.session = session;
         setTitle("Product Management");
         setSize(400, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -25,6 +30,7 @@ public class ProductManagementForm extends JFrame {
 
         inputPanel.add(new JLabel("Product ID:"));
         productIdField = new JTextField();
+        productIdField.addActionListener(e -> scanProduct());
         inputPanel.add(productIdField);
 
         inputPanel.add(new JLabel("Product Name:"));
@@ -47,21 +53,58 @@ public class ProductManagementForm extends JFrame {
 
         mainPanel.add(inputPanel, BorderLayout.NORTH);
 
+        // Suggestions by id or name while typing; the index is searched off the EDT
+        new ProductAutocomplete(productIdField, engine::getSearchIndex, engine.getCatalog().getPrices(),
+                this::showProduct);
+
         // Product table
-        productTableModel = new DefaultTableModel(
-                new Object[]{"ID", "Name", "Price", "Available"}, 0);
+        productTableModel = new ProductTableModel(engine.getCatalog());
         productTable = new JTable(productTableModel);
-        JScrollPane productScrollPane = new JScrollPane(productTable);
-        productScrollPane.setBorder(BorderFactory.createTitledBorder("Available Products"));
-        mainPanel.add(productScrollPane, BorderLayout.CENTER);
+        productTable.setDefaultRenderer(Double.class, new MoneyRenderer());
+        productTable.getTableHeader().setReorderingAllowed(false);
+        productTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = productTable.columnAtPoint(e.getPoint());
+                if (column >= 0) {
+                    sortBy(productTable.convertColumnIndexToModel(column));
+                }
+            }
+        });
+        productTableModel.prepareOrders();
+
+        // Filter by id or name; the model filters off the EDT
+        JTextField filterField = new JTextField();
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                productTableModel.setFilter(filterField.getText());
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                productTableModel.setFilter(filterField.getText());
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+            }
+        });
+        JPanel filterPanel = new JPanel(new BorderLayout(5, 5));
+        filterPanel.add(new JLabel("Filter:"), BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+
+        JPanel productPanel = new JPanel(new BorderLayout(5, 5));
+        productPanel.setBorder(BorderFactory.createTitledBorder("Available Products"));
+        productPanel.add(filterPanel, BorderLayout.NORTH);
+        productPanel.add(new JScrollPane(productTable), BorderLayout.CENTER);
+        mainPanel.add(productPanel, BorderLayout.CENTER);
 
         // Add selection listener to product table
         productTable.getSelectionModel().addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting() && productTable.getSelectedRow() != -1) {
-                int row = productTable.getSelectedRow();
-                productIdField.setText(productTable.getValueAt(row, 0).toString());
-                productNameField.setText(productTable.getValueAt(row, 1).toString());
-                priceField.setText(productTable.getValueAt(row, 2).toString());
+                int row = productTable.convertRowIndexToModel(productTable.getSelectedRow());
+                showProduct(productTableModel.getProductAt(row));
                 quantityField.setText("1");
             }
         });
@@ -69,6 +112,17 @@ public class ProductManagementForm extends JFrame {
         // Button panel at bottom
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
 
+        JButton importButton = new JButton("Import Price File...");
+        importButton.addActionListener(e -> importPriceFile());
+        buttonPanel.add(importButton);
+
+        // Only there when the engine indexes stock levels (BillingEngine.open)
+        if (engine.getStockLevels() != null) {
+            JButton lowStockButton = new JButton("Low Stock...");
+            lowStockButton.addActionListener(e -> showLowStock());
+            buttonPanel.add(lowStockButton);
+        }
+
         JButton exitButton = new JButton("Exit");
         exitButton.addActionListener(e -> System.exit(0));
         buttonPanel.add(exitButton);
@@ -78,8 +132,8 @@ public class ProductManagementForm extends JFrame {
         // Add main panel to frame
         add(mainPanel);
 
-        // Refresh the product table
-        refreshTable();
+        // Repaint stock changes as they are published
+        engine.getEvents().subscribeBatch(this);
 
         // Make the window visible
         setLocationRelativeTo(null);
@@ -87,15 +141,138 @@ public class ProductManagementForm extends JFrame {
     }
 
     public void refreshTable() {
-        productTableModel.setRowCount(0);
-        for (Product product : SupermarketBillingSystem.getProducts()) {
-            productTableModel.addRow(new Object[]{
-                    product.getId(),
-                    product.getName(),
-                    String.format("%.2f", product.getPrice()),
-                    product.getQuantity()
-            });
+        productTableModel.catalogChanged();
+    }
+
+    // Clicking a column header sorts by it; clicking it again reverses the order
+    private void sortBy(int column) {
+        productTableModel.sortBy(ProductTableModel.sortKeyOf(column));
+        for (int i = 0; i < productTable.getColumnCount(); i++) {
+            int modelColumn = productTable.convertColumnIndexToModel(i);
+            String name = productTableModel.getColumnName(modelColumn);
+            if (modelColumn == column) {
+                name += productTableModel.isDescending() ? " \u25BC" : " \u25B2";
+            }
+            productTable.getColumnModel().getColumn(i).setHeaderValue(name);
+        }
+        productTable.getTableHeader().repaint();
+    }
+
+    @Override
+    public void billingChanged(List<BillingEvent> events) {
+        long start = System.nanoTime();
+        applyEvents(events);
+        BillingMetrics.PRODUCT_FORM_REFRESH.recordSince(start);
+    }
+
+    private void applyEvents(List<BillingEvent> events) {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        boolean repriced = false;
+        for (BillingEvent event : events) {
+            if (event.getType() == BillingEvent.Type.INVENTORY_FAILED) {
+                JOptionPane.showMessageDialog(this, "Stock changes are no longer being saved: "
+                        + engine.getInventoryStore().getFailure().getMessage(), "Inventory Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+            if (event.getType() == BillingEvent.Type.PRODUCTS_UPSERTED) {
+                refreshTable();
+                return;
+            }
+            // New prices keep the rows; they only reorder a table sorted by price
+            if (event.getType() == BillingEvent.Type.PRICES_CHANGED) {
+                repriced = true;
+            }
+            if (event.getType() == BillingEvent.Type.STOCK_CHANGED) {
+                int row = productTableModel.viewRow(event.getIndex());
+                if (row >= 0) {
+                    first = Math.min(first, row);
+                    last = Math.max(last, row);
+                }
+            }
+        }
+
+        // One update event covering every visible row that changed during the frame
+        if (repriced) {
+            productTableModel.pricesChanged();
+        } else if (last != -1) {
+            productTableModel.fireTableRowsUpdated(first, last);
+        }
+    }
+
+    // SKUs at or below their reorder point, out of stock first; read from the stock level index,
+    // so it costs the length of the list, not of the catalog
+    private void showLowStock() {
+        StockLevelIndex levels = engine.getStockLevels();
+        List<Product> products = levels.belowThreshold();
+        StringBuilder text = new StringBuilder();
+        for (Product product : products) {
+            text.append(String.format("%-4s %-12s %-30s stock %5d  reorder at %5d  order %5d%n",
+                    levels.levelOf(product.getId()), product.getId(), product.getName(), product.getQuantity(),
+                    levels.getReorderPoint(product.getId()), levels.getReorderQuantity(product.getId())));
+        }
+        if (products.isEmpty()) {
+            text.append("No product is below its reorder point.");
+        }
+        JTextArea area = new JTextArea(text.toString(), Math.min(20, products.size() + 1), 90);
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(area),
+                products.size() + " product(s) to reorder", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    // Parse the file and upsert the products into the catalog in the background
+    private void importPriceFile() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        java.io.File file = chooser.getSelectedFile();
+
+        new SwingWorker<CatalogImporter.Result, Void>() {
+            @Override
+            protected CatalogImporter.Result doInBackground() throws Exception {
+                CatalogImporter.Result result = new CatalogImporter().parse(file);
+                // Every catalog listener (inventory log, search and stock level indexes) runs
+                // inside putAll, so it stays off the EDT too; the table refreshes from the event
+                engine.getCatalog().putAll(result.getProducts());
+                return result;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    CatalogImporter.Result result = get();
+
+                    StringBuilder message = new StringBuilder("Imported ").append(result);
+                    for (CatalogImporter.RowError error : result.getErrors().subList(0,
+                            Math.min(10, result.getErrors().size()))) {
+                        message.append("\n").append(error);
+                    }
+                    JOptionPane.showMessageDialog(ProductManagementForm.this, message.toString());
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(ProductManagementForm.this,
+                            "Import failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void showProduct(Product product) {
+        productIdField.setText(product.getId());
+        productNameField.setText(product.getName());
+        priceField.setText(MoneyRenderer.format(engine.getCatalog().getPrices().current().price(product)));
+    }
+
+    // Enter in the id field: an exact id, typed or scanned, goes straight into the cart
+    private void scanProduct() {
+        Product product = engine.getCatalog().get(productIdField.getText().trim());
+        if (product == null) {
+            JOptionPane.showMessageDialog(this, "No product with ID " + productIdField.getText().trim());
+            return;
         }
+        showProduct(product);
+        addProductToCart();
     }
 
     private void addProductToCart() {
@@ -112,7 +289,7 @@ public class ProductManagementForm extends JFrame {
                 return;
             }
 
-            boolean success = SupermarketBillingSystem.addToCart(id, quantity);
+            boolean success = session.add(id, quantity);
 
             if (!success) {
                 JOptionPane.showMessageDialog(this, "Failed to add product to cart!");
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Index permutations of the catalog for the product table: position i of a permutation is the
+// catalog index of the i-th product in that order. Price and stock orders sort packed primitive
+// keys (key in the high half, catalog index in the low half); id and name orders merge-sort an
+// int[] of indexes over an array of the keys. Nothing is boxed, and equal keys keep catalog order.
+public final class ProductOrdering {
+    public enum Key { CATALOG, ID, NAME, PRICE, STOCK }
+
+    private interface IndexComparator {
+        int compare(int a, int b);
+    }
+
+    private ProductOrdering() {
+    }
+
+    // Catalog indexes of products, sorted ascending by key
+    public static int[] sort(List<Product> products, Key key) {
+        return sort(products, key, null);
+    }
+
+    // The same, with prices from a PriceTable version (null: the products' own prices)
+    public static int[] sort(List<Product> products, Key key, PriceTable.Version prices) {
+        int size = products.size();
+        switch (key) {
+            case PRICE:
+                return sortPacked(products, size, false, prices);
+            case STOCK:
+                return sortPacked(products, size, true, prices);
+            case ID:
+            case NAME:
+                return sortStrings(products, size, key == Key.NAME);
+            default:
+                return identity(size);
+        }
+    }
+
+    // The entries of order whose product id or name contains text, ignoring case, in the same order
+    public static int[] filter(List<Product> products, int[] order, String text) {
+        int[] kept = new int[order.length];
+        int count = 0;
+        for (int index : order) {
+            Product product = products.get(index);
+            if (containsIgnoreCase(product.getName(), text) || containsIgnoreCase(product.getId(), text)) {
+                kept[count++] = index;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    // View row of each catalog index in rows, -1 where it is not shown
+    public static int[] inverse(int[] rows, int catalogSize) {
+        int[] viewRows = new int[catalogSize];
+        Arrays.fill(viewRows, -1);
+        for (int row = 0; row < rows.length; row++) {
+            viewRows[rows[row]] = row;
+        }
+        return viewRows;
+    }
+
+    public static int[] identity(int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    private static int[] sortPacked(List<Product> products, int size, boolean stock, PriceTable.Version prices) {
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            Product product = products.get(i);
+            // Keys fit an int (prices in cents up to 21 million), so the signed high half orders them
+            long key = stock ? product.getQuantity()
+                    : Math.round((prices == null ? product.getPrice() : prices.price(product)) * 100);
+            packed[i] = (key << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+
+    // Names compare in lower case; plain String.compareTo on the prepared keys is far cheaper than
+    // a case-insensitive comparator on every comparison
+    private static int[] sortStrings(List<Product> products, int size, boolean name) {
+        String[] keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            Product product = products.get(i);
+            keys[i] = name ? product.getName().toLowerCase(Locale.ROOT) : product.getId();
+        }
+        return sortIndexes(size, (a, b) -> keys[a].compareTo(keys[b]));
+    }
+
+    // Stable merge sort of 0..size-1
+    private static int[] sortIndexes(int size, IndexComparator comparator) {
+        int[] order = identity(size);
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size - width; low += 2 * width) {
+                int middle = low + width;
+                int high = Math.min(low + 2 * width, size);
+                if (comparator.compare(order[middle - 1], order[middle]) <= 0) {
+                    continue;
+                }
+                int left = low;
+                int right = middle;
+                int out = low;
+                while (left < middle && right < high) {
+                    buffer[out++] = comparator.compare(order[left], order[right]) <= 0 ? order[left++] : order[right++];
+                }
+                while (left < middle) {
+                    buffer[out++] = order[left++];
+                }
+                while (right < high) {
+                    buffer[out++] = order[right++];
+                }
+                System.arraycopy(buffer, low, order, low, high - low);
+            }
+        }
+        return order;
+    }
+
+    private static boolean containsIgnoreCase(String text, String part) {
+        if (part.isEmpty()) {
+            return true;
+        }
+        char lower = Character.toLowerCase(part.charAt(0));
+        char upper = Character.toUpperCase(part.charAt(0));
+        int last = text.length() - part.length();
+        for (int i = 0; i <= last; i++) {
+            char c = text.charAt(i);
+            if ((c == lower || c == upper) && text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
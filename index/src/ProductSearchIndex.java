@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Type-ahead search over product ids and names.
+// Ids and names are split into lower-case words, and a sorted map goes from each word to the ids
+// of the products containing it. A prefix is answered with one seek into that map, then matches
+// are read in word order until the limit, so a query costs O(log words + results) however large
+// the catalog. Every word of a query must match (as a prefix) a word of the same product: the
+// longest query word drives the scan and the others are checked against the product's words.
+//
+// Ranking: an exact id (a scanned barcode) first, then by the matching word in dictionary order,
+// so a whole-word match comes before its longer completions ("milk" before "milkshake"), then in
+// catalog order.
+//
+// The index follows the catalog through PRODUCTS_UPSERTED events. Queries do not lock and are
+// safe from any thread; updates are serialised on the index. Posting arrays are copy-on-write,
+// and a batch of products rewrites each affected word once.
+public class ProductSearchIndex implements BillingListener {
+    public static final int DEFAULT_LIMIT = 20;
+
+    // Postings examined before a multi-word query stops looking for more matches
+    private static final int SCAN_BUDGET = 100_000;
+    private static final String[] NO_WORDS = new String[0];
+
+    private final ProductCatalog catalog;
+    private final ConcurrentSkipListMap<String, String[]> postings = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, String[]> wordsById = new ConcurrentHashMap<>();
+
+    // Index the catalog as it is now and follow its changes
+    public ProductSearchIndex(ProductCatalog catalog) {
+        this.catalog = catalog;
+        // Subscribe first so an upsert made while the snapshot is indexed is not missed
+        catalog.getEvents().subscribe(this);
+        index(catalog.snapshot());
+    }
+
+    public void close() {
+        catalog.getEvents().unsubscribe(this);
+    }
+
+    @Override
+    public void billingChanged(BillingEvent event) {
+        if (event.getType() == BillingEvent.Type.PRODUCTS_UPSERTED) {
+            index(event.getProducts());
+        }
+    }
+
+    public int getWordCount() {
+        return postings.size();
+    }
+
+    // Add products or re-index them after a change of name
+    public synchronized void index(Collection<? extends Product> products) {
+        // The last version of each product wins, compared with what is indexed now
+        Map<String, String[]> latest = new LinkedHashMap<>();
+        for (Product product : products) {
+            latest.put(product.getId(), words(product));
+        }
+
+        Map<String, List<String>> removed = new HashMap<>();
+        Map<String, List<String>> added = new HashMap<>();
+        for (Map.Entry<String, String[]> entry : latest.entrySet()) {
+            String id = entry.getKey();
+            String[] words = entry.getValue();
+            String[] old = wordsById.put(id, words);
+            if (old == null) {
+                old = NO_WORDS;
+            }
+            for (String word : old) {
+                if (!contains(words, word)) {
+                    removed.computeIfAbsent(word, key -> new ArrayList<>(1)).add(id);
+                }
+            }
+            for (String word : words) {
+                if (!contains(old, word)) {
+                    added.computeIfAbsent(word, key -> new ArrayList<>(1)).add(id);
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<String>> entry : removed.entrySet()) {
+            String word = entry.getKey();
+            Set<String> gone = new HashSet<>(entry.getValue());
+            String[] current = postings.get(word);
+            List<String> kept = new ArrayList<>(current.length);
+            for (String id : current) {
+                if (!gone.contains(id)) {
+                    kept.add(id);
+                }
+            }
+            List<String> more = added.remove(word);
+            if (more != null) {
+                kept.addAll(more);
+            }
+            if (kept.isEmpty()) {
+                postings.remove(word);
+            } else {
+                postings.put(word, kept.toArray(NO_WORDS));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : added.entrySet()) {
+            String[] current = postings.get(entry.getKey());
+            List<String> ids = entry.getValue();
+            if (current == null) {
+                postings.put(entry.getKey(), ids.toArray(NO_WORDS));
+            } else {
+                String[] grown = Arrays.copyOf(current, current.length + ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    grown[current.length + i] = ids.get(i);
+                }
+                postings.put(entry.getKey(), grown);
+            }
+        }
+    }
+
+    public List<Product> search(String query) {
+        return search(query, DEFAULT_LIMIT);
+    }
+
+    // Up to limit products matching query, best first
+    public List<Product> search(String query, int limit) {
+        String[] terms = split(query);
+        if (terms.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Product> results = new ArrayList<>(Math.min(limit, 64));
+        Set<String> found = new HashSet<>();
+
+        Product exact = catalog.get(query.trim());
+        if (exact != null) {
+            results.add(exact);
+            found.add(exact.getId());
+        }
+
+        int driver = 0;
+        for (int i = 1; i < terms.length; i++) {
+            if (terms[i].length() > terms[driver].length()) {
+                driver = i;
+            }
+        }
+        String prefix = terms[driver];
+        int budget = SCAN_BUDGET;
+        for (String[] ids : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            for (String id : ids) {
+                if (results.size() >= limit || --budget < 0) {
+                    return results;
+                }
+                if (matchesAll(id, terms, driver) && found.add(id)) {
+                    Product product = catalog.get(id);
+                    if (product != null) {
+                        results.add(product);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    // Whether every term but the driver is a prefix of one of the product's words
+    private boolean matchesAll(String id, String[] terms, int driver) {
+        if (terms.length == 1) {
+            return true;
+        }
+        String[] words = wordsById.get(id);
+        if (words == null) {
+            return false;
+        }
+        for (int i = 0; i < terms.length; i++) {
+            if (i != driver && !startsAny(words, terms[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsAny(String[] words, String prefix) {
+        for (String word : words) {
+            if (word.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(String[] words, String word) {
+        for (String candidate : words) {
+            if (candidate.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Distinct words of the id and the name
+    private static String[] words(Product product) {
+        String[] id = split(product.getId());
+        String[] name = split(product.getName());
+        List<String> words = new ArrayList<>(id.length + name.length);
+        for (String word : id) {
+            if (!words.contains(word)) {
+                words.add(word);
+            }
+        }
+        for (String word : name) {
+            if (!words.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words.toArray(NO_WORDS);
+    }
+
+    // Lower-case runs of letters and digits: "Rice (1kg)" -> rice, 1kg
+    static String[] split(String text) {
+        if (text == null) {
+            return NO_WORDS;
+        }
+        List<String> words = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words.toArray(NO_WORDS);
+    }
+}
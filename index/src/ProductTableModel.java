@@ -0,0 +1,267 @@
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+import java.util.EnumMap;
+import java.util.List;
+
+// Table model that reads rows straight from the catalog's products.
+// Products are added to the catalog off the EDT (imports), so the model works on a snapshot of
+// the catalog's product list taken when it hears of the upsert (catalogChanged); the products
+// in it are the live ones, so stock shows as it moves. A snapshot is never changed, so the
+// background sorts and filters read it directly instead of copying it on every keystroke.
+// JTable only asks for the cells it paints, so a row exists as objects only while it is on
+// screen. Sorting and filtering go through an index permutation instead of a TableRowSorter:
+// view row -> catalog index. Sort orders are computed off the EDT (ProductOrdering) and cached
+// per key until the catalog changes, so switching back to a column, or reversing it, costs
+// nothing; a filter is one pass over the current order. New prices (pricesChanged) only drop
+// the price order: the products are the same, so no new copy of the catalog is taken. Stock moves all the time, so the stock
+// order is recomputed each time it is chosen rather than kept sorted.
+// Everything but the background sorts runs on the EDT.
+public class ProductTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"ID", "Name", "Price", "Available"};
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, String.class, Double.class, Integer.class};
+    private static final ProductOrdering.Key[] COLUMN_KEYS = {ProductOrdering.Key.ID, ProductOrdering.Key.NAME,
+            ProductOrdering.Key.PRICE, ProductOrdering.Key.STOCK};
+
+    // Source of the products; null for a fixed list
+    private final ProductCatalog catalog;
+    // Never changed once in use: catalogChanged puts a new copy in its place
+    private List<Product> products;
+    // Live prices; null shows the products' own prices
+    private final PriceTable prices;
+    private final EnumMap<ProductOrdering.Key, int[]> orders = new EnumMap<>(ProductOrdering.Key.class);
+    private ProductOrdering.Key sortKey = ProductOrdering.Key.CATALOG;
+    private boolean descending;
+    private String filter = "";
+
+    // View row -> catalog index and back; both null while the whole catalog shows in catalog order
+    private int[] rows;
+    private int[] viewRows;
+    // Only the latest requested view is applied
+    private long generation;
+    private long appliedGeneration;
+    private long catalogVersion;
+    private long pricesVersion;
+
+    // The permutations behind the current view
+    private static class View {
+        int[] order;
+        int[] rows;
+        int[] viewRows;
+    }
+
+    // A fixed list of products with their own prices; the list must not change afterwards
+    public ProductTableModel(List<Product> products) {
+        this.catalog = null;
+        this.products = products;
+        this.prices = null;
+    }
+
+    // The products of catalog at its live prices
+    public ProductTableModel(ProductCatalog catalog) {
+        this.catalog = catalog;
+        this.products = catalog.snapshot();
+        this.prices = catalog.getPrices();
+    }
+
+    public Product getProductAt(int row) {
+        return products.get(catalogIndex(row));
+    }
+
+    // Catalog index of a view row
+    public int catalogIndex(int row) {
+        if (rows == null) {
+            return row;
+        }
+        return rows[descending ? rows.length - 1 - row : row];
+    }
+
+    // View row of a catalog index, or -1 if it is filtered out or not in the view yet
+    public int viewRow(int index) {
+        if (viewRows == null) {
+            return index < products.size() ? index : -1;
+        }
+        if (index >= viewRows.length || viewRows[index] < 0) {
+            return -1;
+        }
+        return descending ? rows.length - 1 - viewRows[index] : viewRows[index];
+    }
+
+    // Whether a requested sort or filter is still being computed
+    public boolean isUpdating() {
+        return appliedGeneration != generation;
+    }
+
+    public ProductOrdering.Key getSortKey() {
+        return sortKey;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public static ProductOrdering.Key sortKeyOf(int column) {
+        return COLUMN_KEYS[column];
+    }
+
+    // Sort by key; choosing the current key again reverses the order, which needs no sort
+    public void sortBy(ProductOrdering.Key key) {
+        if (key == sortKey && key != ProductOrdering.Key.CATALOG && key != ProductOrdering.Key.STOCK) {
+            descending = !descending;
+            fireTableDataChanged();
+            return;
+        }
+        descending = key == sortKey && key != ProductOrdering.Key.CATALOG && !descending;
+        sortKey = key;
+        refreshView();
+    }
+
+    // Show only products whose id or name contains text (ignoring case); empty shows all
+    public void setFilter(String text) {
+        String trimmed = text.trim();
+        if (!trimmed.equals(filter)) {
+            filter = trimmed;
+            refreshView();
+        }
+    }
+
+    // Products were added or replaced: take a new copy of the catalog; cached orders are out of date
+    public void catalogChanged() {
+        if (catalog != null) {
+            products = catalog.snapshot();
+        }
+        catalogVersion++;
+        orders.clear();
+        refreshView();
+    }
+
+    // Prices changed: only the price order is out of date, and the price cells
+    public void pricesChanged() {
+        pricesVersion++;
+        orders.remove(ProductOrdering.Key.PRICE);
+        if (sortKey == ProductOrdering.Key.PRICE) {
+            refreshView();
+        } else if (getRowCount() > 0) {
+            fireTableRowsUpdated(0, getRowCount() - 1);
+        }
+    }
+
+    // Compute the id, name and price orders in the background so the first sort is instant
+    public void prepareOrders() {
+        List<Product> snapshot = products;
+        PriceTable.Version priceVersion = currentPrices();
+        long version = catalogVersion;
+        long pricedAt = pricesVersion;
+        new SwingWorker<EnumMap<ProductOrdering.Key, int[]>, Void>() {
+            @Override
+            protected EnumMap<ProductOrdering.Key, int[]> doInBackground() {
+                EnumMap<ProductOrdering.Key, int[]> prepared = new EnumMap<>(ProductOrdering.Key.class);
+                for (ProductOrdering.Key key : new ProductOrdering.Key[] {ProductOrdering.Key.ID,
+                        ProductOrdering.Key.NAME, ProductOrdering.Key.PRICE}) {
+                    prepared.put(key, ProductOrdering.sort(snapshot, key, priceVersion));
+                }
+                return prepared;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    // Orders of an older catalog are of no use
+                    if (catalogVersion == version && snapshot.size() == products.size()) {
+                        for (ProductOrdering.Key key : get().keySet()) {
+                            if (key != ProductOrdering.Key.PRICE || pricesVersion == pricedAt) {
+                                orders.putIfAbsent(key, get().get(key));
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    // Sorting again on demand is good enough
+                }
+            }
+        }.execute();
+    }
+
+    private void refreshView() {
+        long current = ++generation;
+        if (sortKey == ProductOrdering.Key.CATALOG && filter.isEmpty()) {
+            rows = null;
+            viewRows = null;
+            appliedGeneration = current;
+            fireTableDataChanged();
+            return;
+        }
+
+        // The list is never changed once in use, so the worker can read it as it is
+        List<Product> snapshot = products;
+        PriceTable.Version priceVersion = currentPrices();
+        ProductOrdering.Key key = sortKey;
+        String text = filter;
+        int[] known = key == ProductOrdering.Key.STOCK ? null : orders.get(key);
+        int[] cached = known != null && known.length == snapshot.size() ? known : null;
+        new SwingWorker<View, Void>() {
+            @Override
+            protected View doInBackground() {
+                View view = new View();
+                view.order = cached != null ? cached : ProductOrdering.sort(snapshot, key, priceVersion);
+                view.rows = text.isEmpty() ? view.order : ProductOrdering.filter(snapshot, view.order, text);
+                view.viewRows = ProductOrdering.inverse(view.rows, snapshot.size());
+                return view;
+            }
+
+            @Override
+            protected void done() {
+                if (generation != current) {
+                    return;
+                }
+                try {
+                    View view = get();
+                    if (key != ProductOrdering.Key.STOCK) {
+                        orders.put(key, view.order);
+                    }
+                    rows = view.rows;
+                    viewRows = view.viewRows;
+                    fireTableDataChanged();
+                } catch (Exception e) {
+                    // Keep showing the previous view
+                }
+                appliedGeneration = current;
+            }
+        }.execute();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows == null ? products.size() : rows.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Product product = products.get(catalogIndex(row));
+        switch (column) {
+            case 0: return product.getId();
+            case 1: return product.getName();
+            case 2: return prices == null ? product.getPrice() : prices.current().price(product);
+            case 3: return product.getQuantity();
+            default: return null;
+        }
+    }
+
+    private PriceTable.Version currentPrices() {
+        return prices == null ? null : prices.current();
+    }
+}
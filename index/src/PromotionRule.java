@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// One promotion or discount definition. PromotionTable compiles a set of rules for evaluation.
+//
+// SKU rules (apply to each cart line of one of their SKUs):
+//   PERCENT_OFF      rate off the line, e.g. a category of SKUs at 10% off
+//   BUY_X_GET_Y      for every buy + get units, get units are free
+//   MULTI_BUY        every bundleQuantity units cost bundlePrice instead
+// Basket rules:
+//   SPEND_THRESHOLD  rate off the basket once it reaches the minimum spend (after SKU promotions)
+//   DISCOUNT_OPTION  a discount the cashier selects at checkout (loyalty card, senior citizen)
+//
+// Stacking: of the exclusive rules that match a line (or the basket) only the one that saves the
+// most applies; stackable rules always apply on top of it. A line never goes below zero.
+public class PromotionRule {
+    public enum Kind { PERCENT_OFF, BUY_X_GET_Y, MULTI_BUY, SPEND_THRESHOLD, DISCOUNT_OPTION }
+
+    private final Kind kind;
+    private final String name;
+    private final Set<String> skus;
+    private final int buy;
+    private final int get;
+    private final long bundlePriceCents;
+    private final long minimumCents;
+    private final double rate;
+    private final boolean stackable;
+
+    private PromotionRule(Kind kind, String name, Collection<String> skus, int buy, int get,
+                          long bundlePriceCents, long minimumCents, double rate, boolean stackable) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Promotion needs a name");
+        }
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException(name + ": rate must be between 0 and 1");
+        }
+        this.kind = kind;
+        this.name = name;
+        this.skus = Collections.unmodifiableSet(new LinkedHashSet<>(skus));
+        this.buy = buy;
+        this.get = get;
+        this.bundlePriceCents = bundlePriceCents;
+        this.minimumCents = minimumCents;
+        this.rate = rate;
+        this.stackable = stackable;
+    }
+
+    public static PromotionRule percentOff(String name, Collection<String> skus, double rate, boolean stackable) {
+        return new PromotionRule(Kind.PERCENT_OFF, name, skus, 0, 0, 0, 0, rate, stackable);
+    }
+
+    public static PromotionRule buyXGetY(String name, Collection<String> skus, int buy, int get, boolean stackable) {
+        if (buy <= 0 || get <= 0) {
+            throw new IllegalArgumentException(name + ": buy and get must be positive");
+        }
+        return new PromotionRule(Kind.BUY_X_GET_Y, name, skus, buy, get, 0, 0, 0, stackable);
+    }
+
+    public static PromotionRule multiBuy(String name, Collection<String> skus, int bundleQuantity,
+                                         double bundlePrice, boolean stackable) {
+        if (bundleQuantity <= 1) {
+            throw new IllegalArgumentException(name + ": a multi-buy needs at least 2 units");
+        }
+        return new PromotionRule(Kind.MULTI_BUY, name, skus, bundleQuantity, 0, Math.round(bundlePrice * 100), 0, 0,
+                stackable);
+    }
+
+    public static PromotionRule spendThreshold(String name, double minimumSpend, double rate, boolean stackable) {
+        return new PromotionRule(Kind.SPEND_THRESHOLD, name, Collections.emptySet(), 0, 0, 0,
+                Math.round(minimumSpend * 100), rate, stackable);
+    }
+
+    public static PromotionRule discountOption(String name, double rate) {
+        return new PromotionRule(Kind.DISCOUNT_OPTION, name, Collections.emptySet(), 0, 0, 0, 0, rate, false);
+    }
+
+    // One rule per line, fields separated by '|':
+    //   percent|<name>|<rate>|<sku,sku,...>[|stack]
+    //   buyget|<name>|<buy>|<get>|<sku,...>[|stack]
+    //   multibuy|<name>|<quantity>|<bundle price>|<sku,...>[|stack]
+    //   spend|<name>|<minimum spend>|<rate>[|stack]
+    //   discount|<name>|<rate>
+    // Rates are fractions (0.10 = 10%).
+    public static PromotionRule parse(String line) {
+        String[] fields = line.trim().split("\\s*\\|\\s*");
+        try {
+            switch (fields[0]) {
+                case "percent":
+                    return percentOff(fields[1], skus(fields[3]), Double.parseDouble(fields[2]), stack(fields, 4));
+                case "buyget":
+                    return buyXGetY(fields[1], skus(fields[4]), Integer.parseInt(fields[2]),
+                            Integer.parseInt(fields[3]), stack(fields, 5));
+                case "multibuy":
+                    return multiBuy(fields[1], skus(fields[4]), Integer.parseInt(fields[2]),
+                            Double.parseDouble(fields[3]), stack(fields, 5));
+                case "spend":
+                    return spendThreshold(fields[1], Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+                            stack(fields, 4));
+                case "discount":
+                    return discountOption(fields[1], Double.parseDouble(fields[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown promotion kind: " + fields[0]);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Bad promotion line: " + line, e);
+        }
+    }
+
+    private static Collection<String> skus(String field) {
+        return Arrays.asList(field.split("\\s*,\\s*"));
+    }
+
+    private static boolean stack(String[] fields, int index) {
+        return fields.length > index && fields[index].equals("stack");
+    }
+
+    public Kind getKind() { return kind; }
+    public String getName() { return name; }
+    public Set<String> getSkus() { return skus; }
+    public double getRate() { return rate; }
+    public boolean isStackable() { return stackable; }
+    public long getMinimumCents() { return minimumCents; }
+
+    public boolean isBasketRule() {
+        return kind == Kind.SPEND_THRESHOLD || kind == Kind.DISCOUNT_OPTION;
+    }
+
+    // Savings on a line of quantity units at unitCents each (SKU rules only)
+    long lineDiscountCents(long unitCents, int quantity) {
+        switch (kind) {
+            case PERCENT_OFF:
+                return Math.round(unitCents * quantity * rate);
+            case BUY_X_GET_Y:
+                return (long) (quantity / (buy + get)) * get * unitCents;
+            case MULTI_BUY:
+                return Math.max(0, (long) (quantity / buy) * (buy * unitCents - bundlePriceCents));
+            default:
+                return 0;
+        }
+    }
+
+    // Savings on a basket worth netCents after SKU promotions (SPEND_THRESHOLD only)
+    long basketDiscountCents(long netCents) {
+        return netCents >= minimumCents ? Math.round(netCents * rate) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return kind + "[" + name + (stackable ? ", stackable" : "") + "]";
+    }
+}
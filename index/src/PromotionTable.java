@@ -0,0 +1,238 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Promotion rules compiled for evaluation.
+// SKU rules are inverted into a table keyed by SKU, each entry holding the exclusive and the
+// stackable rules of that SKU, so a cart line costs one hash lookup plus the few rules of its
+// own SKU, and a cart costs time proportional to its lines, not lines x rules. Category rules
+// are just SKU rules listing every SKU of the category.
+// Discount options are compiled into an exact lookup by name and by the label shown in the
+// checkout combo box ("Senior Citizen (10.0%)"), replacing prefix matching.
+public class PromotionTable {
+    private static final PromotionRule[] NO_RULES = new PromotionRule[0];
+
+    private final HashMap<String, SkuRules> rulesBySku = new HashMap<>();
+    private final PromotionRule[] basketExclusive;
+    private final PromotionRule[] basketStackable;
+    private final List<PromotionRule> rules;
+
+    // Discount options in definition order, and a slot for every name and label
+    private final String[] optionNames;
+    private final double[] optionRates;
+    private final HashMap<String, Integer> optionSlots = new HashMap<>();
+
+    private static class SkuRules {
+        PromotionRule[] exclusive = NO_RULES;
+        PromotionRule[] stackable = NO_RULES;
+    }
+
+    public PromotionTable(Collection<PromotionRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        List<PromotionRule> exclusive = new ArrayList<>();
+        List<PromotionRule> stackable = new ArrayList<>();
+        List<PromotionRule> options = new ArrayList<>();
+        for (PromotionRule rule : rules) {
+            switch (rule.getKind()) {
+                case SPEND_THRESHOLD:
+                    (rule.isStackable() ? stackable : exclusive).add(rule);
+                    break;
+                case DISCOUNT_OPTION:
+                    options.add(rule);
+                    break;
+                default:
+                    for (String sku : rule.getSkus()) {
+                        SkuRules entry = rulesBySku.computeIfAbsent(sku, key -> new SkuRules());
+                        if (rule.isStackable()) {
+                            entry.stackable = append(entry.stackable, rule);
+                        } else {
+                            entry.exclusive = append(entry.exclusive, rule);
+                        }
+                    }
+            }
+        }
+        basketExclusive = exclusive.toArray(NO_RULES);
+        basketStackable = stackable.toArray(NO_RULES);
+
+        optionNames = new String[options.size()];
+        optionRates = new double[options.size()];
+        for (int slot = 0; slot < options.size(); slot++) {
+            optionNames[slot] = options.get(slot).getName();
+            optionRates[slot] = options.get(slot).getRate();
+            optionSlots.put(optionNames[slot], slot);
+            optionSlots.put(label(optionNames[slot], optionRates[slot]), slot);
+        }
+    }
+
+    // Just the discount options of a name -> rate map, as BillingEngine.defaultDiscounts()
+    public static PromotionTable of(Map<String, Double> discounts) {
+        List<PromotionRule> rules = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : discounts.entrySet()) {
+            rules.add(PromotionRule.discountOption(entry.getKey(), entry.getValue()));
+        }
+        return new PromotionTable(rules);
+    }
+
+    // Rules from a file in the PromotionRule.parse format; blank lines and # comments are skipped
+    public static PromotionTable load(File file) throws IOException {
+        List<PromotionRule> rules = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(PromotionRule.parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + " line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return new PromotionTable(rules);
+    }
+
+    public List<PromotionRule> getRules() {
+        return rules;
+    }
+
+    // Label of a discount option as shown at checkout
+    public static String label(String name, double rate) {
+        return name + " (" + (rate * 100) + "%)";
+    }
+
+    public int getDiscountOptionCount() {
+        return optionNames.length;
+    }
+
+    // Discount options as name -> rate, in definition order
+    public Map<String, Double> getDiscounts() {
+        Map<String, Double> discounts = new LinkedHashMap<>();
+        for (int slot = 0; slot < optionNames.length; slot++) {
+            discounts.put(optionNames[slot], optionRates[slot]);
+        }
+        return discounts;
+    }
+
+    // Slot of a discount option given by name or label, or -1 for "None" and unknown options
+    public int discountSlot(String option) {
+        Integer slot = option == null ? null : optionSlots.get(option);
+        return slot == null ? -1 : slot;
+    }
+
+    public double discountRate(String option) {
+        int slot = discountSlot(option);
+        return slot < 0 ? 0.0 : optionRates[slot];
+    }
+
+    double discountRate(int slot) {
+        return optionRates[slot];
+    }
+
+    // Savings on one line; O(rules of this SKU)
+    public long lineDiscountCents(String sku, long unitCents, int quantity) {
+        SkuRules entry = rulesBySku.get(sku);
+        if (entry == null || quantity <= 0) {
+            return 0;
+        }
+        long lineCents = unitCents * quantity;
+        long best = 0;
+        for (PromotionRule rule : entry.exclusive) {
+            best = Math.max(best, rule.lineDiscountCents(unitCents, quantity));
+        }
+        long total = best;
+        for (PromotionRule rule : entry.stackable) {
+            total += rule.lineDiscountCents(unitCents, quantity);
+        }
+        return Math.min(total, lineCents);
+    }
+
+    // Automatic basket savings on a basket worth netCents after SKU promotions; O(basket rules)
+    public long basketDiscountCents(long netCents) {
+        long best = 0;
+        for (PromotionRule rule : basketExclusive) {
+            best = Math.max(best, rule.basketDiscountCents(netCents));
+        }
+        long total = best;
+        for (PromotionRule rule : basketStackable) {
+            total += rule.basketDiscountCents(netCents);
+        }
+        return Math.min(total, netCents);
+    }
+
+    // Savings per promotion for a whole basket, for the receipt. Applies the same choices as
+    // lineDiscountCents and basketDiscountCents; promotions that saved nothing are left out.
+    public List<Receipt.Promotion> evaluate(List<Product> lines) {
+        LinkedHashMap<String, Long> savings = new LinkedHashMap<>();
+        long netCents = 0;
+        for (Product line : lines) {
+            long unitCents = Math.round(line.getPrice() * 100);
+            int quantity = line.getQuantity();
+            long lineCents = unitCents * quantity;
+            netCents += lineCents;
+            SkuRules entry = rulesBySku.get(line.getId());
+            if (entry == null || quantity <= 0) {
+                continue;
+            }
+            PromotionRule best = null;
+            long bestCents = 0;
+            for (PromotionRule rule : entry.exclusive) {
+                long cents = rule.lineDiscountCents(unitCents, quantity);
+                if (cents > bestCents) {
+                    best = rule;
+                    bestCents = cents;
+                }
+            }
+            long remaining = lineCents;
+            remaining -= addSaving(savings, best, Math.min(bestCents, remaining));
+            for (PromotionRule rule : entry.stackable) {
+                remaining -= addSaving(savings, rule, Math.min(rule.lineDiscountCents(unitCents, quantity), remaining));
+            }
+            netCents -= lineCents - remaining;
+        }
+
+        PromotionRule best = null;
+        long bestCents = 0;
+        for (PromotionRule rule : basketExclusive) {
+            long cents = rule.basketDiscountCents(netCents);
+            if (cents > bestCents) {
+                best = rule;
+                bestCents = cents;
+            }
+        }
+        long remaining = netCents;
+        remaining -= addSaving(savings, best, Math.min(bestCents, remaining));
+        for (PromotionRule rule : basketStackable) {
+            remaining -= addSaving(savings, rule, Math.min(rule.basketDiscountCents(netCents), remaining));
+        }
+
+        List<Receipt.Promotion> promotions = new ArrayList<>(savings.size());
+        for (Map.Entry<String, Long> entry : savings.entrySet()) {
+            promotions.add(new Receipt.Promotion(entry.getKey(), entry.getValue() / 100.0));
+        }
+        return promotions;
+    }
+
+    private static long addSaving(Map<String, Long> savings, PromotionRule rule, long cents) {
+        if (rule != null && cents > 0) {
+            savings.merge(rule.getName(), cents, Long::sum);
+            return cents;
+        }
+        return 0;
+    }
+
+    private static PromotionRule[] append(PromotionRule[] rules, PromotionRule rule) {
+        PromotionRule[] grown = Arrays.copyOf(rules, rules.length + 1);
+        grown[rules.length] = rule;
+        return grown;
+    }
+}
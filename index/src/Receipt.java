@@ -0,0 +1,95 @@
+import java.util.Collections;
+import java.util.List;
+
+// A completed sale: the sold lines, the promotions they earned and the discount applied.
+// The printable text is rendered on demand by BillingEngine.generateReceipt.
+public class Receipt {
+    private final int number;
+    private final long timestamp;
+    private final List<Product> items;
+    private final String discountName;
+    private final double discountRate;
+    private final List<Promotion> promotions;
+
+    // Savings of one promotion over the whole receipt
+    public static class Promotion {
+        private final String name;
+        private final double amount;
+
+        public Promotion(String name, double amount) {
+            this.name = name;
+            this.amount = amount;
+        }
+
+        public String getName() { return name; }
+        public double getAmount() { return amount; }
+    }
+
+    public Receipt(int number, long timestamp, List<Product> items,
+                   String discountName, double discountRate) {
+        this(number, timestamp, items, Collections.emptyList(), discountName, discountRate);
+    }
+
+    public Receipt(int number, long timestamp, List<Product> items, List<Promotion> promotions,
+                   String discountName, double discountRate) {
+        this.number = number;
+        this.timestamp = timestamp;
+        this.items = items;
+        this.promotions = promotions;
+        this.discountName = discountName;
+        this.discountRate = discountRate;
+    }
+
+    public int getNumber() { return number; }
+    public long getTimestamp() { return timestamp; }
+    public List<Product> getItems() { return items; }
+    public String getDiscountName() { return discountName; }
+    public double getDiscountRate() { return discountRate; }
+    public List<Promotion> getPromotions() { return promotions; }
+
+    // Total without discount
+    public double getSubtotal() {
+        double total = 0;
+        for (Product item : items) {
+            total += item.getPrice() * item.getQuantity();
+        }
+        return total;
+    }
+
+    // Savings of all promotions; the discount applies to the subtotal less this
+    public double getPromotionTotal() {
+        double total = 0;
+        for (Promotion promotion : promotions) {
+            total += promotion.getAmount();
+        }
+        return total;
+    }
+
+    // The totals in cents, rounded the way Cart rounds them, so the receipt prints the same
+    // amounts the checkout screen showed
+    public long getSubtotalCents() {
+        long total = 0;
+        for (Product item : items) {
+            total += Math.round(item.getPrice() * 100) * item.getQuantity();
+        }
+        return total;
+    }
+
+    public long getPromotionCents() {
+        long total = 0;
+        for (Promotion promotion : promotions) {
+            total += Math.round(promotion.getAmount() * 100);
+        }
+        return total;
+    }
+
+    // Discount on the subtotal less promotions
+    public long getDiscountCents() {
+        return Math.round((getSubtotalCents() - getPromotionCents()) * discountRate);
+    }
+
+    public long getTotalCents() {
+        long net = getSubtotalCents() - getPromotionCents();
+        return net - Math.round(net * discountRate);
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Read-only, compressed file of receipts, one per closed day (see ReceiptArchiver).
+// Receipts are sorted by number and cut into blocks of BLOCK_RECEIPTS; each block is encoded
+// with ReceiptCodec and compressed on its own with Deflater. A block index at the end of the
+// file gives the number and time range of every block, so reading one receipt costs a binary
+// search of the index and inflating one block, never the whole file.
+//
+// File: [magic][block]...[index entry]...[trailer]
+//   index entry: first number, last number, first time, last time, offset, compressed length,
+//                uncompressed length, receipt count, crc32 of the uncompressed block (48 bytes)
+//   trailer:     index offset, block count, crc32 of the index, magic (20 bytes)
+public class ReceiptArchive implements AutoCloseable {
+    public static final int BLOCK_RECEIPTS = 256;
+
+    private static final int MAGIC = 0x52434131; // "RCA1"
+    private static final int INDEX_ENTRY = 48;
+    private static final int TRAILER = 20;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer index;
+    private final int blockCount;
+
+    public ReceiptArchive(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < 4 + TRAILER) {
+                throw new IOException(file + " is not a receipt archive");
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            readFully(trailer, size - TRAILER);
+            long indexOffset = trailer.getLong(0);
+            blockCount = trailer.getInt(8);
+            if (trailer.getInt(16) != MAGIC || blockCount < 0
+                    || indexOffset + (long) blockCount * INDEX_ENTRY != size - TRAILER) {
+                throw new IOException(file + " is not a receipt archive or is truncated");
+            }
+            index = ByteBuffer.allocate(blockCount * INDEX_ENTRY);
+            readFully(index, indexOffset);
+            if ((int) crc(index.array(), 0, index.capacity()) != trailer.getInt(12)) {
+                throw new IOException("Corrupt block index in " + file);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Write receipts to file, sorted by number. The archive is written next to file and renamed
+    // into place once it is on disk, so file is either complete or absent.
+    public static void write(File file, List<Receipt> receipts) throws IOException {
+        List<Receipt> sorted = new ArrayList<>(receipts);
+        sorted.sort(Comparator.comparingInt(Receipt::getNumber));
+
+        File temporary = new File(file.getPath() + ".tmp");
+        int blocks = (sorted.size() + BLOCK_RECEIPTS - 1) / BLOCK_RECEIPTS;
+        ByteBuffer index = ByteBuffer.allocate(blocks * INDEX_ENTRY);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = writeFully(out, ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+            byte[] compressed = new byte[64 << 10];
+            for (int from = 0; from < sorted.size(); from += BLOCK_RECEIPTS) {
+                List<Receipt> block = sorted.subList(from, Math.min(from + BLOCK_RECEIPTS, sorted.size()));
+                byte[] encoded = ReceiptCodec.encodeBlock(block);
+
+                deflater.reset();
+                deflater.setInput(encoded);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+
+                long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+                for (Receipt receipt : block) {
+                    minTime = Math.min(minTime, receipt.getTimestamp());
+                    maxTime = Math.max(maxTime, receipt.getTimestamp());
+                }
+                index.putInt(block.get(0).getNumber()).putInt(block.get(block.size() - 1).getNumber())
+                        .putLong(minTime).putLong(maxTime).putLong(offset)
+                        .putInt(length).putInt(encoded.length).putInt(block.size())
+                        .putInt((int) crc(encoded, 0, encoded.length));
+                offset = writeFully(out, ByteBuffer.wrap(compressed, 0, length), offset);
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            trailer.putLong(offset).putInt(blocks).putInt((int) crc(index.array(), 0, index.capacity())).putInt(MAGIC);
+            index.flip();
+            trailer.flip();
+            offset = writeFully(out, index, offset);
+            writeFully(out, trailer, offset);
+            out.force(true);
+        } finally {
+            deflater.end();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getReceiptCount() {
+        long count = 0;
+        for (int block = 0; block < blockCount; block++) {
+            count += index.getInt(block * INDEX_ENTRY + 40);
+        }
+        return count;
+    }
+
+    // Lowest and highest receipt number in the archive; meaningless if it is empty
+    public int getFirstNumber() {
+        return blockCount == 0 ? 0 : firstNumber(0);
+    }
+
+    public int getLastNumber() {
+        return blockCount == 0 ? -1 : index.getInt((blockCount - 1) * INDEX_ENTRY + 4);
+    }
+
+    // One receipt by number, or null if it is not in the archive; inflates a single block
+    public Receipt read(int number) throws IOException {
+        int low = 0, high = blockCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (firstNumber(mid) > number) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        // high is the last block starting at or before number
+        if (high < 0 || index.getInt(high * INDEX_ENTRY + 4) < number) {
+            return null;
+        }
+        for (Receipt receipt : readBlock(high)) {
+            if (receipt.getNumber() == number) {
+                return receipt;
+            }
+        }
+        return null;
+    }
+
+    // Every receipt, in number order
+    public List<Receipt> readAll() throws IOException {
+        List<Receipt> receipts = new ArrayList<>();
+        for (int block = 0; block < blockCount; block++) {
+            receipts.addAll(readBlock(block));
+        }
+        return receipts;
+    }
+
+    // Receipts with fromMillis <= timestamp < toMillis, in number order; blocks outside the range are skipped
+    public List<Receipt> readTimeRange(long fromMillis, long toMillis) throws IOException {
+        List<Receipt> receipts = new ArrayList<>();
+        for (int block = 0; block < blockCount; block++) {
+            int entry = block * INDEX_ENTRY;
+            if (index.getLong(entry + 16) < fromMillis || index.getLong(entry + 8) >= toMillis) {
+                continue;
+            }
+            for (Receipt receipt : readBlock(block)) {
+                if (receipt.getTimestamp() >= fromMillis && receipt.getTimestamp() < toMillis) {
+                    receipts.add(receipt);
+                }
+            }
+        }
+        return receipts;
+    }
+
+    // Safe from several threads: every read is positioned and inflates into its own buffers
+    private List<Receipt> readBlock(int block) throws IOException {
+        int entry = block * INDEX_ENTRY;
+        long offset = index.getLong(entry + 24);
+        int compressedLength = index.getInt(entry + 32);
+        int length = index.getInt(entry + 36);
+        ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+        readFully(compressed, offset);
+
+        byte[] encoded = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int count = inflater.inflate(encoded, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length || (int) crc(encoded, 0, length) != index.getInt(entry + 44)) {
+                throw new IOException("Corrupt block " + block + " in " + file);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+        return ReceiptCodec.decodeBlock(encoded);
+    }
+
+    private int firstNumber(int block) {
+        return index.getInt(block * INDEX_ENTRY);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+            position += read;
+        }
+    }
+
+    private static long writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static long crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+}
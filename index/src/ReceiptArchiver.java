@@ -0,0 +1,108 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+// Rolls closed days out of the receipt journal into one ReceiptArchive per day,
+// receipts_yyyy-MM-dd.rca, and prints archived receipts in the current receipt layout.
+// A receipt of about 1 KB of text takes a few dozen bytes in an archive.
+//
+// Usage:
+//   ReceiptArchiver <journal dir> <archive dir> [--prune]
+//       archive every day before today that is not archived yet; --prune then deletes the
+//       journal segments that hold only archived days (run it after the Z-report)
+//   ReceiptArchiver --print <archive dir> <number>
+public class ReceiptArchiver {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("--print")) {
+            Receipt receipt = find(new File(args[1]), Integer.parseInt(args[2]));
+            if (receipt == null) {
+                System.err.println("Receipt #" + args[2] + " is not in " + args[1]);
+                System.exit(1);
+            }
+            System.out.print(BillingEngine.generateReceipt(receipt));
+            return;
+        }
+        if (args.length < 2) {
+            System.err.println("Usage: ReceiptArchiver <journal dir> <archive dir> [--prune]\n"
+                    + "       ReceiptArchiver --print <archive dir> <number>");
+            System.exit(2);
+        }
+
+        ZoneId zone = ZoneId.systemDefault();
+        try (ReceiptJournal journal = ReceiptJournal.openReadOnly(new File(args[0]))) {
+            File archiveDirectory = new File(args[1]);
+            long start = System.nanoTime();
+            List<File> written = archiveClosedDays(journal, archiveDirectory, zone, System.currentTimeMillis());
+            for (File file : written) {
+                try (ReceiptArchive archive = new ReceiptArchive(file)) {
+                    System.out.printf("%s: %,d receipts, %,d bytes%n", file.getName(), archive.getReceiptCount(),
+                            file.length());
+                }
+            }
+            System.out.println("Archived " + written.size() + " day(s) in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            if (args.length > 2 && args[2].equals("--prune")) {
+                long today = LocalDate.now(zone).atStartOfDay(zone).toInstant().toEpochMilli();
+                System.out.println("Deleted " + journal.deleteSegmentsBefore(today) + " journal segment(s)");
+            }
+        }
+    }
+
+    public static File archiveFile(File archiveDirectory, LocalDate day) {
+        return new File(archiveDirectory, "receipts_" + day + ".rca");
+    }
+
+    // Archive every day before the day of nowMillis that has receipts in the journal and no
+    // archive yet. Returns the archives written.
+    public static List<File> archiveClosedDays(ReceiptJournal journal, File archiveDirectory, ZoneId zone,
+                                               long nowMillis) throws IOException {
+        if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs()) {
+            throw new IOException("Cannot create archive directory " + archiveDirectory);
+        }
+        List<File> written = new ArrayList<>();
+        long oldest = journal.getOldestTimestamp();
+        if (oldest == Long.MAX_VALUE) {
+            return written;
+        }
+        LocalDate today = Instant.ofEpochMilli(nowMillis).atZone(zone).toLocalDate();
+        for (LocalDate day = Instant.ofEpochMilli(oldest).atZone(zone).toLocalDate(); day.isBefore(today);
+             day = day.plusDays(1)) {
+            File file = archiveFile(archiveDirectory, day);
+            if (file.exists()) {
+                continue;
+            }
+            long from = day.atStartOfDay(zone).toInstant().toEpochMilli();
+            long to = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            List<Receipt> receipts = journal.readTimeRange(from, to);
+            if (!receipts.isEmpty()) {
+                ReceiptArchive.write(file, receipts);
+                written.add(file);
+            }
+        }
+        return written;
+    }
+
+    // A receipt from any archive of the directory, or null. Only archives whose number range
+    // covers it are searched, and within those only one block is inflated.
+    public static Receipt find(File archiveDirectory, int number) throws IOException {
+        File[] files = archiveDirectory.listFiles((dir, name) -> name.startsWith("receipts_") && name.endsWith(".rca"));
+        if (files == null) {
+            throw new IOException("Cannot list " + archiveDirectory);
+        }
+        for (File file : files) {
+            try (ReceiptArchive archive = new ReceiptArchive(file)) {
+                if (number >= archive.getFirstNumber() && number <= archive.getLastNumber()) {
+                    Receipt receipt = archive.read(number);
+                    if (receipt != null) {
+                        return receipt;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
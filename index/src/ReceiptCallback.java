@@ -0,0 +1,8 @@
+import java.io.IOException;
+
+// Completion of a queued receipt write; called on the receipt writer thread
+public interface ReceiptCallback {
+    void receiptSaved(Receipt receipt, String location);
+
+    void receiptFailed(Receipt receipt, IOException error);
+}
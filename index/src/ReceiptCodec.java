@@ -0,0 +1,276 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Compact binary form of receipts, used by ReceiptArchive.
+// Receipts are encoded in blocks. A block starts with its own tables, so it decodes on its own:
+//   SKU table       varint count, then per SKU its id and name
+//   text table      varint count, then the discount and promotion names
+//   discount table  varint count, then per discount option a text index and the rate (8-byte double)
+// then the receipts:
+//   number      zigzag varint, difference from the previous receipt of the block (the first from 0)
+//   timestamp   zigzag varint, difference from the previous receipt (the first from 0)
+//   discount    varint index into the discount table
+//   lines       varint count, then per line a SKU index, the quantity (zigzag) and the price
+//   promotions  varint count, then per promotion a text index and the amount
+// Strings are a varint byte length followed by UTF-8. An amount is the zigzag varint of
+// cents * 2 when the double is exactly cents / 100, as any price typed with two decimals is,
+// and otherwise 1 followed by the 8-byte double, so decoding gives back exactly what was encoded.
+public final class ReceiptCodec {
+    private ReceiptCodec() {
+    }
+
+    public static byte[] encodeBlock(List<Receipt> receipts) {
+        HashMap<String, Integer> skuIndexes = new HashMap<>();
+        List<Product> skus = new ArrayList<>();
+        HashMap<String, Integer> textIndexes = new HashMap<>();
+        List<String> texts = new ArrayList<>();
+        HashMap<String, Integer> discountIndexes = new HashMap<>();
+        List<String> discountNames = new ArrayList<>();
+        List<Double> discountRates = new ArrayList<>();
+
+        Output body = new Output(64 * receipts.size());
+        int previousNumber = 0;
+        long previousTimestamp = 0;
+        for (Receipt receipt : receipts) {
+            body.writeVarint(zigzag(receipt.getNumber() - (long) previousNumber));
+            body.writeVarint(zigzag(receipt.getTimestamp() - previousTimestamp));
+            previousNumber = receipt.getNumber();
+            previousTimestamp = receipt.getTimestamp();
+
+            String discountKey = receipt.getDiscountName() + '\0' + Double.doubleToRawLongBits(receipt.getDiscountRate());
+            Integer discount = discountIndexes.get(discountKey);
+            if (discount == null) {
+                discount = discountNames.size();
+                discountIndexes.put(discountKey, discount);
+                discountNames.add(receipt.getDiscountName());
+                discountRates.add(receipt.getDiscountRate());
+                intern(textIndexes, texts, receipt.getDiscountName());
+            }
+            body.writeVarint(discount);
+
+            body.writeVarint(receipt.getItems().size());
+            for (Product item : receipt.getItems()) {
+                String skuKey = item.getId() + '\0' + item.getName();
+                Integer sku = skuIndexes.get(skuKey);
+                if (sku == null) {
+                    sku = skus.size();
+                    skuIndexes.put(skuKey, sku);
+                    skus.add(item);
+                }
+                body.writeVarint(sku);
+                body.writeVarint(zigzag(item.getQuantity()));
+                body.writeAmount(item.getPrice());
+            }
+
+            body.writeVarint(receipt.getPromotions().size());
+            for (Receipt.Promotion promotion : receipt.getPromotions()) {
+                body.writeVarint(intern(textIndexes, texts, promotion.getName()));
+                body.writeAmount(promotion.getAmount());
+            }
+        }
+
+        Output block = new Output(body.size() + 32 * skus.size() + 64);
+        block.writeVarint(skus.size());
+        for (Product sku : skus) {
+            block.writeString(sku.getId());
+            block.writeString(sku.getName());
+        }
+        block.writeVarint(texts.size());
+        for (String text : texts) {
+            block.writeString(text);
+        }
+        block.writeVarint(discountNames.size());
+        for (int i = 0; i < discountNames.size(); i++) {
+            block.writeVarint(textIndexes.get(discountNames.get(i)));
+            block.writeLong(Double.doubleToRawLongBits(discountRates.get(i)));
+        }
+        block.writeVarint(receipts.size());
+        block.write(body.buffer(), 0, body.size());
+        return block.toByteArray();
+    }
+
+    public static List<Receipt> decodeBlock(byte[] block) throws IOException {
+        return decodeBlock(block, block.length);
+    }
+
+    public static List<Receipt> decodeBlock(byte[] block, int length) throws IOException {
+        Input in = new Input(block, length);
+        String[] skuIds = new String[in.readCount()];
+        String[] skuNames = new String[skuIds.length];
+        for (int i = 0; i < skuIds.length; i++) {
+            skuIds[i] = in.readString();
+            skuNames[i] = in.readString();
+        }
+        String[] texts = new String[in.readCount()];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = in.readString();
+        }
+        String[] discountNames = new String[in.readCount()];
+        double[] discountRates = new double[discountNames.length];
+        for (int i = 0; i < discountNames.length; i++) {
+            discountNames[i] = texts[in.readIndex(texts.length)];
+            discountRates[i] = Double.longBitsToDouble(in.readLong());
+        }
+
+        int receiptCount = in.readCount();
+        List<Receipt> receipts = new ArrayList<>(receiptCount);
+        long number = 0;
+        long timestamp = 0;
+        for (int r = 0; r < receiptCount; r++) {
+            number += unzigzag(in.readVarint());
+            timestamp += unzigzag(in.readVarint());
+            int discount = in.readIndex(discountNames.length);
+
+            int lineCount = in.readCount();
+            List<Product> items = new ArrayList<>(lineCount);
+            for (int i = 0; i < lineCount; i++) {
+                int sku = in.readIndex(skuIds.length);
+                int quantity = (int) unzigzag(in.readVarint());
+                items.add(new Product(skuIds[sku], skuNames[sku], in.readAmount(), quantity));
+            }
+
+            int promotionCount = in.readCount();
+            List<Receipt.Promotion> promotions = new ArrayList<>(promotionCount);
+            for (int p = 0; p < promotionCount; p++) {
+                promotions.add(new Receipt.Promotion(texts[in.readIndex(texts.length)], in.readAmount()));
+            }
+            receipts.add(new Receipt((int) number, timestamp, items, promotions,
+                    discountNames[discount], discountRates[discount]));
+        }
+        if (in.position != length) {
+            throw new IOException("Receipt block has " + (length - in.position) + " bytes left over");
+        }
+        return receipts;
+    }
+
+    private static int intern(HashMap<String, Integer> indexes, List<String> texts, String text) {
+        Integer index = indexes.get(text);
+        if (index == null) {
+            index = texts.size();
+            indexes.put(text, index);
+            texts.add(text);
+        }
+        return index;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+        Output(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        void writeString(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeAmount(double amount) {
+            long cents = Math.round(amount * 100);
+            if (cents / 100.0 == amount && Math.abs(cents) < (1L << 60)) {
+                writeVarint(zigzag(cents) << 1);
+            } else {
+                writeVarint(1);
+                writeLong(Double.doubleToRawLongBits(amount));
+            }
+        }
+    }
+
+    private static class Input {
+        final byte[] data;
+        final int limit;
+        int position;
+
+        Input(byte[] data, int limit) {
+            this.data = data;
+            this.limit = limit;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Receipt block ends inside a number");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in receipt block");
+        }
+
+        // A count that must fit what is left of the block, so corrupt input cannot allocate wildly
+        int readCount() throws IOException {
+            long count = readVarint();
+            if (count > limit - position) {
+                throw new IOException("Bad count " + count + " in receipt block");
+            }
+            return (int) count;
+        }
+
+        int readIndex(int tableSize) throws IOException {
+            long index = readVarint();
+            if (index >= tableSize) {
+                throw new IOException("Bad table index " + index + " in receipt block");
+            }
+            return (int) index;
+        }
+
+        long readLong() throws IOException {
+            if (position + 8 > limit) {
+                throw new IOException("Receipt block ends inside a number");
+            }
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        String readString() throws IOException {
+            int length = readCount();
+            String text = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return text;
+        }
+
+        double readAmount() throws IOException {
+            long value = readVarint();
+            if (value == 1) {
+                return Double.longBitsToDouble(readLong());
+            }
+            return unzigzag(value >>> 1) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
+
+// Command line tool that exports receipts from the journal as plain-text receipt_N.txt files
+// in the layout produced by BillingEngine.generateReceipt.
+//
+// Usage:
+//   ReceiptExport <journal dir> <output dir> <number>
+//   ReceiptExport <journal dir> <output dir> <from number> <to number>
+//   ReceiptExport <journal dir> <output dir> --date yyyy-MM-dd
+// A date is a local calendar day, from its first instant to the first of the next, so the
+// 23 and 25 hour days of a daylight saving change are exported whole.
+public class ReceiptExport {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || (args[2].equals("--date") && args.length < 4)) {
+            usage();
+        }
+        // Arguments are checked before anything is created
+        long fromMillis = 0, toMillis = 0;
+        int fromNumber = 0, toNumber = 0;
+        try {
+            if (args[2].equals("--date")) {
+                ZoneId zone = ZoneId.systemDefault();
+                LocalDate day = LocalDate.parse(args[3]);
+                fromMillis = day.atStartOfDay(zone).toInstant().toEpochMilli();
+                toMillis = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            } else {
+                fromNumber = Integer.parseInt(args[2]);
+                toNumber = args.length > 3 ? Integer.parseInt(args[3]) : fromNumber;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            System.err.println("Invalid argument: " + e.getMessage());
+            usage();
+        }
+
+        File outputDirectory = new File(args[1]);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("Cannot create " + outputDirectory);
+            System.exit(1);
+        }
+
+        try (ReceiptJournal journal = ReceiptJournal.openReadOnly(new File(args[0]))) {
+            List<Receipt> receipts;
+            if (args[2].equals("--date")) {
+                receipts = journal.readTimeRange(fromMillis, toMillis);
+            } else if (args.length > 3) {
+                receipts = journal.readNumbers(fromNumber, toNumber);
+            } else {
+                Receipt receipt = journal.read(fromNumber);
+                receipts = receipt == null ? Collections.emptyList() : Collections.singletonList(receipt);
+            }
+
+            new FileReceiptSink(outputDirectory).write(receipts);
+            System.out.println("Exported " + receipts.size() + " receipt(s) to " + outputDirectory.getAbsolutePath());
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ReceiptExport <journal dir> <output dir> "
+                + "(<number> | <from> <to> | --date yyyy-MM-dd)");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,667 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// Append-only receipt store that replaces one file per receipt.
+// Receipts are appended to journal_NNNNNN.seg files that are rotated at a fixed size.
+// Each segment has a journal_NNNNNN.idx sidecar of fixed-size entries
+// [receipt number][timestamp][offset], so a receipt is found by number or time in the
+// index and then read from the segment with a single positioned read.
+//
+// Segment record: [payload length][crc32 of payload][payload]
+// Payload: number, timestamp, discount name, discount rate, item count, then per item
+// id, name, price and quantity, then optionally promotion count and per promotion name and
+// amount (DataOutput encoding; records written before promotions existed end after the items)
+//
+// One process writes a journal directory: the writer holds a lock on journal.lock and a second
+// writer fails at once. Tools that only read (export, reports, archiving) open it with
+// openReadOnly, which needs no lock and never truncates or rewrites a file, so they can run
+// next to the lane that is appending to it.
+public class ReceiptJournal implements ReceiptSink, AutoCloseable {
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    private static final int RECORD_HEADER = 8;
+    private static final int INDEX_ENTRY = 20;
+    private static final Pattern SEGMENT_FILE = Pattern.compile("journal_(\\d{6})\\.seg");
+    private static final String LOCK_FILE = "journal.lock";
+
+    private final File directory;
+    private final long segmentSize;
+    private final boolean memoryMapped;
+    private final boolean readOnly;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private Segment active;
+    // Held by the writer for as long as the journal is open; null when read-only
+    private FileChannel lockChannel;
+
+    public ReceiptJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, true);
+    }
+
+    // memoryMapped maps sealed segments and their indexes instead of reading them through the channel
+    public ReceiptJournal(File directory, long segmentSize, boolean memoryMapped) throws IOException {
+        this(directory, segmentSize, memoryMapped, false);
+    }
+
+    // Open a journal that another process may be writing. Nothing is locked or written; the
+    // newest segment is read up to its last complete record when opened, and receipts appended
+    // after that are not seen. write() fails; deleteSegmentsBefore only removes sealed segments.
+    public static ReceiptJournal openReadOnly(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new FileNotFoundException("No receipt journal in " + directory);
+        }
+        return new ReceiptJournal(directory, DEFAULT_SEGMENT_SIZE, true, true);
+    }
+
+    private ReceiptJournal(File directory, long segmentSize, boolean memoryMapped, boolean readOnly)
+            throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.memoryMapped = memoryMapped;
+        this.readOnly = readOnly;
+
+        if (!readOnly) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create journal directory " + directory);
+            }
+            lock();
+        }
+        try {
+            openSegments();
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            unlock();
+            throw e;
+        }
+    }
+
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            lockChannel = null;
+            throw new IOException("Receipt journal " + directory + " is already open for writing");
+        }
+    }
+
+    private void unlock() throws IOException {
+        if (lockChannel != null) {
+            // Closing the channel releases the lock
+            lockChannel.close();
+            lockChannel = null;
+        }
+    }
+
+    private void openSegments() throws IOException {
+        TreeMap<Integer, File> existing = new TreeMap<>();
+        String[] names = directory.list();
+        for (String name : names == null ? new String[0] : names) {
+            Matcher matcher = SEGMENT_FILE.matcher(name);
+            if (matcher.matches()) {
+                existing.put(Integer.parseInt(matcher.group(1)), new File(directory, name));
+            }
+        }
+
+        for (Map.Entry<Integer, File> entry : existing.entrySet()) {
+            if (!entry.getKey().equals(existing.lastKey())) {
+                segments.add(Segment.openSealed(directory, entry.getKey(), memoryMapped));
+            } else if (readOnly) {
+                active = Segment.openTail(directory, entry.getKey());
+                segments.add(active);
+            } else {
+                active = Segment.openActive(directory, entry.getKey());
+                segments.add(active);
+            }
+        }
+        if (active == null) {
+            active = readOnly ? new Segment(1) : Segment.openActive(directory, 1);
+            segments.add(active);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // Append a batch with one gathering write and one fsync
+    @Override
+    public synchronized void write(List<Receipt> batch) throws IOException {
+        if (readOnly) {
+            throw new IOException("Receipt journal " + directory + " is open read-only");
+        }
+        ByteBuffer[] records = new ByteBuffer[batch.size()];
+        long batchBytes = 0;
+        for (int i = 0; i < records.length; i++) {
+            records[i] = encodeRecord(batch.get(i));
+            batchBytes += records[i].remaining();
+        }
+
+        if (active.size > 0 && active.size + batchBytes > segmentSize) {
+            rotate();
+        }
+
+        long offset = active.size;
+        long[] offsets = new long[records.length];
+        for (int i = 0; i < records.length; i++) {
+            offsets[i] = offset;
+            offset += records[i].remaining();
+        }
+
+        long position = active.size;
+        while (position < offset) {
+            active.data.position(position);
+            position += active.data.write(records);
+        }
+        active.data.force(false);
+        active.size = offset;
+
+        // The index is rebuilt from the segment on recovery, so it does not need its own fsync
+        for (int i = 0; i < records.length; i++) {
+            Receipt receipt = batch.get(i);
+            active.appendIndex(receipt.getNumber(), receipt.getTimestamp(), offsets[i]);
+        }
+        active.writeIndex();
+    }
+
+    private void rotate() throws IOException {
+        active.seal();
+        Segment sealed = Segment.openSealed(directory, active.id, memoryMapped);
+        segments.set(segments.size() - 1, sealed);
+        active = Segment.openActive(directory, sealed.id + 1);
+        segments.add(active);
+    }
+
+    @Override
+    public synchronized String locationOf(Receipt receipt) {
+        Segment segment = segmentOf(receipt.getNumber());
+        return new File(directory, segmentName(segment != null ? segment.id : active.id)).getAbsolutePath()
+                + " (receipt #" + receipt.getNumber() + ")";
+    }
+
+    // Read one receipt by number, or null if it is not in the journal
+    public synchronized Receipt read(int number) throws IOException {
+        Segment segment = segmentOf(number);
+        return segment == null ? null : segment.readRecord(segment.offsetAt(segment.findNumber(number)));
+    }
+
+    private Segment segmentOf(int number) {
+        // Newest segments first: recent receipts are the ones looked up most
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment segment = segments.get(s);
+            if (segment.count > 0 && number >= segment.minNumber && number <= segment.maxNumber
+                    && segment.findNumber(number) >= 0) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    // Receipts with fromNumber <= number <= toNumber, in journal order
+    public synchronized List<Receipt> readNumbers(int fromNumber, int toNumber) throws IOException {
+        List<Receipt> receipts = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.count == 0 || toNumber < segment.minNumber || fromNumber > segment.maxNumber) {
+                continue;
+            }
+            // A sorted index is searched for the first entry and read up to the last; an unsorted
+            // one is scanned whole
+            boolean sorted = segment.sortedByNumber;
+            for (int entry = sorted ? segment.firstNumberAtLeast(fromNumber) : 0; entry < segment.count; entry++) {
+                int number = segment.numberAt(entry);
+                if (number > toNumber && sorted) {
+                    break;
+                }
+                if (number >= fromNumber && number <= toNumber) {
+                    receipts.add(segment.readRecord(segment.offsetAt(entry)));
+                }
+            }
+        }
+        return receipts;
+    }
+
+    // Receipts with fromMillis <= timestamp < toMillis, in journal order
+    public synchronized List<Receipt> readTimeRange(long fromMillis, long toMillis) throws IOException {
+        List<Receipt> receipts = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.count == 0 || toMillis <= segment.minTime || fromMillis > segment.maxTime) {
+                continue;
+            }
+            boolean sorted = segment.sortedByTime;
+            for (int entry = sorted ? segment.firstTimeAtLeast(fromMillis) : 0; entry < segment.count; entry++) {
+                long timestamp = segment.timeAt(entry);
+                if (timestamp >= toMillis && sorted) {
+                    break;
+                }
+                if (timestamp >= fromMillis && timestamp < toMillis) {
+                    receipts.add(segment.readRecord(segment.offsetAt(entry)));
+                }
+            }
+        }
+        return receipts;
+    }
+
+    // Receipt count of each segment, oldest first; the receipts are read with readEntries
+    public synchronized int[] getSegmentSizes() {
+        int[] sizes = new int[segments.size()];
+        for (int s = 0; s < sizes.length; s++) {
+            sizes[s] = segments.get(s).count;
+        }
+        return sizes;
+    }
+
+    // Receipts at index entries fromEntry (inclusive) to toEntry (exclusive) of a segment with
+    // fromMillis <= timestamp; older entries are not decoded. Sealed segments never change, so
+    // they are read outside the journal lock and several threads can decode them at once.
+    public List<Receipt> readEntries(int segment, int fromEntry, int toEntry, long fromMillis) throws IOException {
+        Segment source;
+        synchronized (this) {
+            source = segments.get(segment);
+            if (source == active) {
+                return source.readEntries(fromEntry, Math.min(toEntry, source.count), fromMillis);
+            }
+        }
+        return source.readEntries(fromEntry, toEntry, fromMillis);
+    }
+
+    // Earliest receipt timestamp in the journal, or Long.MAX_VALUE if it is empty
+    public synchronized long getOldestTimestamp() {
+        long oldest = Long.MAX_VALUE;
+        for (Segment segment : segments) {
+            if (segment.count > 0) {
+                oldest = Math.min(oldest, segment.minTime);
+            }
+        }
+        return oldest;
+    }
+
+    // Delete the sealed segments whose receipts are all older than beforeMillis, once they have
+    // been archived elsewhere (ReceiptArchiver). The active segment always stays. Returns the
+    // number of segments deleted.
+    public synchronized int deleteSegmentsBefore(long beforeMillis) throws IOException {
+        int deleted = 0;
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment segment = segments.get(s);
+            if (segment != active && segment.maxTime < beforeMillis) {
+                segment.close();
+                segments.remove(s);
+                Files.deleteIfExists(new File(directory, indexName(segment.id)).toPath());
+                Files.deleteIfExists(new File(directory, segmentName(segment.id)).toPath());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    // Highest receipt number in the journal, or -1 if it is empty
+    public synchronized long getHighestNumber() {
+        long highest = -1;
+        for (Segment segment : segments) {
+            if (segment.count > 0) {
+                highest = Math.max(highest, segment.maxNumber);
+            }
+        }
+        return highest;
+    }
+
+    public synchronized long getReceiptCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            active.seal();
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    static String segmentName(int id) {
+        return String.format("journal_%06d.seg", id);
+    }
+
+    static String indexName(int id) {
+        return String.format("journal_%06d.idx", id);
+    }
+
+    private static ByteBuffer encodeRecord(Receipt receipt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 48 * receipt.getItems().size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0); // room for the record header
+        out.writeInt(receipt.getNumber());
+        out.writeLong(receipt.getTimestamp());
+        out.writeUTF(receipt.getDiscountName());
+        out.writeDouble(receipt.getDiscountRate());
+        out.writeInt(receipt.getItems().size());
+        for (Product item : receipt.getItems()) {
+            out.writeUTF(item.getId());
+            out.writeUTF(item.getName());
+            out.writeDouble(item.getPrice());
+            out.writeInt(item.getQuantity());
+        }
+        if (!receipt.getPromotions().isEmpty()) {
+            out.writeInt(receipt.getPromotions().size());
+            for (Receipt.Promotion promotion : receipt.getPromotions()) {
+                out.writeUTF(promotion.getName());
+                out.writeDouble(promotion.getAmount());
+            }
+        }
+        out.flush();
+
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int payloadLength = record.remaining() - RECORD_HEADER;
+        record.putInt(0, payloadLength);
+        record.putInt(4, (int) crc(record.array(), RECORD_HEADER, payloadLength));
+        return record;
+    }
+
+    private static Receipt decodePayload(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int number = in.readInt();
+        long timestamp = in.readLong();
+        String discountName = in.readUTF();
+        double discountRate = in.readDouble();
+        int itemCount = in.readInt();
+        List<Product> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            items.add(new Product(in.readUTF(), in.readUTF(), in.readDouble(), in.readInt()));
+        }
+        if (in.available() == 0) {
+            return new Receipt(number, timestamp, items, discountName, discountRate);
+        }
+        int promotionCount = in.readInt();
+        List<Receipt.Promotion> promotions = new ArrayList<>(promotionCount);
+        for (int i = 0; i < promotionCount; i++) {
+            promotions.add(new Receipt.Promotion(in.readUTF(), in.readDouble()));
+        }
+        return new Receipt(number, timestamp, items, promotions, discountName, discountRate);
+    }
+
+    private static long crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+
+    // One segment file plus its index entries
+    private static class Segment {
+        final int id;
+        FileChannel data;
+        FileChannel indexChannel;   // only while the segment is active
+        MappedByteBuffer mappedData; // only for sealed, memory mapped segments
+        ByteBuffer index;
+        int count;
+        int persistedCount;
+        long size;
+        int minNumber = Integer.MAX_VALUE, maxNumber = Integer.MIN_VALUE;
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        boolean sortedByNumber = true;
+        // Receipts of lanes with a clock set back, or queued out of order, leave it unsorted
+        boolean sortedByTime = true;
+
+        Segment(int id) {
+            this.id = id;
+        }
+
+        // Open the newest segment for appending. Its index is rebuilt from the records,
+        // and a torn record left by a crash is cut off.
+        static Segment openActive(File directory, int id) throws IOException {
+            Segment segment = new Segment(id);
+            segment.data = FileChannel.open(new File(directory, segmentName(id)).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment.indexChannel = FileChannel.open(new File(directory, indexName(id)).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment.indexChannel.truncate(0);
+
+            long fileSize = segment.data.size();
+            segment.scan(fileSize);
+            if (segment.size < fileSize) {
+                segment.data.truncate(segment.size);
+            }
+            segment.writeIndex();
+            return segment;
+        }
+
+        // Open the newest segment of a journal that may still be appended to, for reading: the
+        // index is built in memory up to the last complete record and nothing is written
+        static Segment openTail(File directory, int id) throws IOException {
+            Segment segment = new Segment(id);
+            segment.data = FileChannel.open(new File(directory, segmentName(id)).toPath(), StandardOpenOption.READ);
+            segment.scan(segment.data.size());
+            return segment;
+        }
+
+        // Index the records from the start of the data up to the first one that is incomplete
+        // or fails its crc; size ends up just after the last good record
+        private void scan(long fileSize) throws IOException {
+            index = ByteBuffer.allocate(INDEX_ENTRY * 1024);
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            while (offset + RECORD_HEADER <= fileSize) {
+                header.clear();
+                readFully(data, header, offset);
+                int length = header.getInt(0);
+                if (length < 0 || offset + RECORD_HEADER + length > fileSize) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(data, payload, offset + RECORD_HEADER);
+                if ((int) crc(payload.array(), 0, length) != header.getInt(4)) {
+                    break;
+                }
+                appendIndex(payload.getInt(0), payload.getLong(4), offset);
+                offset += RECORD_HEADER + length;
+            }
+            size = offset;
+        }
+
+        static Segment openSealed(File directory, int id, boolean memoryMapped) throws IOException {
+            Segment segment = new Segment(id);
+            segment.data = FileChannel.open(new File(directory, segmentName(id)).toPath(), StandardOpenOption.READ);
+            segment.size = segment.data.size();
+            try (FileChannel indexFile = FileChannel.open(new File(directory, indexName(id)).toPath(),
+                    StandardOpenOption.READ)) {
+                long indexSize = indexFile.size() - indexFile.size() % INDEX_ENTRY;
+                if (memoryMapped) {
+                    segment.mappedData = segment.data.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+                    segment.index = indexFile.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+                } else {
+                    segment.index = ByteBuffer.allocate((int) indexSize);
+                    readFully(indexFile, segment.index, 0);
+                }
+            }
+            segment.count = segment.index.capacity() / INDEX_ENTRY;
+            for (int entry = 0; entry < segment.count; entry++) {
+                segment.track(segment.numberAt(entry), segment.timeAt(entry));
+            }
+            return segment;
+        }
+
+        void appendIndex(int number, long timestamp, long offset) {
+            if (index.capacity() < (count + 1) * INDEX_ENTRY) {
+                ByteBuffer grown = ByteBuffer.allocate(index.capacity() * 2);
+                index.position(0).limit(count * INDEX_ENTRY);
+                grown.put(index);
+                index = grown;
+            }
+            int position = count * INDEX_ENTRY;
+            index.limit(index.capacity());
+            index.putInt(position, number).putLong(position + 4, timestamp).putLong(position + 12, offset);
+            count++;
+            track(number, timestamp);
+        }
+
+        // Write the entries appended since the last call to the sidecar file
+        void writeIndex() throws IOException {
+            ByteBuffer entries = index.duplicate();
+            entries.position(persistedCount * INDEX_ENTRY).limit(count * INDEX_ENTRY);
+            long filePosition = (long) persistedCount * INDEX_ENTRY;
+            while (entries.hasRemaining()) {
+                filePosition += indexChannel.write(entries, filePosition);
+            }
+            persistedCount = count;
+        }
+
+        private void track(int number, long timestamp) {
+            if (number < maxNumber) {
+                sortedByNumber = false;
+            }
+            if (timestamp < maxTime) {
+                sortedByTime = false;
+            }
+            minNumber = Math.min(minNumber, number);
+            maxNumber = Math.max(maxNumber, number);
+            minTime = Math.min(minTime, timestamp);
+            maxTime = Math.max(maxTime, timestamp);
+        }
+
+        int numberAt(int entry) {
+            return index.getInt(entry * INDEX_ENTRY);
+        }
+
+        long timeAt(int entry) {
+            return index.getLong(entry * INDEX_ENTRY + 4);
+        }
+
+        long offsetAt(int entry) {
+            return index.getLong(entry * INDEX_ENTRY + 12);
+        }
+
+        // Index entry of a receipt number, or -1
+        int findNumber(int number) {
+            if (sortedByNumber) {
+                int low = 0, high = count - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    int midNumber = numberAt(mid);
+                    if (midNumber < number) {
+                        low = mid + 1;
+                    } else if (midNumber > number) {
+                        high = mid - 1;
+                    } else {
+                        return mid;
+                    }
+                }
+                return -1;
+            }
+            // Lanes finishing out of order leave an unsorted index; it is small enough to scan
+            for (int entry = count - 1; entry >= 0; entry--) {
+                if (numberAt(entry) == number) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        // First index entry with a number >= number, or count; the index must be sorted by number
+        int firstNumberAtLeast(int number) {
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (numberAt(mid) < number) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // First index entry with a timestamp >= millis, or count; the index must be sorted by time
+        int firstTimeAtLeast(long millis) {
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timeAt(mid) < millis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        List<Receipt> readEntries(int fromEntry, int toEntry, long fromMillis) throws IOException {
+            List<Receipt> receipts = new ArrayList<>(Math.max(0, toEntry - fromEntry));
+            for (int entry = fromEntry; entry < toEntry; entry++) {
+                if (timeAt(entry) >= fromMillis) {
+                    receipts.add(readRecord(offsetAt(entry)));
+                }
+            }
+            return receipts;
+        }
+
+        Receipt readRecord(long offset) throws IOException {
+            byte[] payload;
+            int expectedCrc;
+            if (mappedData != null) {
+                ByteBuffer record = mappedData.duplicate();
+                record.position((int) offset);
+                int length = record.getInt();
+                expectedCrc = record.getInt();
+                payload = new byte[length];
+                record.get(payload);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+                readFully(data, header, offset);
+                payload = new byte[header.getInt(0)];
+                expectedCrc = header.getInt(4);
+                readFully(data, ByteBuffer.wrap(payload), offset + RECORD_HEADER);
+            }
+            if ((int) crc(payload, 0, payload.length) != expectedCrc) {
+                throw new IOException("Corrupt receipt record in " + segmentName(id) + " at offset " + offset);
+            }
+            return decodePayload(payload);
+        }
+
+        void seal() throws IOException {
+            if (indexChannel != null) {
+                data.force(true);
+                indexChannel.force(true);
+                indexChannel.close();
+                indexChannel = null;
+            }
+        }
+
+        void close() throws IOException {
+            if (data != null) {
+                data.close();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+}
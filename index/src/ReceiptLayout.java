@@ -0,0 +1,50 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Configurable parts of the printed receipt. DEFAULT reproduces the layout of
+// BillingEngine.generateReceipt exactly.
+public class ReceiptLayout {
+    // Column order of the item table
+    public static final int ID = 0, NAME = 1, PRICE = 2, QUANTITY = 3, TOTAL = 4;
+    static final String[] COLUMN_TITLES = {"ID", "Product", "Price", "Qty", "Total"};
+
+    public static final ReceiptLayout DEFAULT = new ReceiptLayout(
+            Arrays.asList(
+                    "====================================",
+                    "          SUPERMARKET RECEIPT        ",
+                    "===================================="),
+            Arrays.asList(
+                    "====================================",
+                    "         Thank you for shopping!    ",
+                    "===================================="),
+            new int[]{5, 20, 10, 10, 10},
+            "------------------------------------------------------------",
+            "₱");
+
+    private final List<String> header;
+    private final List<String> footer;
+    private final int[] columnWidths;
+    private final String rule;
+    private final String currency;
+
+    // columnWidths are minimum widths in characters for ID, Product, Price, Qty and Total;
+    // money columns include the currency symbol. Longer values are never truncated.
+    public ReceiptLayout(List<String> header, List<String> footer, int[] columnWidths,
+                         String rule, String currency) {
+        if (columnWidths.length != COLUMN_TITLES.length) {
+            throw new IllegalArgumentException("Expected " + COLUMN_TITLES.length + " column widths");
+        }
+        this.header = Collections.unmodifiableList(header);
+        this.footer = Collections.unmodifiableList(footer);
+        this.columnWidths = columnWidths.clone();
+        this.rule = rule;
+        this.currency = currency;
+    }
+
+    public List<String> getHeader() { return header; }
+    public List<String> getFooter() { return footer; }
+    public int getColumnWidth(int column) { return columnWidths[column]; }
+    public String getRule() { return rule; }
+    public String getCurrency() { return currency; }
+}
@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Reads receipt_N.txt files in the layout of BillingEngine.generateReceipt back into Receipts.
+// Item lines are split from the right (total, quantity, price), so product names may contain
+// spaces or be longer than their column. The discount name is the one printed on the receipt
+// ("Loyalty Card"), which BillingEngine.discountRate resolves; the rate is the printed discount
+// divided by the subtotal less promotions.
+public class ReceiptParser {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String currency;
+    private final ZoneId zone;
+
+    public ReceiptParser() {
+        this(ReceiptLayout.DEFAULT.getCurrency(), ZoneId.systemDefault());
+    }
+
+    public ReceiptParser(String currency, ZoneId zone) {
+        this.currency = currency;
+        this.zone = zone;
+    }
+
+    public Receipt parse(File file) throws IOException, ParseException {
+        return parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    // All receipt_*.txt files of a directory in receipt number order. Files that do not parse
+    // are skipped and described in errors, if it is not null.
+    public List<Receipt> parseDirectory(File directory, List<String> errors) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("receipt_") && name.endsWith(".txt"));
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        List<Receipt> receipts = new ArrayList<>(files.length);
+        for (File file : files) {
+            try {
+                receipts.add(parse(file));
+            } catch (ParseException e) {
+                if (errors != null) {
+                    errors.add(file.getName() + " line " + e.getErrorOffset() + ": " + e.getMessage());
+                }
+            }
+        }
+        receipts.sort(Comparator.comparingInt(Receipt::getNumber));
+        return receipts;
+    }
+
+    // Parse the text of one receipt; the error offset of a ParseException is the 1-based line number
+    public Receipt parse(String text) throws ParseException {
+        List<String> lines = Arrays.asList(text.split("\n", -1));
+        int number = -1;
+        long timestamp = 0;
+        List<Product> items = new ArrayList<>();
+        double subtotal = 0;
+        String discountName = null;
+        double discountAmount = 0;
+        List<Receipt.Promotion> promotions = new ArrayList<>();
+
+        // 0 = before the item table, 1 = header row seen, 2 = inside the item rows, 3 = after
+        int table = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int lineNumber = i + 1;
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+
+            if (table == 2) {
+                if (line.startsWith("---")) {
+                    table = 3;
+                } else if (!line.trim().isEmpty()) {
+                    items.add(parseItem(line, lineNumber));
+                }
+            } else if (table == 1) {
+                if (!line.startsWith("---")) {
+                    throw new ParseException("Expected the rule under the item header", lineNumber);
+                }
+                table = 2;
+            } else if (line.startsWith("Receipt #:")) {
+                number = parseInt(line.substring("Receipt #:".length()).trim(), lineNumber);
+            } else if (line.startsWith("Date:")) {
+                try {
+                    timestamp = LocalDateTime.parse(line.substring("Date:".length()).trim(), DATE_FORMAT)
+                            .atZone(zone).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    throw new ParseException("Bad date: " + line, lineNumber);
+                }
+            } else if (table == 0 && line.startsWith("ID ")) {
+                table = 1;
+            } else if (line.startsWith("Subtotal:")) {
+                subtotal = parseMoney(line.substring("Subtotal:".length()).trim(), lineNumber);
+            } else if (line.startsWith("Promo (")) {
+                int close = line.lastIndexOf("):");
+                if (close < 0) {
+                    throw new ParseException("Bad promotion line: " + line, lineNumber);
+                }
+                promotions.add(new Receipt.Promotion(line.substring("Promo (".length(), close),
+                        parseMoney(stripMinus(line.substring(close + 2).trim()), lineNumber)));
+            } else if (line.startsWith("Discount (")) {
+                int close = line.lastIndexOf("):");
+                if (close < 0) {
+                    throw new ParseException("Bad discount line: " + line, lineNumber);
+                }
+                discountName = line.substring("Discount (".length(), close);
+                discountAmount = parseMoney(stripMinus(line.substring(close + 2).trim()), lineNumber);
+            }
+        }
+
+        if (number < 0) {
+            throw new ParseException("No receipt number", 0);
+        }
+        if (table != 3) {
+            throw new ParseException("Item table missing or not terminated", 0);
+        }
+        if (discountName == null) {
+            return new Receipt(number, timestamp, items, promotions, "None (0%)", 0.0);
+        }
+        double payable = subtotal;
+        for (Receipt.Promotion promotion : promotions) {
+            payable -= promotion.getAmount();
+        }
+        return new Receipt(number, timestamp, items, promotions, discountName, discountRate(discountAmount, payable));
+    }
+
+    // The shortest rate (2 to 4 decimals) that reproduces the printed discount; small totals
+    // leave too few cents to recover more digits
+    private static double discountRate(double discountAmount, double payable) {
+        if (payable <= 0) {
+            return 0;
+        }
+        String printed = String.format("%.2f", discountAmount);
+        double rate = 0;
+        for (double scale = 100; scale <= 10_000; scale *= 10) {
+            rate = Math.round(discountAmount / payable * scale) / scale;
+            if (String.format("%.2f", payable * rate).equals(printed)) {
+                break;
+            }
+        }
+        return rate;
+    }
+
+    // "P001  Rice (1kg)           ₱40.00     1          ₱40.00    "
+    private Product parseItem(String line, int lineNumber) throws ParseException {
+        String trimmed = line.trim();
+        int idEnd = trimmed.indexOf(' ');
+        int totalStart = trimmed.lastIndexOf(' ');
+        if (idEnd < 0 || totalStart <= idEnd) {
+            throw new ParseException("Bad item line: " + line, lineNumber);
+        }
+        String beforeTotal = trimmed.substring(0, totalStart).trim();
+        int quantityStart = beforeTotal.lastIndexOf(' ');
+        String beforeQuantity = beforeTotal.substring(0, Math.max(quantityStart, 0)).trim();
+        int priceStart = beforeQuantity.lastIndexOf(' ');
+        if (quantityStart <= idEnd || priceStart < idEnd) {
+            throw new ParseException("Bad item line: " + line, lineNumber);
+        }
+
+        String id = trimmed.substring(0, idEnd);
+        String name = beforeQuantity.substring(idEnd, priceStart).trim();
+        double price = parseMoney(beforeQuantity.substring(priceStart + 1), lineNumber);
+        int quantity = parseInt(beforeTotal.substring(quantityStart + 1), lineNumber);
+        return new Product(id, name, price, quantity);
+    }
+
+    private static String stripMinus(String amount) {
+        return amount.startsWith("-") ? amount.substring(1) : amount;
+    }
+
+    private double parseMoney(String text, int lineNumber) throws ParseException {
+        if (text.startsWith(currency)) {
+            text = text.substring(currency.length());
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new ParseException("Bad amount: " + text, lineNumber);
+        }
+    }
+
+    private static int parseInt(String text, int lineNumber) throws ParseException {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new ParseException("Bad number: " + text, lineNumber);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+// Renders receipts as UTF-8 straight into a reusable direct ByteBuffer.
+//
+// All fixed text of the layout is encoded once up front. Per receipt only the variable
+// parts are written: amounts use fixed-point formatting with the same half-up rounding as
+// String.format("%.2f"), and the date comes from a cached per-day prefix plus the time of
+// day. Rendering a receipt allocates nothing once the buffer is big enough and the date is
+// in the cached day. With ReceiptLayout.DEFAULT the bytes equal the UTF-8 encoding of
+// BillingEngine.generateReceipt.
+//
+// Not thread-safe: use one renderer per thread.
+public class ReceiptRenderer {
+    private static final byte[] DIGITS = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+    private final ReceiptLayout layout;
+    private final int[] widths = new int[ReceiptLayout.COLUMN_TITLES.length];
+    private final int currencyLength;
+
+    // Precompiled fixed text
+    private final byte[] headerBlock;
+    private final byte[] receiptNumberLabel;
+    private final byte[] dateLabel;
+    private final byte[] itemsBlock;
+    private final byte[] ruleLine;
+    private final byte[] currency;
+    private final byte[] subtotalLabel;
+    private final byte[] promotionLabel;
+    private final byte[] discountLabel;
+    private final byte[] discountSeparator;
+    private final byte[] totalLabel;
+    private final byte[] footerBlock;
+    private final int maxLineBytes;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+
+    // Date cache: local date of [dayStart, dayEnd) and the UTC offset in force during it
+    private final ZoneRules zoneRules;
+    private final byte[] dayText = new byte[10];
+    private long dayStart = 1, dayEnd = 0;
+    private long dayOffsetMillis;
+
+    public ReceiptRenderer() {
+        this(ReceiptLayout.DEFAULT, ZoneId.systemDefault());
+    }
+
+    public ReceiptRenderer(ReceiptLayout layout, ZoneId zone) {
+        this.layout = layout;
+        this.zoneRules = zone.getRules();
+        for (int column = 0; column < widths.length; column++) {
+            widths[column] = layout.getColumnWidth(column);
+        }
+        currencyLength = layout.getCurrency().length();
+
+        StringBuilder header = new StringBuilder();
+        for (String line : layout.getHeader()) {
+            header.append(line).append('\n');
+        }
+        header.append('\n');
+        headerBlock = utf8(header);
+        receiptNumberLabel = utf8("Receipt #: ");
+        dateLabel = utf8("Date: ");
+
+        StringBuilder items = new StringBuilder("\n\nITEMS:\n");
+        for (int column = 0; column < widths.length; column++) {
+            if (column > 0) {
+                items.append(' ');
+            }
+            items.append(pad(ReceiptLayout.COLUMN_TITLES[column], widths[column]));
+        }
+        items.append('\n').append(layout.getRule()).append('\n');
+        itemsBlock = utf8(items);
+        ruleLine = utf8(layout.getRule() + "\n\n");
+
+        currency = utf8(layout.getCurrency());
+        subtotalLabel = utf8("Subtotal:          " + layout.getCurrency());
+        promotionLabel = utf8("Promo (");
+        discountLabel = utf8("Discount (");
+        discountSeparator = utf8("): -" + layout.getCurrency());
+        totalLabel = utf8("TOTAL:             " + layout.getCurrency());
+
+        StringBuilder footer = new StringBuilder("\n");
+        for (String line : layout.getFooter()) {
+            footer.append(line).append('\n');
+        }
+        footerBlock = utf8(footer);
+
+        int columns = 0;
+        for (int width : widths) {
+            columns += width + 1;
+        }
+        maxLineBytes = columns + 2 * currency.length + 64;
+    }
+
+    public ReceiptLayout getLayout() {
+        return layout;
+    }
+
+    // Render a receipt. The returned buffer is ready to read and is reused by the next call.
+    public ByteBuffer render(Receipt receipt) {
+        ensureCapacity(receipt);
+        ByteBuffer out = buffer;
+        out.clear();
+
+        out.put(headerBlock);
+        out.put(receiptNumberLabel);
+        putLong(out, receipt.getNumber());
+        out.put((byte) '\n');
+        out.put(dateLabel);
+        putDate(out, receipt.getTimestamp());
+        out.put(itemsBlock);
+
+        for (Product item : receipt.getItems()) {
+            double price = item.getPrice();
+            int quantity = item.getQuantity();
+            double lineTotal = price * quantity;
+
+            putPadded(out, item.getId(), widths[ReceiptLayout.ID]);
+            out.put((byte) ' ');
+            putPadded(out, item.getName(), widths[ReceiptLayout.NAME]);
+            out.put((byte) ' ');
+            out.put(currency);
+            putPaddedRight(out, putMoney(out, price), widths[ReceiptLayout.PRICE] - currencyLength);
+            out.put((byte) ' ');
+            putPaddedRight(out, putLong(out, quantity), widths[ReceiptLayout.QUANTITY]);
+            out.put((byte) ' ');
+            out.put(currency);
+            putPaddedRight(out, putMoney(out, lineTotal), widths[ReceiptLayout.TOTAL] - currencyLength);
+            out.put((byte) '\n');
+        }
+        out.put(ruleLine);
+
+        // Totals in cents, as the cart worked them out; the discount applies to what is left
+        // after promotions
+        out.put(subtotalLabel);
+        putCents(out, receipt.getSubtotalCents());
+        out.put((byte) '\n');
+
+        for (Receipt.Promotion promotion : receipt.getPromotions()) {
+            out.put(promotionLabel);
+            putChars(out, promotion.getName(), 0, promotion.getName().length());
+            out.put(discountSeparator);
+            putMoney(out, promotion.getAmount());
+            out.put((byte) '\n');
+        }
+
+        String discountName = receipt.getDiscountName();
+        if (!discountName.startsWith("None")) {
+            // Same as discountName.split("\\(")[0].trim()
+            int end = discountName.indexOf('(');
+            if (end < 0) {
+                end = discountName.length();
+            }
+            int start = 0;
+            while (start < end && discountName.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && discountName.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            out.put(discountLabel);
+            putChars(out, discountName, start, end);
+            out.put(discountSeparator);
+            putCents(out, receipt.getDiscountCents());
+            out.put((byte) '\n');
+        }
+
+        out.put(totalLabel);
+        putCents(out, receipt.getTotalCents());
+        out.put((byte) '\n');
+        out.put(footerBlock);
+
+        out.flip();
+        return out;
+    }
+
+    // Render into a caller-owned buffer; returns the number of bytes written
+    public int renderTo(Receipt receipt, ByteBuffer target) {
+        ByteBuffer rendered = render(receipt);
+        int length = rendered.remaining();
+        target.put(rendered);
+        return length;
+    }
+
+    private void ensureCapacity(Receipt receipt) {
+        int needed = headerBlock.length + itemsBlock.length + ruleLine.length + footerBlock.length + 256
+                + receipt.getDiscountName().length() * 3;
+        for (Receipt.Promotion promotion : receipt.getPromotions()) {
+            needed += maxLineBytes + promotion.getName().length() * 3;
+        }
+        for (Product item : receipt.getItems()) {
+            needed += maxLineBytes + (item.getId().length() + item.getName().length()) * 3;
+        }
+        if (buffer.capacity() < needed) {
+            buffer = ByteBuffer.allocateDirect(Math.max(needed, buffer.capacity() * 2));
+        }
+    }
+
+    // Left-aligned text padded with spaces to width characters, as %-Ns
+    private static void putPadded(ByteBuffer out, String text, int width) {
+        putChars(out, text, 0, text.length());
+        for (int i = text.length(); i < width; i++) {
+            out.put((byte) ' ');
+        }
+    }
+
+    // Pads a field that was just written with the given character count to width
+    private static void putPaddedRight(ByteBuffer out, int written, int width) {
+        for (int i = written; i < width; i++) {
+            out.put((byte) ' ');
+        }
+    }
+
+    private static void putChars(ByteBuffer out, String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    // Writes a decimal integer and returns the number of characters written
+    private static int putLong(ByteBuffer out, long value) {
+        int written = 0;
+        if (value < 0) {
+            out.put((byte) '-');
+            written++;
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put(DIGITS[(int) (value / divisor % 10)]);
+            written++;
+        }
+        return written;
+    }
+
+    // Writes an amount with two decimals, rounded like String.format("%.2f"), and returns
+    // the number of characters written
+    static int putMoney(ByteBuffer out, double amount) {
+        int written = 0;
+        // Sign bit rather than amount < 0, so -0.0 prints as -0.00 like Formatter does
+        if (Double.doubleToRawLongBits(amount) < 0) {
+            out.put((byte) '-');
+            written++;
+            amount = -amount;
+        }
+        return written + putCents(out, toCents(amount));
+    }
+
+    // Writes a whole number of cents with two decimals and returns the number of characters written
+    static int putCents(ByteBuffer out, long cents) {
+        int written = 0;
+        if (cents < 0) {
+            out.put((byte) '-');
+            written++;
+            cents = -cents;
+        }
+        written += putLong(out, cents / 100);
+        out.put((byte) '.');
+        out.put(DIGITS[(int) (cents / 10 % 10)]);
+        out.put(DIGITS[(int) (cents % 10)]);
+        return written + 3;
+    }
+
+    // Formatter rounds the shortest decimal representation of the double half-up. Away from
+    // ties that is the nearest thousandth rounded to hundredths; on a thousandth ending in 5
+    // the double itself tells whether it lies on, above or below the tie.
+    static long toCents(double amount) {
+        long thousandths = (long) Math.rint(amount * 1000);
+        if (thousandths % 10 == 5) {
+            return amount >= thousandths / 1000.0 ? (thousandths + 5) / 10 : (thousandths - 5) / 10;
+        }
+        return (thousandths + 5) / 10;
+    }
+
+    // yyyy-MM-dd HH:mm:ss in the renderer's time zone
+    private void putDate(ByteBuffer out, long timestamp) {
+        if (timestamp < dayStart || timestamp >= dayEnd) {
+            cacheDay(timestamp);
+        }
+        out.put(dayText);
+        long secondOfDay = Math.floorMod(timestamp + dayOffsetMillis, 86_400_000L) / 1000;
+        out.put((byte) ' ');
+        putTwoDigits(out, (int) (secondOfDay / 3600));
+        out.put((byte) ':');
+        putTwoDigits(out, (int) (secondOfDay / 60 % 60));
+        out.put((byte) ':');
+        putTwoDigits(out, (int) (secondOfDay % 60));
+    }
+
+    // Runs once per day (and at offset transitions); the only place that allocates
+    private void cacheDay(long timestamp) {
+        Instant instant = Instant.ofEpochMilli(timestamp);
+        ZoneOffset offset = zoneRules.getOffset(instant);
+        LocalDate date = LocalDate.ofInstant(instant, offset);
+
+        dayOffsetMillis = offset.getTotalSeconds() * 1000L;
+        dayStart = date.toEpochDay() * 86_400_000L - dayOffsetMillis;
+        dayEnd = dayStart + 86_400_000L;
+        ZoneOffsetTransition next = zoneRules.nextTransition(instant);
+        if (next != null) {
+            dayEnd = Math.min(dayEnd, next.toEpochSecond() * 1000);
+        }
+        ZoneOffsetTransition previous = zoneRules.previousTransition(instant);
+        if (previous != null) {
+            dayStart = Math.max(dayStart, previous.toEpochSecond() * 1000);
+        }
+
+        int year = date.getYear();
+        dayText[0] = DIGITS[year / 1000 % 10];
+        dayText[1] = DIGITS[year / 100 % 10];
+        dayText[2] = DIGITS[year / 10 % 10];
+        dayText[3] = DIGITS[year % 10];
+        dayText[4] = '-';
+        dayText[5] = DIGITS[date.getMonthValue() / 10];
+        dayText[6] = DIGITS[date.getMonthValue() % 10];
+        dayText[7] = '-';
+        dayText[8] = DIGITS[date.getDayOfMonth() / 10];
+        dayText[9] = DIGITS[date.getDayOfMonth() % 10];
+    }
+
+    private static void putTwoDigits(ByteBuffer out, int value) {
+        out.put(DIGITS[value / 10]);
+        out.put(DIGITS[value % 10]);
+    }
+
+    private static String pad(String text, int width) {
+        StringBuilder padded = new StringBuilder(text);
+        while (padded.length() < width) {
+            padded.append(' ');
+        }
+        return padded.toString();
+    }
+
+    private static byte[] utf8(CharSequence text) {
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// Crash-safe receipt number allocator.
+// Numbers are handed out from an in-memory block; only reserving the next block touches
+// the disk. The reserved limit is written before any number of the block is used, so a
+// crash can skip the unused rest of a block but never reuse a number.
+//
+// Every terminal owns its own range [start + terminal * rangeSize, start + (terminal + 1) * rangeSize)
+// and its own state file, so lanes never contend with each other.
+public class ReceiptSequence implements AutoCloseable {
+    public static final int DEFAULT_START = 1000;
+    public static final int DEFAULT_RANGE_SIZE = 10_000_000;
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+
+    // State file: two 24-byte slots written alternately, each [generation][limit][crc]
+    private static final int SLOT_SIZE = 24;
+    private static final Pattern RECEIPT_FILE = Pattern.compile("receipt_(\\d+)\\.txt");
+
+    private final int terminal;
+    private final long rangeStart;
+    private final long rangeEnd;
+    private final int blockSize;
+    private final FileChannel channel;
+
+    private long generation;
+    private long next;
+    private long limit;
+
+    public ReceiptSequence(File directory, int terminal) throws IOException {
+        this(directory, terminal, DEFAULT_START, DEFAULT_RANGE_SIZE, DEFAULT_BLOCK_SIZE,
+                highestReceiptNumber(directory));
+    }
+
+    // floor is the highest number already in use (e.g. by receipt files written before the
+    // sequence existed); it is only consulted when the terminal has no state file yet
+    public ReceiptSequence(File directory, int terminal, int start, int rangeSize, int blockSize,
+                           long floor) throws IOException {
+        this.terminal = terminal;
+        this.rangeStart = start + (long) terminal * rangeSize;
+        this.rangeEnd = rangeStart + rangeSize;
+        this.blockSize = blockSize;
+        if (rangeEnd - 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Terminal " + terminal + " range exceeds receipt number space");
+        }
+
+        File file = new File(directory, String.format("sequence_%d.dat", terminal));
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (!readState()) {
+            // First start of this terminal: continue after any receipts already in its range
+            limit = floor >= rangeStart && floor < rangeEnd ? floor + 1 : rangeStart;
+        }
+        // Everything below the last reserved limit may have been handed out before a crash
+        next = limit;
+    }
+
+    public int getTerminal() {
+        return terminal;
+    }
+
+    // Allocate the next receipt number
+    public synchronized int next() throws IOException {
+        if (next >= limit) {
+            reserve();
+        }
+        return (int) next++;
+    }
+
+    private void reserve() throws IOException {
+        long newLimit = Math.min(next + blockSize, rangeEnd);
+        if (newLimit <= next) {
+            throw new IllegalStateException("Receipt numbers exhausted for terminal " + terminal);
+        }
+        writeState(newLimit);
+        limit = newLimit;
+    }
+
+    private boolean readState() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE * 2);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // keep reading
+        }
+        boolean found = false;
+        for (int slot = 0; slot < 2; slot++) {
+            if (buffer.position() < (slot + 1) * SLOT_SIZE) {
+                break;
+            }
+            long slotGeneration = buffer.getLong(slot * SLOT_SIZE);
+            long slotLimit = buffer.getLong(slot * SLOT_SIZE + 8);
+            long crc = buffer.getLong(slot * SLOT_SIZE + 16);
+            // A torn write leaves a bad checksum; fall back to the other slot
+            if (crc == checksum(slotGeneration, slotLimit) && (!found || slotGeneration > generation)) {
+                generation = slotGeneration;
+                limit = slotLimit;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private void writeState(long newLimit) throws IOException {
+        long newGeneration = generation + 1;
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        buffer.putLong(newGeneration).putLong(newLimit).putLong(checksum(newGeneration, newLimit)).flip();
+
+        // Alternate slots so the previous state survives a torn write of this one
+        long position = (newGeneration % 2) * SLOT_SIZE;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(true);
+        generation = newGeneration;
+    }
+
+    private static long checksum(long generation, long limit) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(16).putLong(generation).putLong(limit);
+        crc.update(buffer.array());
+        return crc.getValue();
+    }
+
+    // Highest number of the receipt_N.txt files in a directory, or -1 if there are none
+    public static long highestReceiptNumber(File directory) {
+        long highest = -1;
+        String[] names = directory.list();
+        if (names == null) {
+            return highest;
+        }
+        for (String name : names) {
+            Matcher matcher = RECEIPT_FILE.matcher(name);
+            if (matcher.matches()) {
+                highest = Math.max(highest, Long.parseLong(matcher.group(1)));
+            }
+        }
+        return highest;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,10 @@
+import java.io.IOException;
+import java.util.List;
+
+// Durable storage for receipts. write() must only return once the whole batch is on disk.
+public interface ReceiptSink {
+    void write(List<Receipt> batch) throws IOException;
+
+    // Human readable location of a stored receipt, for status messages
+    String locationOf(Receipt receipt);
+}
@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Persists receipts on a background thread so checkout never waits for the disk.
+// Pending receipts are taken from a bounded queue in batches and each batch is
+// made durable with a single sink write (group commit).
+public class ReceiptWriter implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_MAX_BATCH = 32;
+
+    private final ReceiptSink sink;
+    private final BlockingQueue<PendingReceipt> queue;
+    private final int maxBatch;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // Statistics
+    private final AtomicLong receiptsWritten = new AtomicLong();
+    private final AtomicLong receiptsFailed = new AtomicLong();
+    private final AtomicLong batchesWritten = new AtomicLong();
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public ReceiptWriter(ReceiptSink sink) {
+        this(sink, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH);
+    }
+
+    public ReceiptWriter(ReceiptSink sink, int capacity, int maxBatch) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.thread = new Thread(this::run, "receipt-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public ReceiptSink getSink() {
+        return sink;
+    }
+
+    // Queue a receipt for writing. Waits up to timeoutMillis for room in the queue and
+    // returns false if the writer is closed or still full, in which case the callback is never called.
+    public boolean submit(Receipt receipt, ReceiptCallback callback, long timeoutMillis) {
+        if (closed) {
+            return false;
+        }
+        PendingReceipt pending = new PendingReceipt(receipt, callback);
+        try {
+            if (!queue.offer(pending, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        // close() may have come in between the check and the offer. Whoever takes the receipt
+        // out of the queue owns it: the writer thread or its last drain calls back, otherwise
+        // it was never queued.
+        return !closed || !queue.remove(pending);
+    }
+
+    private void run() {
+        List<PendingReceipt> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingReceipt first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                // Keep draining; close() decides when the loop ends
+            } finally {
+                batch.clear();
+            }
+        }
+
+        // Receipts offered while the loop was ending were accepted by submit: written like the rest
+        while (queue.drainTo(batch, maxBatch) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    // A failing sink or callback fails its batch, never the writer thread: the receipts queued
+    // behind it still get written and called back
+    private void writeBatch(List<PendingReceipt> batch) {
+        List<Receipt> receipts = new ArrayList<>(batch.size());
+        for (PendingReceipt pending : batch) {
+            receipts.add(pending.receipt);
+        }
+
+        long start = System.nanoTime();
+        IOException error = null;
+        try {
+            sink.write(receipts);
+        } catch (IOException e) {
+            error = e;
+        } catch (Throwable e) {
+            error = new IOException("Receipt sink failed", e);
+        }
+        long end = System.nanoTime();
+
+        batchesWritten.incrementAndGet();
+        record(totalWriteNanos, maxWriteNanos, end - start);
+        BillingMetrics.RECEIPT_WRITE.record(end - start);
+        for (PendingReceipt pending : batch) {
+            record(totalLatencyNanos, maxLatencyNanos, end - pending.enqueuedNanos);
+            BillingMetrics.RECEIPT_DURABLE.record(end - pending.enqueuedNanos);
+            if (error == null) {
+                receiptsWritten.incrementAndGet();
+                BillingMetrics.COUNTERS.receiptsWritten.increment();
+                try {
+                    pending.callback.receiptSaved(pending.receipt, sink.locationOf(pending.receipt));
+                } catch (Throwable e) {
+                    System.err.println("Receipt " + pending.receipt.getNumber() + " saved, but its callback failed: "
+                            + e);
+                }
+            } else {
+                receiptsFailed.incrementAndGet();
+                BillingMetrics.COUNTERS.receiptsFailed.increment();
+                failed(pending, error);
+            }
+        }
+    }
+
+    private static void failed(PendingReceipt pending, IOException error) {
+        try {
+            pending.callback.receiptFailed(pending.receipt, error);
+        } catch (Throwable e) {
+            System.err.println("Receipt " + pending.receipt.getNumber() + " failed, and so did its callback: " + e);
+        }
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long nanos) {
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Stop accepting receipts, write everything still queued and wait for the writer thread
+    @Override
+    public void close() {
+        // No interrupt: it would abort an in-flight FileChannel write
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public long getReceiptsWritten() {
+        return receiptsWritten.get();
+    }
+
+    public long getReceiptsFailed() {
+        return receiptsFailed.get();
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    // Average time the sink took per batch
+    public double getAverageBatchWriteMillis() {
+        long batches = batchesWritten.get();
+        return batches == 0 ? 0 : totalWriteNanos.get() / 1e6 / batches;
+    }
+
+    public double getMaxBatchWriteMillis() {
+        return maxWriteNanos.get() / 1e6;
+    }
+
+    // Average time from submit() until the receipt was durable
+    public double getAverageLatencyMillis() {
+        long receipts = receiptsWritten.get() + receiptsFailed.get();
+        return receipts == 0 ? 0 : totalLatencyNanos.get() / 1e6 / receipts;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReceiptWriter[queued=%d/%d, written=%d, failed=%d, batches=%d, "
+                        + "avgBatch=%.2fms, maxBatch=%.2fms, avgLatency=%.2fms, maxLatency=%.2fms]",
+                getQueueDepth(), getQueueCapacity(), getReceiptsWritten(), getReceiptsFailed(),
+                getBatchesWritten(), getAverageBatchWriteMillis(), getMaxBatchWriteMillis(),
+                getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+
+    private static class PendingReceipt {
+        final Receipt receipt;
+        final ReceiptCallback callback;
+        final long enqueuedNanos = System.nanoTime();
+
+        PendingReceipt(Receipt receipt, ReceiptCallback callback) {
+            this.receipt = receipt;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+// Appends every change of stock level seen by a StockLevelIndex to a CSV file that purchasing
+// reads as it grows (replenishment.csv in the inventory directory):
+//   sequence,time,level,id,name,stock,reorder point,reorder quantity
+// level is LOW (at or below the reorder point), OUT (none left) or OK (restocked above it).
+// Lines are written as the crossings happen, one flush each; nothing is ever rewritten.
+// Sequence numbers continue across restarts, so a reader can resume after the last one it
+// handled. On open the SKUs already below their reorder point are written again, so the latest
+// line of each SKU is always its level.
+public class ReplenishmentFeed implements StockLevelIndex.Listener, AutoCloseable {
+    private static final String HEADER = "sequence,time,level,id,name,stock,reorder point,reorder quantity";
+
+    private final File file;
+    private final StockLevelIndex index;
+    private final BufferedWriter out;
+    private long sequence;
+    private IOException failure;
+
+    public ReplenishmentFeed(File file, StockLevelIndex index) throws IOException {
+        this.file = file;
+        this.index = index;
+        boolean fresh = !file.exists() || file.length() == 0;
+        sequence = fresh ? 0 : lastSequence(file);
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        if (fresh) {
+            out.write(HEADER);
+            out.newLine();
+        } else if (!endsWithNewline(file)) {
+            // A line cut short by a crash is left as it is, on a line of its own
+            out.newLine();
+        }
+        synchronized (index) {
+            for (Product product : index.belowThreshold()) {
+                write(product, index.levelOf(product.getId()), product.getQuantity(),
+                        index.getReorderPoint(product.getId()), index.getReorderQuantity(product.getId()));
+            }
+            flush();
+            index.addListener(this);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Sequence number of the last line written
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    // First write error, if any; writing stops after it
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public synchronized void levelChanged(Product product, StockLevelIndex.Level from, StockLevelIndex.Level to,
+                                          int stock, int reorderPoint, int reorderQuantity) {
+        write(product, to, stock, reorderPoint, reorderQuantity);
+        flush();
+    }
+
+    private void write(Product product, StockLevelIndex.Level level, int stock, int reorderPoint,
+                       int reorderQuantity) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            out.write(++sequence + "," + Instant.now() + "," + level + "," + csv(product.getId()) + ","
+                    + csv(product.getName()) + "," + stock + "," + reorderPoint + "," + reorderQuantity);
+            out.newLine();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void flush() {
+        if (failure != null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        failure = e;
+        System.err.println("Replenishment feed " + file + " stopped: " + e);
+    }
+
+    private static String csv(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    // Sequence number of the last line of an existing feed; only its tail is read
+    private static long lastSequence(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            int size = (int) Math.min(length, 4096);
+            byte[] tail = new byte[size];
+            in.seek(length - size);
+            in.readFully(tail);
+            String[] lines = new String(tail, StandardCharsets.UTF_8).split("\n");
+            for (int i = lines.length - 1; i >= 0; i--) {
+                String line = lines[i].trim();
+                int comma = line.indexOf(',');
+                if (comma > 0) {
+                    try {
+                        return Long.parseLong(line.substring(0, comma));
+                    } catch (NumberFormatException e) {
+                        // The header, or a line cut short by a crash
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.removeListener(this);
+        synchronized (this) {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,745 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Running sales totals since the last Z-report, updated by BillingEngine.checkout as each sale
+// commits, so end-of-day figures never need the receipts read back.
+// Per SKU, in primitive arrays indexed by an ordinal given to each SKU on its first sale:
+//   units[ordinal], grossCents[ordinal], savingsCents[ordinal] - longs
+//   typeLines[ordinal * typeStride + type]                     - lines sold under each discount type
+// savingsCents is the SKU's share of the promotions and the checkout discount of each receipt,
+// split by line value. Besides the SKU columns there are totals per discount type, per promotion
+// and per hour of local time. A report copies only those small totals, so it does not grow with
+// the catalog; top sellers is one pass over the SKU columns.
+// Money is kept in cents. Every method is synchronized; recording a receipt is a few array
+// updates per line.
+public class SalesLedger {
+    public static final int DEFAULT_TOP = 10;
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    // Journal receipts, or receipt files, handed to one rebuild thread at a time
+    private static final int JOURNAL_SLICE = 4096;
+    private static final int FILE_SLICE = 256;
+
+    public enum Measure { UNITS, REVENUE }
+
+    private final ZoneId zone;
+    private long periodStart;
+
+    private final HashMap<String, Integer> ordinals = new HashMap<>();
+    private String[] ids = new String[64];
+    private String[] names = new String[64];
+    private long[] units = new long[64];
+    private long[] grossCents = new long[64];
+    private long[] savingsCents = new long[64];
+    private int[] typeLines;
+    private int typeStride = 8;
+    private int skuCount;
+
+    private final Tally discounts = new Tally();
+    private final Tally promotions = new Tally();
+
+    // Hour h of local time is slot h - firstHour
+    private long firstHour;
+    private int hourCount;
+    private long[] hourReceipts = new long[24];
+    private long[] hourUnits = new long[24];
+    private long[] hourGrossCents = new long[24];
+    private long[] hourNetCents = new long[24];
+
+    private long receipts;
+    private long lines;
+    private long totalUnits;
+    private long totalGrossCents;
+    private long totalPromotionCents;
+    private long totalDiscountCents;
+
+    public SalesLedger(long periodStart) {
+        this(periodStart, ZoneId.systemDefault());
+    }
+
+    // zone decides where the hours of the hourly totals begin
+    public SalesLedger(long periodStart, ZoneId zone) {
+        this.periodStart = periodStart;
+        this.zone = zone;
+        typeLines = new int[ids.length * typeStride];
+    }
+
+    public synchronized long getPeriodStart() {
+        return periodStart;
+    }
+
+    public synchronized long getReceiptCount() {
+        return receipts;
+    }
+
+    public synchronized int getSkuCount() {
+        return skuCount;
+    }
+
+    // Add a completed sale
+    public synchronized void record(Receipt receipt) {
+        List<Product> items = receipt.getItems();
+        int type = discounts.indexOf(discountType(receipt.getDiscountName()));
+        if (type >= typeStride) {
+            widenTypes();
+        }
+
+        long subtotal = 0;
+        long receiptUnits = 0;
+        for (Product item : items) {
+            subtotal += lineCents(item);
+            receiptUnits += item.getQuantity();
+        }
+        long promotion = 0;
+        for (Receipt.Promotion applied : receipt.getPromotions()) {
+            long cents = toCents(applied.getAmount());
+            promotions.add(promotions.indexOf(applied.getName()), 1, cents);
+            promotion += cents;
+        }
+        // The same sum the receipt prints
+        long discount = receipt.getDiscountCents();
+        discounts.add(type, 1, discount);
+
+        // Each line gets the savings up to the end of the line less what the lines before it got,
+        // so the shares add up to the savings exactly
+        long savings = promotion + discount;
+        long running = 0;
+        long allocated = 0;
+        for (Product item : items) {
+            long line = lineCents(item);
+            running += line;
+            long share = subtotal == 0 ? 0 : savings * running / subtotal - allocated;
+            allocated += share;
+
+            int sku = ordinal(item.getId(), item.getName());
+            units[sku] += item.getQuantity();
+            grossCents[sku] += line;
+            savingsCents[sku] += share;
+            typeLines[sku * typeStride + type]++;
+        }
+
+        int hour = hourSlot(receipt.getTimestamp());
+        hourReceipts[hour]++;
+        hourUnits[hour] += receiptUnits;
+        hourGrossCents[hour] += subtotal;
+        hourNetCents[hour] += subtotal - savings;
+
+        receipts++;
+        lines += items.size();
+        totalUnits += receiptUnits;
+        totalGrossCents += subtotal;
+        totalPromotionCents += promotion;
+        totalDiscountCents += discount;
+    }
+
+    // Add the totals of another ledger, e.g. one built from another slice of the receipts
+    public synchronized void merge(SalesLedger other) {
+        synchronized (other) {
+            int[] typeMap = new int[other.discounts.count];
+            for (int t = 0; t < typeMap.length; t++) {
+                typeMap[t] = discounts.indexOf(other.discounts.names[t]);
+                if (typeMap[t] >= typeStride) {
+                    widenTypes();
+                }
+                discounts.add(typeMap[t], other.discounts.receipts[t], other.discounts.cents[t]);
+            }
+            for (int p = 0; p < other.promotions.count; p++) {
+                promotions.add(promotions.indexOf(other.promotions.names[p]),
+                        other.promotions.receipts[p], other.promotions.cents[p]);
+            }
+            for (int o = 0; o < other.skuCount; o++) {
+                int sku = ordinal(other.ids[o], other.names[o]);
+                units[sku] += other.units[o];
+                grossCents[sku] += other.grossCents[o];
+                savingsCents[sku] += other.savingsCents[o];
+                for (int t = 0; t < typeMap.length; t++) {
+                    typeLines[sku * typeStride + typeMap[t]] += other.typeLines[o * other.typeStride + t];
+                }
+            }
+            for (int h = 0; h < other.hourCount; h++) {
+                if (other.hourReceipts[h] == 0) {
+                    continue;
+                }
+                int hour = slotOf(other.firstHour + h);
+                hourReceipts[hour] += other.hourReceipts[h];
+                hourUnits[hour] += other.hourUnits[h];
+                hourGrossCents[hour] += other.hourGrossCents[h];
+                hourNetCents[hour] += other.hourNetCents[h];
+            }
+            receipts += other.receipts;
+            lines += other.lines;
+            totalUnits += other.totalUnits;
+            totalGrossCents += other.totalGrossCents;
+            totalPromotionCents += other.totalPromotionCents;
+            totalDiscountCents += other.totalDiscountCents;
+        }
+    }
+
+    // X-report: the totals so far, the ledger carries on
+    public synchronized Report report() {
+        return new Report(this, System.currentTimeMillis(), false);
+    }
+
+    // Z-report: the totals so far, then start a new period at the time of the report
+    public synchronized Report closePeriod() {
+        Report report = new Report(this, System.currentTimeMillis(), true);
+        reset(report.getPeriodEnd());
+        return report;
+    }
+
+    private void reset(long newPeriodStart) {
+        periodStart = newPeriodStart;
+        ordinals.clear();
+        Arrays.fill(ids, 0, skuCount, null);
+        Arrays.fill(names, 0, skuCount, null);
+        Arrays.fill(units, 0, skuCount, 0);
+        Arrays.fill(grossCents, 0, skuCount, 0);
+        Arrays.fill(savingsCents, 0, skuCount, 0);
+        Arrays.fill(typeLines, 0, skuCount * typeStride, 0);
+        skuCount = 0;
+        discounts.clear();
+        promotions.clear();
+        Arrays.fill(hourReceipts, 0, hourCount, 0);
+        Arrays.fill(hourUnits, 0, hourCount, 0);
+        Arrays.fill(hourGrossCents, 0, hourCount, 0);
+        Arrays.fill(hourNetCents, 0, hourCount, 0);
+        hourCount = 0;
+        receipts = 0;
+        lines = 0;
+        totalUnits = 0;
+        totalGrossCents = 0;
+        totalPromotionCents = 0;
+        totalDiscountCents = 0;
+    }
+
+    // Totals of one SKU, or null if it has not sold this period
+    public synchronized SkuTotal getSku(String id) {
+        Integer sku = ordinals.get(id);
+        return sku == null ? null : skuTotal(sku);
+    }
+
+    // The limit best-selling SKUs, best first; ties go to the SKU that sold first
+    public synchronized List<SkuTotal> topSellers(int limit, Measure measure) {
+        // Min-heap of ordinals holding the best limit seen so far; its root is the one to beat
+        int[] heap = new int[Math.max(0, Math.min(limit, skuCount))];
+        int size = 0;
+        for (int sku = 0; sku < skuCount && heap.length > 0; sku++) {
+            if (size < heap.length) {
+                heap[size] = sku;
+                siftUp(heap, size++, measure);
+            } else if (better(sku, heap[0], measure)) {
+                heap[0] = sku;
+                siftDown(heap, size, measure);
+            }
+        }
+        List<SkuTotal> top = new ArrayList<>(size);
+        while (size > 0) {
+            top.add(skuTotal(heap[0]));
+            heap[0] = heap[--size];
+            siftDown(heap, size, measure);
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    private long measureOf(int sku, Measure measure) {
+        return measure == Measure.UNITS ? units[sku] : grossCents[sku] - savingsCents[sku];
+    }
+
+    // Whether a ranks above b
+    private boolean better(int a, int b, Measure measure) {
+        long valueA = measureOf(a, measure);
+        long valueB = measureOf(b, measure);
+        return valueA != valueB ? valueA > valueB : a < b;
+    }
+
+    private void siftUp(int[] heap, int position, Measure measure) {
+        int sku = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!better(heap[parent], sku, measure)) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = sku;
+    }
+
+    private void siftDown(int[] heap, int size, Measure measure) {
+        if (size == 0) {
+            return;
+        }
+        int sku = heap[0];
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && better(heap[child], heap[child + 1], measure)) {
+                child++;
+            }
+            if (!better(sku, heap[child], measure)) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = sku;
+    }
+
+    private SkuTotal skuTotal(int sku) {
+        Map<String, Integer> byDiscount = new LinkedHashMap<>();
+        for (int t = 0; t < discounts.count; t++) {
+            int count = typeLines[sku * typeStride + t];
+            if (count > 0) {
+                byDiscount.put(discounts.names[t], count);
+            }
+        }
+        return new SkuTotal(ids[sku], names[sku], units[sku], grossCents[sku], savingsCents[sku], byDiscount);
+    }
+
+    private int ordinal(String id, String name) {
+        Integer known = ordinals.get(id);
+        if (known != null) {
+            names[known] = name;
+            return known;
+        }
+        if (skuCount == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            units = Arrays.copyOf(units, capacity);
+            grossCents = Arrays.copyOf(grossCents, capacity);
+            savingsCents = Arrays.copyOf(savingsCents, capacity);
+            typeLines = Arrays.copyOf(typeLines, capacity * typeStride);
+        }
+        int sku = skuCount++;
+        ids[sku] = id;
+        names[sku] = name;
+        ordinals.put(id, sku);
+        return sku;
+    }
+
+    // More discount types than columns: double the columns of every SKU row
+    private void widenTypes() {
+        int stride = typeStride * 2;
+        int[] wider = new int[ids.length * stride];
+        for (int sku = 0; sku < skuCount; sku++) {
+            System.arraycopy(typeLines, sku * typeStride, wider, sku * stride, typeStride);
+        }
+        typeLines = wider;
+        typeStride = stride;
+    }
+
+    private int hourSlot(long timestamp) {
+        long hour = Math.floorDiv(timestamp + zone.getRules().getOffset(Instant.ofEpochMilli(timestamp))
+                .getTotalSeconds() * 1000L, HOUR_MILLIS);
+        return slotOf(hour);
+    }
+
+    private int slotOf(long hour) {
+        if (hourCount == 0) {
+            firstHour = hour;
+            hourCount = 1;
+            return 0;
+        }
+        if (hour < firstHour) {
+            // A rebuild can meet an older receipt after newer ones: move the slots up
+            int shift = Math.toIntExact(firstHour - hour);
+            ensureHours(hourCount + shift);
+            for (long[] column : new long[][] {hourReceipts, hourUnits, hourGrossCents, hourNetCents}) {
+                System.arraycopy(column, 0, column, shift, hourCount);
+                Arrays.fill(column, 0, shift, 0);
+            }
+            firstHour = hour;
+            hourCount += shift;
+            return 0;
+        }
+        int slot = Math.toIntExact(hour - firstHour);
+        if (slot >= hourCount) {
+            ensureHours(slot + 1);
+            hourCount = slot + 1;
+        }
+        return slot;
+    }
+
+    private void ensureHours(int count) {
+        if (count > hourReceipts.length) {
+            int capacity = Math.max(count, hourReceipts.length * 2);
+            hourReceipts = Arrays.copyOf(hourReceipts, capacity);
+            hourUnits = Arrays.copyOf(hourUnits, capacity);
+            hourGrossCents = Arrays.copyOf(hourGrossCents, capacity);
+            hourNetCents = Arrays.copyOf(hourNetCents, capacity);
+        }
+    }
+
+    // "Senior Citizen (10.0%)" and "Senior Citizen" are the same type, as the receipt prints it
+    static String discountType(String discountName) {
+        int open = discountName.indexOf('(');
+        return (open < 0 ? discountName : discountName.substring(0, open)).trim();
+    }
+
+    private static long lineCents(Product item) {
+        return toCents(item.getPrice()) * item.getQuantity();
+    }
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // Totals of every journal receipt with fromMillis <= timestamp. Slices of the journal are
+    // decoded and added up on threads threads, each into its own ledger, and the ledgers are
+    // merged at the end.
+    public static SalesLedger rebuild(ReceiptJournal journal, long fromMillis, int threads) throws IOException {
+        int[] sizes = journal.getSegmentSizes();
+        List<int[]> slices = new ArrayList<>();
+        for (int segment = 0; segment < sizes.length; segment++) {
+            for (int from = 0; from < sizes[segment]; from += JOURNAL_SLICE) {
+                slices.add(new int[] {segment, from, Math.min(from + JOURNAL_SLICE, sizes[segment])});
+            }
+        }
+        return rebuild(fromMillis, threads, slices.size(), slice -> {
+            int[] range = slices.get(slice);
+            return journal.readEntries(range[0], range[1], range[2], fromMillis);
+        });
+    }
+
+    // Totals of the receipt_N.txt files of a directory with fromMillis <= timestamp, parsed on
+    // threads threads. Files that do not parse are skipped and described in errors, if it is not null.
+    public static SalesLedger rebuild(File directory, ReceiptParser parser, long fromMillis, int threads,
+                                      List<String> errors) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("receipt_") && name.endsWith(".txt"));
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        List<String> problems = Collections.synchronizedList(new ArrayList<>());
+        int slices = (files.length + FILE_SLICE - 1) / FILE_SLICE;
+        SalesLedger ledger = rebuild(fromMillis, threads, slices, slice -> {
+            List<Receipt> parsed = new ArrayList<>(FILE_SLICE);
+            for (int i = slice * FILE_SLICE; i < Math.min((slice + 1) * FILE_SLICE, files.length); i++) {
+                try {
+                    Receipt receipt = parser.parse(files[i]);
+                    if (receipt.getTimestamp() >= fromMillis) {
+                        parsed.add(receipt);
+                    }
+                } catch (ParseException e) {
+                    problems.add(files[i].getName() + " line " + e.getErrorOffset() + ": " + e.getMessage());
+                }
+            }
+            return parsed;
+        });
+        if (errors != null) {
+            Collections.sort(problems);
+            errors.addAll(problems);
+        }
+        return ledger;
+    }
+
+    private interface SliceReader {
+        List<Receipt> read(int slice) throws IOException;
+    }
+
+    private static SalesLedger rebuild(long fromMillis, int threads, int sliceCount, SliceReader reader)
+            throws IOException {
+        int workers = Math.max(1, Math.min(threads, sliceCount));
+        AtomicInteger next = new AtomicInteger();
+        List<Callable<SalesLedger>> tasks = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            tasks.add(() -> {
+                SalesLedger partial = new SalesLedger(fromMillis);
+                for (int slice = next.getAndIncrement(); slice < sliceCount; slice = next.getAndIncrement()) {
+                    for (Receipt receipt : reader.read(slice)) {
+                        partial.record(receipt);
+                    }
+                }
+                return partial;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "ledger-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            SalesLedger ledger = new SalesLedger(fromMillis);
+            for (Future<SalesLedger> partial : pool.invokeAll(tasks)) {
+                ledger.merge(partial.get());
+            }
+            return ledger;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rebuilding the sales ledger", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Start of the period recorded by savePeriodStart, or 0 (all receipts) if there is none
+    public static long loadPeriodStart(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad sales period in " + file + ": " + text);
+        }
+    }
+
+    // Written to a temporary file and renamed, so a crash leaves the old or the new value
+    public static void savePeriodStart(File file, long periodStart) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        Files.write(temporary.toPath(), Long.toString(periodStart).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Receipts and amount of one discount type or promotion
+    public static class Total {
+        private final String name;
+        private final long receipts;
+        private final long cents;
+
+        Total(String name, long receipts, long cents) {
+            this.name = name;
+            this.receipts = receipts;
+            this.cents = cents;
+        }
+
+        public String getName() { return name; }
+        public long getReceipts() { return receipts; }
+        public long getCents() { return cents; }
+    }
+
+    // Sales of one hour of local time
+    public static class HourTotal {
+        private final long start;
+        private final long receipts;
+        private final long units;
+        private final long grossCents;
+        private final long netCents;
+
+        HourTotal(long start, long receipts, long units, long grossCents, long netCents) {
+            this.start = start;
+            this.receipts = receipts;
+            this.units = units;
+            this.grossCents = grossCents;
+            this.netCents = netCents;
+        }
+
+        // Start of the hour, epoch milliseconds
+        public long getStart() { return start; }
+        public long getReceipts() { return receipts; }
+        public long getUnits() { return units; }
+        public long getGrossCents() { return grossCents; }
+        public long getNetCents() { return netCents; }
+    }
+
+    public static class SkuTotal {
+        private final String id;
+        private final String name;
+        private final long units;
+        private final long grossCents;
+        private final long savingsCents;
+        private final Map<String, Integer> linesByDiscount;
+
+        SkuTotal(String id, String name, long units, long grossCents, long savingsCents,
+                 Map<String, Integer> linesByDiscount) {
+            this.id = id;
+            this.name = name;
+            this.units = units;
+            this.grossCents = grossCents;
+            this.savingsCents = savingsCents;
+            this.linesByDiscount = Collections.unmodifiableMap(linesByDiscount);
+        }
+
+        public String getId() { return id; }
+        public String getName() { return name; }
+        public long getUnits() { return units; }
+        public long getGrossCents() { return grossCents; }
+        // Share of promotions and discounts
+        public long getSavingsCents() { return savingsCents; }
+        public long getNetCents() { return grossCents - savingsCents; }
+        // Lines sold under each discount type, e.g. "None" -> 12, "Senior Citizen" -> 3
+        public Map<String, Integer> getLinesByDiscount() { return linesByDiscount; }
+    }
+
+    // X- or Z-report: the totals of a period
+    public static class Report {
+        private final boolean closing;
+        private final long periodStart;
+        private final long periodEnd;
+        private final long receipts;
+        private final long lines;
+        private final long units;
+        private final long grossCents;
+        private final long promotionCents;
+        private final long discountCents;
+        private final List<Total> discounts;
+        private final List<Total> promotions;
+        private final List<HourTotal> hours;
+
+        Report(SalesLedger ledger, long periodEnd, boolean closing) {
+            this.closing = closing;
+            this.periodStart = ledger.periodStart;
+            this.periodEnd = periodEnd;
+            this.receipts = ledger.receipts;
+            this.lines = ledger.lines;
+            this.units = ledger.totalUnits;
+            this.grossCents = ledger.totalGrossCents;
+            this.promotionCents = ledger.totalPromotionCents;
+            this.discountCents = ledger.totalDiscountCents;
+            this.discounts = ledger.discounts.totals();
+            this.promotions = ledger.promotions.totals();
+            List<HourTotal> hours = new ArrayList<>();
+            for (int h = 0; h < ledger.hourCount; h++) {
+                if (ledger.hourReceipts[h] > 0) {
+                    long localStart = (ledger.firstHour + h) * HOUR_MILLIS;
+                    long start = localStart - ledger.zone.getRules().getOffset(Instant.ofEpochMilli(localStart))
+                            .getTotalSeconds() * 1000L;
+                    hours.add(new HourTotal(start, ledger.hourReceipts[h], ledger.hourUnits[h],
+                            ledger.hourGrossCents[h], ledger.hourNetCents[h]));
+                }
+            }
+            this.hours = Collections.unmodifiableList(hours);
+        }
+
+        // Whether this report closed the period (Z-report) or only read it (X-report)
+        public boolean isClosing() { return closing; }
+        public long getPeriodStart() { return periodStart; }
+        public long getPeriodEnd() { return periodEnd; }
+        public long getReceipts() { return receipts; }
+        public long getLines() { return lines; }
+        public long getUnits() { return units; }
+        public long getGrossCents() { return grossCents; }
+        public long getPromotionCents() { return promotionCents; }
+        public long getDiscountCents() { return discountCents; }
+        public long getNetCents() { return grossCents - promotionCents - discountCents; }
+        public List<Total> getDiscounts() { return discounts; }
+        public List<Total> getPromotions() { return promotions; }
+        public List<HourTotal> getHours() { return hours; }
+
+        public String format() {
+            String currency = ReceiptLayout.DEFAULT.getCurrency();
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            SimpleDateFormat hourFormat = new SimpleDateFormat("yyyy-MM-dd HH:00");
+            StringBuilder text = new StringBuilder();
+            text.append("====================================\n");
+            text.append(closing ? "              Z-REPORT              \n" : "              X-REPORT              \n");
+            text.append("====================================\n\n");
+            text.append("From: ").append(dateFormat.format(new Date(periodStart))).append("\n");
+            text.append("To:   ").append(dateFormat.format(new Date(periodEnd))).append("\n\n");
+
+            text.append(String.format("Receipts:          %d\n", receipts));
+            text.append(String.format("Lines:             %d\n", lines));
+            text.append(String.format("Units:             %d\n", units));
+            text.append(String.format("Gross sales:       %s%s\n", currency, money(grossCents)));
+            text.append(String.format("Promotions:       -%s%s\n", currency, money(promotionCents)));
+            text.append(String.format("Discounts:        -%s%s\n", currency, money(discountCents)));
+            text.append(String.format("NET SALES:         %s%s\n\n", currency, money(getNetCents())));
+
+            text.append("DISCOUNTS:\n");
+            for (Total total : discounts) {
+                text.append(String.format("%-20s %8d  -%s%s\n", total.getName(), total.getReceipts(),
+                        currency, money(total.getCents())));
+            }
+            if (!promotions.isEmpty()) {
+                text.append("\nPROMOTIONS:\n");
+                for (Total total : promotions) {
+                    text.append(String.format("%-20s %8d  -%s%s\n", total.getName(), total.getReceipts(),
+                            currency, money(total.getCents())));
+                }
+            }
+            text.append("\nBY HOUR:\n");
+            for (HourTotal hour : hours) {
+                text.append(String.format("%-16s %8d %8d  %s%s\n", hourFormat.format(new Date(hour.getStart())),
+                        hour.getReceipts(), hour.getUnits(), currency, money(hour.getNetCents())));
+            }
+            text.append("====================================\n");
+            return text.toString();
+        }
+    }
+
+    static String money(long cents) {
+        return String.format("%.2f", cents / 100.0);
+    }
+
+    // Receipts and cents per name, in order of first appearance
+    private static class Tally {
+        final HashMap<String, Integer> indexes = new HashMap<>();
+        String[] names = new String[8];
+        long[] receipts = new long[8];
+        long[] cents = new long[8];
+        int count;
+
+        int indexOf(String name) {
+            Integer known = indexes.get(name);
+            if (known != null) {
+                return known;
+            }
+            if (count == names.length) {
+                names = Arrays.copyOf(names, count * 2);
+                receipts = Arrays.copyOf(receipts, count * 2);
+                cents = Arrays.copyOf(cents, count * 2);
+            }
+            names[count] = name;
+            indexes.put(name, count);
+            return count++;
+        }
+
+        void add(int index, long receiptCount, long amount) {
+            receipts[index] += receiptCount;
+            cents[index] += amount;
+        }
+
+        List<Total> totals() {
+            List<Total> totals = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                totals.add(new Total(names[i], receipts[i], cents[i]));
+            }
+            return Collections.unmodifiableList(totals);
+        }
+
+        void clear() {
+            indexes.clear();
+            Arrays.fill(names, 0, count, null);
+            Arrays.fill(receipts, 0, count, 0);
+            Arrays.fill(cents, 0, count, 0);
+            count = 0;
+        }
+    }
+}
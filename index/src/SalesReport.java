@@ -0,0 +1,80 @@
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line tool that adds up past sales into an X-report plus the top sellers, rebuilding a
+// SalesLedger from the journal or from receipt_N.txt files on all CPUs.
+//
+// Usage:
+//   SalesReport <journal dir> [--since yyyy-MM-dd] [--top N] [--threads N]
+//   SalesReport --receipts <receipt dir> [--since yyyy-MM-dd] [--top N] [--threads N]
+public class SalesReport {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SalesReport (<journal dir> | --receipts <receipt dir>) "
+                    + "[--since yyyy-MM-dd] [--top N] [--threads N]");
+            System.exit(2);
+        }
+
+        File journalDirectory = null;
+        File receiptDirectory = null;
+        long since = 0;
+        int top = SalesLedger.DEFAULT_TOP;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--receipts":
+                    receiptDirectory = new File(args[++i]);
+                    break;
+                case "--since":
+                    since = parseDay(args[++i]);
+                    break;
+                case "--top":
+                    top = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    journalDirectory = new File(args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        SalesLedger ledger;
+        List<String> errors = new ArrayList<>();
+        if (receiptDirectory != null) {
+            ledger = SalesLedger.rebuild(receiptDirectory, new ReceiptParser(), since, threads, errors);
+        } else {
+            try (ReceiptJournal journal = ReceiptJournal.openReadOnly(journalDirectory)) {
+                ledger = SalesLedger.rebuild(journal, since, threads);
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        for (String error : errors) {
+            System.err.println("Skipped " + error);
+        }
+        System.out.print(ledger.report().format());
+        for (SalesLedger.Measure measure : SalesLedger.Measure.values()) {
+            System.out.println("\nTOP " + top + " BY " + measure + ":");
+            for (SalesLedger.SkuTotal sku : ledger.topSellers(top, measure)) {
+                System.out.println(String.format("%-8s %-24s %8d  %s%s", sku.getId(), sku.getName(), sku.getUnits(),
+                        ReceiptLayout.DEFAULT.getCurrency(), SalesLedger.money(sku.getNetCents())));
+            }
+        }
+        System.out.println("\n" + ledger.getReceiptCount() + " receipt(s) added up in " + millis + " ms on "
+                + threads + " thread(s)");
+    }
+
+    private static long parseDay(String day) {
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd").parse(day).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + day);
+        }
+    }
+}
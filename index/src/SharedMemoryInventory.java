@@ -0,0 +1,631 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// Stock counters shared by every lane process of one store server, in a memory-mapped file.
+// stock.shm is a fixed table of slots, one per SKU, found by linear probing on the id hash:
+//   header  magic, version, slot count (64 bytes)
+//   slot    state, id hash, stock, id length, id (UTF-8, up to MAX_ID_BYTES) - 64 bytes, one cache line
+// Every process maps the same file, so a lane sees the others' sales at once. Stock moves by
+// compare-and-set through a VarHandle on the mapped buffer, the same lock-free retry as
+// Product.compareAndSetQuantity, so lanes in different JVMs never oversell. A SKU is added by
+// claiming an empty slot with CAS, writing the id and then publishing the slot.
+//
+// Crash recovery: each process also maps its own lane file, lane_<terminal>.res, counting per
+// slot the units its carts hold but have not sold, and keeps an exclusive lock on it while it
+// runs. The operating system drops the lock when a process dies, so a process that can lock
+// another terminal's lane file knows that lane is gone and gives its units back to stock
+// (recoverLanes: on open, then every RECOVERY_INTERVAL_MILLIS). Stock is taken before the lane
+// file counts it and a count is struck before stock is returned, so a crash at the wrong instant
+// can lose the units of one line but never hand them out twice. A slot left half-claimed by a
+// dead process is marked dead and skipped.
+//
+// The file outlives crashed processes, not a crashed machine: it is forced to disk every
+// FLUSH_INTERVAL_MILLIS and on close. It is still the authority for stock after a machine
+// crash: share() keeps the count of every SKU already in the table, so lanes restart from the
+// last forced counts and up to FLUSH_INTERVAL_MILLIS of sales are lost. Each lane keeps its
+// own InventoryStore (BillingEngine.open gives it its own directory) for its products and
+// prices; the stock logged there only counts for SKUs the table does not hold yet, such as
+// after stock.shm itself is lost.
+//
+// Price overrides are shared through prices.log: every PRICES_CHANGING of this lane is appended
+// to it as [length][crc32][terminal, id, cents], under a lock on the file, and every
+// PRICE_POLL_INTERVAL_MILLIS each lane applies the records of the other terminals appended since
+// it last looked (applyPrices: they are logged by its own store but not appended again). The
+// offset read up to is kept in the lane file and moved on one poll late, once the lane's store
+// has written the prices it applied; a lane that restarts applies again what it may have lost.
+public class SharedMemoryInventory implements BillingListener, AutoCloseable {
+    public static final int DEFAULT_SLOTS = 1 << 20;
+    public static final int MAX_ID_BYTES = 48;
+    public static final long RECOVERY_INTERVAL_MILLIS = 1000;
+    public static final long FLUSH_INTERVAL_MILLIS = 1000;
+    public static final long PRICE_POLL_INTERVAL_MILLIS = 1000;
+
+    private static final int MAGIC = 0x53484d49; // "SHMI"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int SLOT = 64;
+    private static final int LANE_MAGIC = 0x4c414e45; // "LANE"
+
+    // Slot states; a slot being claimed holds -(terminal + 1)
+    private static final int EMPTY = 0;
+    private static final int READY = 1;
+    private static final int DEAD = 2;
+
+    private static final int STATE = 0, HASH = 4, STOCK = 8, ID_LENGTH = 12, ID = 16;
+    // Lane file header: magic, slot count, whether it may hold units, slot being claimed + 1,
+    // offset of prices.log applied up to
+    private static final int LANE_ACTIVE = 8, LANE_CLAIMING = 12, LANE_PRICES = 16;
+    // Longest prices.log record: terminal, id of MAX_ID_BYTES, cents
+    private static final int MAX_PRICE_RECORD = 4 + 2 + MAX_ID_BYTES + 8;
+    // Lanes of one JVM append through channels of their own; a JVM may hold one lock on a file
+    private static final Object PRICE_LOG_LOCK = new Object();
+    private static final int CLAIM_SPINS = 1 << 20;
+    private static final Pattern LANE_FILE = Pattern.compile("lane_(\\d+)\\.res");
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final File directory;
+    private final int terminal;
+    private final int slotCount;
+    private final FileChannel channel;
+    private final MappedByteBuffer table;
+    private final FileChannel laneChannel;
+    private final FileLock laneLock;
+    private final MappedByteBuffer lane;
+    private final FileChannel priceLog;
+    private final ScheduledExecutorService maintenance;
+    private volatile ProductCatalog catalog;
+    // The thread publishing prices from prices.log, whose changes are not appended again
+    private volatile Thread applying;
+    // Offset of prices.log read up to, and the one to keep in the lane file at the next poll;
+    // used by the maintenance thread only
+    private long priceOffset;
+    private long priceOffsetToKeep;
+
+    public SharedMemoryInventory(File directory, int terminal) throws IOException {
+        this(directory, terminal, DEFAULT_SLOTS);
+    }
+
+    // slots: size of the table if this process creates it (rounded up to a power of two);
+    // a table that already exists keeps its size
+    public SharedMemoryInventory(File directory, int terminal, int slots) throws IOException {
+        this.directory = directory;
+        this.terminal = terminal;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create shared inventory directory " + directory);
+        }
+
+        channel = FileChannel.open(new File(directory, "stock.shm").toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Whoever gets here first sizes the table; the others wait and take its size
+            FileLock headerLock = channel.lock(0, HEADER, false);
+            try {
+                if (channel.size() == 0) {
+                    int size = Integer.highestOneBit(Math.max(slots, 16) - 1) << 1;
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+                    header.order(ByteOrder.nativeOrder());
+                    header.putInt(4, VERSION).putInt(8, size);
+                    channel.write(ByteBuffer.allocate(1), HEADER + (long) size * SLOT - 1);
+                    header.putInt(0, MAGIC);
+                    header.force();
+                }
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+                header.order(ByteOrder.nativeOrder());
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException(new File(directory, "stock.shm") + " is not a shared inventory");
+                }
+                slotCount = header.getInt(8);
+            } finally {
+                headerLock.release();
+            }
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) slotCount * SLOT);
+            table.order(ByteOrder.nativeOrder());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        File laneFile = new File(directory, "lane_" + terminal + ".res");
+        laneChannel = FileChannel.open(laneFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            laneLock = lockLane(laneChannel, 20);
+            if (laneLock == null) {
+                throw new IOException("Terminal " + terminal + " is already attached to " + directory);
+            }
+            lane = mapLane(laneChannel, slotCount);
+        } catch (IOException | RuntimeException e) {
+            laneChannel.close();
+            channel.close();
+            throw e;
+        }
+        try {
+            priceLog = FileChannel.open(new File(directory, "prices.log").toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            laneChannel.close();
+            channel.close();
+            throw e;
+        }
+        priceOffset = lane.getLong(LANE_PRICES);
+        priceOffsetToKeep = priceOffset;
+        // Units this terminal held when it last stopped belong to carts that no longer exist
+        giveBack(lane, terminal);
+        INT.setVolatile(lane, LANE_ACTIVE, 1);
+        recoverLanes();
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shared-inventory");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::recoverLanesQuietly, RECOVERY_INTERVAL_MILLIS,
+                RECOVERY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::force, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::pollPricesQuietly, PRICE_POLL_INTERVAL_MILLIS,
+                PRICE_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public int getTerminal() {
+        return terminal;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    // Move the stock of every catalog product into the shared table. A SKU already there keeps
+    // the shared count (another lane put it there); a new one starts at the product's quantity.
+    // Products added or replaced in the catalog later are moved over too, and take the quantity
+    // they were given.
+    public void share(ProductCatalog catalog) {
+        this.catalog = catalog;
+        List<Product> shared = new ArrayList<>();
+        for (Product product : catalog.snapshot()) {
+            shared.add(product instanceof SharedProduct ? product : attach(product, false));
+        }
+        catalog.setTracksReservations(true);
+        catalog.putAll(shared);
+        catalog.getEvents().subscribe(this);
+    }
+
+    @Override
+    public void billingChanged(BillingEvent event) {
+        if (event.getType() == BillingEvent.Type.PRICES_CHANGING) {
+            if (applying != Thread.currentThread()) {
+                appendPrices(event.getProducts());
+            }
+            return;
+        }
+        if (event.getType() != BillingEvent.Type.PRODUCTS_UPSERTED) {
+            return;
+        }
+        // One upsert for the whole batch, as share() does
+        List<Product> attached = new ArrayList<>();
+        for (Product product : event.getProducts()) {
+            if (!(product instanceof SharedProduct)) {
+                attached.add(attach(product, true));
+            }
+        }
+        if (!attached.isEmpty()) {
+            catalog.putAll(attached);
+        }
+    }
+
+    // Publish prices in this lane's catalog without passing them on to the other lanes, as for
+    // prices that came from them or that this lane's store kept over a restart
+    public void applyPrices(Map<String, Double> prices) {
+        applying = Thread.currentThread();
+        try {
+            catalog.getPrices().publish(prices);
+        } finally {
+            applying = null;
+        }
+    }
+
+    private void appendPrices(List<Product> repriced) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(MAX_PRICE_RECORD);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        CRC32 crc = new CRC32();
+        try {
+            for (Product product : repriced) {
+                payloadBytes.reset();
+                payload.writeInt(terminal);
+                payload.writeUTF(product.getId());
+                payload.writeLong(Math.round(product.getPrice() * 100));
+                crc.reset();
+                crc.update(payloadBytes.toByteArray());
+                DataOutputStream record = new DataOutputStream(bytes);
+                record.writeInt(payloadBytes.size());
+                record.writeInt((int) crc.getValue());
+                payloadBytes.writeTo(bytes);
+            }
+            // One write per change under the lock, so records of two lanes never interleave
+            synchronized (PRICE_LOG_LOCK) {
+                FileLock lock = priceLog.lock();
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                    long position = priceLog.size();
+                    while (buffer.hasRemaining()) {
+                        position += priceLog.write(buffer, position);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Shared inventory: could not pass price changes on to the other lanes: " + e);
+        }
+    }
+
+    // Apply the price changes other lanes appended to prices.log since the last poll
+    private void pollPrices() throws IOException {
+        ProductCatalog catalog = this.catalog;
+        if (catalog == null) {
+            return;
+        }
+        // What was applied at the last poll has been written by this lane's store since
+        if (priceOffsetToKeep != lane.getLong(LANE_PRICES)) {
+            lane.putLong(LANE_PRICES, priceOffsetToKeep);
+        }
+        long size = priceLog.size();
+        if (size <= priceOffset) {
+            priceOffsetToKeep = priceOffset;
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - priceOffset, 1 << 20));
+        while (buffer.hasRemaining() && priceLog.read(buffer, priceOffset + buffer.position()) > 0) {
+            // read on
+        }
+        buffer.flip();
+        LinkedHashMap<String, Double> prices = new LinkedHashMap<>();
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt(buffer.position());
+            int expectedCrc = buffer.getInt(buffer.position() + 4);
+            if (length < 0 || length > MAX_PRICE_RECORD) {
+                throw new IOException(new File(directory, "prices.log") + " is corrupt at " + priceOffset);
+            }
+            if (buffer.remaining() < 8 + length) {
+                break; // the rest is still being written
+            }
+            buffer.position(buffer.position() + 8);
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.position(), length));
+            buffer.position(buffer.position() + length);
+            priceOffset += 8 + length;
+            if ((int) crc.getValue() != expectedCrc || in.readInt() == terminal) {
+                continue;
+            }
+            String id = in.readUTF();
+            long cents = in.readLong();
+            // Products this lane does not sell are skipped
+            if (catalog.get(id) != null) {
+                prices.remove(id);
+                prices.put(id, cents / 100.0);
+            }
+        }
+        if (!prices.isEmpty()) {
+            applyPrices(prices);
+        }
+        priceOffsetToKeep = priceOffset;
+    }
+
+    private void pollPricesQuietly() {
+        try {
+            pollPrices();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Shared inventory: could not apply price changes of other lanes: " + e);
+        }
+    }
+
+    // A view of product whose stock lives in the shared slot of its id. With replace the slot
+    // is set to the product's quantity; otherwise an existing slot keeps its count.
+    public synchronized SharedProduct attach(Product product, boolean replace) {
+        int slot = findOrClaim(product.getId(), product.getQuantity());
+        if (replace) {
+            INT.setVolatile(table, slot + STOCK, product.getQuantity());
+        }
+        return new SharedProduct(this, slot, product);
+    }
+
+    // Shared stock of an id, or -1 if no lane has added it
+    public int stockOf(String id) {
+        int slot = find(id);
+        return slot < 0 ? -1 : (int) INT.getVolatile(table, slot + STOCK);
+    }
+
+    // Units this process holds in carts, summed over all SKUs
+    public long getReservedUnits() {
+        long units = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            units += (int) INT.getVolatile(lane, HEADER + slot * 4);
+        }
+        return units;
+    }
+
+    // Give the cart units of terminals whose process has died back to stock; returns the
+    // terminals recovered
+    public synchronized List<Integer> recoverLanes() throws IOException {
+        List<Integer> recovered = new ArrayList<>();
+        String[] names = directory.list();
+        for (String name : names == null ? new String[0] : names) {
+            Matcher matcher = LANE_FILE.matcher(name);
+            if (!matcher.matches() || Integer.parseInt(matcher.group(1)) == terminal) {
+                continue;
+            }
+            int other = Integer.parseInt(matcher.group(1));
+            try (FileChannel otherChannel = FileChannel.open(new File(directory, name).toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = lockLane(otherChannel, 0);
+                if (lock == null) {
+                    continue; // alive
+                }
+                try {
+                    // Lanes already recovered are only read, not mapped again
+                    ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+                    otherChannel.read(header, 0);
+                    if (header.getInt(0) == LANE_MAGIC && header.getInt(4) == slotCount
+                            && header.getInt(LANE_ACTIVE) != 0
+                            && otherChannel.size() >= HEADER + (long) slotCount * 4) {
+                        giveBack(mapLane(otherChannel, slotCount), other);
+                        recovered.add(other);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        return recovered;
+    }
+
+    private void recoverLanesQuietly() {
+        try {
+            List<Integer> recovered = recoverLanes();
+            if (!recovered.isEmpty()) {
+                System.err.println("Shared inventory: returned the cart stock of stopped terminal(s) " + recovered);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Shared inventory: lane recovery failed: " + e);
+        }
+    }
+
+    // Return a stopped lane's units to stock and give up the slot it was claiming
+    private void giveBack(MappedByteBuffer deadLane, int deadTerminal) {
+        if ((int) INT.getVolatile(deadLane, LANE_ACTIVE) == 0) {
+            return;
+        }
+        int claiming = (int) INT.getVolatile(deadLane, LANE_CLAIMING);
+        if (claiming != 0) {
+            INT.compareAndSet(table, claiming - 1 + STATE, -(deadTerminal + 1), DEAD);
+            INT.setVolatile(deadLane, LANE_CLAIMING, 0);
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            int offset = HEADER + slot * 4;
+            int units = (int) INT.getVolatile(deadLane, offset);
+            if (units != 0) {
+                // Struck first: a crash here loses the units rather than returning them twice
+                INT.setVolatile(deadLane, offset, 0);
+                INT.getAndAdd(table, slotOffset(slot) + STOCK, units);
+            }
+        }
+        INT.setVolatile(deadLane, LANE_ACTIVE, 0);
+        deadLane.force();
+    }
+
+    // Offset of the slot of an id, or -1
+    private int find(String id) {
+        byte[] bytes = idBytes(id);
+        int hash = hash(bytes);
+        for (int probe = 0; probe < slotCount; probe++) {
+            int offset = slotOffset((hash + probe) & (slotCount - 1));
+            int state = awaitClaim(offset);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == READY && matches(offset, hash, bytes)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private int findOrClaim(String id, int initialStock) {
+        byte[] bytes = idBytes(id);
+        int hash = hash(bytes);
+        for (int probe = 0; probe < slotCount; probe++) {
+            int offset = slotOffset((hash + probe) & (slotCount - 1));
+            int state = awaitClaim(offset);
+            if (state == EMPTY) {
+                // Noted in the lane file first, so recovery knows which slot a dead claimer held
+                INT.setVolatile(lane, LANE_CLAIMING, offset + 1);
+                if (!INT.compareAndSet(table, offset + STATE, EMPTY, -(terminal + 1))) {
+                    INT.setVolatile(lane, LANE_CLAIMING, 0);
+                    state = awaitClaim(offset);
+                } else {
+                    table.putInt(offset + HASH, hash);
+                    table.putInt(offset + STOCK, initialStock);
+                    table.putInt(offset + ID_LENGTH, bytes.length);
+                    for (int i = 0; i < bytes.length; i++) {
+                        table.put(offset + ID + i, bytes[i]);
+                    }
+                    // Publishes the fields written above to every process
+                    INT.setVolatile(table, offset + STATE, READY);
+                    INT.setVolatile(lane, LANE_CLAIMING, 0);
+                    return offset;
+                }
+            }
+            if (state == READY && matches(offset, hash, bytes)) {
+                return offset;
+            }
+        }
+        throw new IllegalStateException("Shared inventory is full (" + slotCount + " slots)");
+    }
+
+    // State of a slot once no live process is writing its id
+    private int awaitClaim(int offset) {
+        for (int spin = 0; ; spin++) {
+            int state = (int) INT.getVolatile(table, offset + STATE);
+            if (state >= 0) {
+                return state;
+            }
+            if (spin % CLAIM_SPINS == CLAIM_SPINS - 1) {
+                // The claimer may have died half way
+                recoverLanesQuietly();
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private boolean matches(int offset, int hash, byte[] bytes) {
+        if (table.getInt(offset + HASH) != hash || table.getInt(offset + ID_LENGTH) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (table.get(offset + ID + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    private static byte[] idBytes(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Product id longer than " + MAX_ID_BYTES + " bytes: " + id);
+        }
+        return bytes;
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 0x9747b28c;
+        for (byte b : bytes) {
+            hash = (hash ^ b) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    // An exclusive lock on a lane file, or null if another process (or this one) holds it
+    private static FileLock lockLane(FileChannel laneChannel, int attempts) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            FileLock lock;
+            try {
+                lock = laneChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock != null || attempt >= attempts) {
+                return lock;
+            }
+            // Another process may be recovering this lane for a moment
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private static MappedByteBuffer mapLane(FileChannel laneChannel, int slotCount) throws IOException {
+        long size = HEADER + (long) slotCount * 4;
+        boolean fresh = laneChannel.size() < size;
+        MappedByteBuffer lane = laneChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        lane.order(ByteOrder.nativeOrder());
+        if (fresh || lane.getInt(0) != LANE_MAGIC || lane.getInt(4) != slotCount) {
+            // New, or left over from a table of another size: nothing in it refers to this table
+            for (int offset = LANE_ACTIVE; offset < size; offset += 4) {
+                lane.putInt(offset, 0);
+            }
+            lane.putInt(4, slotCount);
+            lane.putInt(0, LANE_MAGIC);
+        }
+        return lane;
+    }
+
+    // Write the table and this terminal's lane file to disk
+    public void force() {
+        table.force();
+        lane.force();
+    }
+
+    // Stop sharing: the units still in this terminal's carts are given back by the next process
+    // that recovers the lane, or by this terminal when it attaches again
+    @Override
+    public void close() throws IOException {
+        maintenance.shutdownNow();
+        if (catalog != null) {
+            catalog.getEvents().unsubscribe(this);
+        }
+        force();
+        priceLog.close();
+        laneLock.release();
+        laneChannel.close();
+        channel.close();
+    }
+
+    // A catalog product whose stock is a shared slot
+    public static class SharedProduct extends Product {
+        private final SharedMemoryInventory inventory;
+        private final int slot;
+
+        SharedProduct(SharedMemoryInventory inventory, int slot, Product product) {
+            super(product.getId(), product.getName(), product.getPrice(), 0);
+            this.inventory = inventory;
+            this.slot = slot;
+        }
+
+        @Override
+        public int getQuantity() {
+            return (int) INT.getVolatile(inventory.table, slot + STOCK);
+        }
+
+        @Override
+        public void setQuantity(int quantity) {
+            INT.setVolatile(inventory.table, slot + STOCK, quantity);
+        }
+
+        @Override
+        public boolean compareAndSetQuantity(int expected, int quantity) {
+            return INT.compareAndSet(inventory.table, slot + STOCK, expected, quantity);
+        }
+
+        @Override
+        protected void reservationChanged(int delta) {
+            int index = (slot - HEADER) / SLOT;
+            INT.getAndAdd(inventory.lane, HEADER + index * 4, delta);
+        }
+    }
+}
@@ -1,15 +1,18 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.List;
 
 // Form 2: Shopping Cart
-public class ShoppingCartForm extends JFrame {
+public class ShoppingCartForm extends JFrame implements BillingBatchListener {
+    private static final long serialVersionUID = 1L;
     private JTable cartTable;
-    private DefaultTableModel cartTableModel;
+    private CartTableModel cartTableModel;
     private JButton removeButton;
+    private final CartSession session;
 
-    public ShoppingCartForm() {
+    public ShoppingCartForm(BillingEngine engine, CartSession session) {
+        this.session = session;
         setTitle("Shopping Cart");
         setSize(400, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -19,9 +22,9 @@ public class ShoppingCartForm extends JFrame {
         mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
         // Cart table
-        cartTableModel = new DefaultTableModel(
-                new Object[]{"ID", "Name", "Price", "Quantity", "Total"}, 0);
+        cartTableModel = new CartTableModel(session.getLines());
         cartTable = new JTable(cartTableModel);
+        cartTable.setDefaultRenderer(Double.class, new MoneyRenderer());
         JScrollPane cartScrollPane = new JScrollPane(cartTable);
         cartScrollPane.setBorder(BorderFactory.createTitledBorder("Cart Items"));
         mainPanel.add(cartScrollPane, BorderLayout.CENTER);
@@ -35,7 +38,7 @@ public class ShoppingCartForm extends JFrame {
 
         JButton clearButton = new JButton("Clear Cart");
         clearButton.addActionListener(e -> {
-            SupermarketBillingSystem.clearCart();
+            session.clear();
         });
         buttonPanel.add(clearButton);
 
@@ -44,8 +47,8 @@ public class ShoppingCartForm extends JFrame {
         // Add main panel to frame
         add(mainPanel);
 
-        // Refresh the cart table
-        refreshTable();
+        // Repaint cart changes as they are published
+        engine.getEvents().subscribeBatch(this);
 
         // Make the window visible
         setLocationRelativeTo(null);
@@ -53,29 +56,75 @@ public class ShoppingCartForm extends JFrame {
     }
 
     public void refreshTable() {
-        cartTableModel.setRowCount(0);
-        for (Product product : SupermarketBillingSystem.getCart()) {
-            double total = product.getPrice() * product.getQuantity();
-            cartTableModel.addRow(new Object[]{
-                    product.getId(),
-                    product.getName(),
-                    String.format("%.2f", product.getPrice()),
-                    product.getQuantity(),
-                    String.format("%.2f", total)
-            });
+        cartTableModel.fireTableDataChanged();
+    }
+
+    @Override
+    public void billingChanged(List<BillingEvent> events) {
+        long start = System.nanoTime();
+        applyEvents(events);
+        BillingMetrics.CART_FORM_REFRESH.recordSince(start);
+    }
+
+    private void applyEvents(List<BillingEvent> events) {
+        // The table reads the live cart, so a clear anywhere in the frame means repaint it all
+        for (BillingEvent event : events) {
+            if (event.getSession() == session && (event.getType() == BillingEvent.Type.CART_CLEARED
+                    || event.getType() == BillingEvent.Type.CHECKOUT_COMPLETED)) {
+                cartTableModel.cleared();
+                return;
+            }
+        }
+
+        // Otherwise replay the rows in order: each event carries the row index it had when it
+        // was published, which is right as long as the earlier events were applied first
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (BillingEvent event : events) {
+            // Carts of other lanes share the bus
+            if (event.getSession() != session) {
+                continue;
+            }
+            switch (event.getType()) {
+                case CART_LINE_UPDATED:
+                    first = Math.min(first, event.getIndex());
+                    last = Math.max(last, event.getIndex());
+                    break;
+                case CART_LINE_ADDED:
+                    fireUpdated(first, last);
+                    first = Integer.MAX_VALUE;
+                    last = -1;
+                    cartTableModel.lineInserted(event.getIndex());
+                    break;
+                case CART_LINE_REMOVED:
+                    fireUpdated(first, last);
+                    first = Integer.MAX_VALUE;
+                    last = -1;
+                    cartTableModel.lineRemoved(event.getIndex());
+                    break;
+                default:
+                    break;
+            }
+        }
+        fireUpdated(first, last);
+    }
+
+    // One update event covering the rows changed in place since the last added or removed row
+    private void fireUpdated(int first, int last) {
+        if (last != -1) {
+            cartTableModel.linesUpdated(first, last);
         }
     }
 
     private void removeProductFromCart() {
         int selectedRow = cartTable.getSelectedRow();
-        if (selectedRow == -1) {
+        if (selectedRow == -1 || selectedRow >= cartTableModel.getRowCount()) {
             JOptionPane.showMessageDialog(this, "Please select a product to remove!");
             return;
         }
 
-        String id = cartTable.getValueAt(selectedRow, 0).toString();
-        int quantity = Integer.parseInt(cartTable.getValueAt(selectedRow, 3).toString());
+        Product line = cartTableModel.getLineAt(cartTable.convertRowIndexToModel(selectedRow));
 
-        SupermarketBillingSystem.removeFromCart(id, quantity);
+        session.remove(line.getId());
     }
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Stock level of every SKU against its reorder point, kept as it changes.
+// Each SKU is at one Level: OK above its reorder point, LOW at or below it, OUT at zero or
+// less. The LOW and OUT SKUs are kept in two indexed sets (an array plus each entry's position
+// in it, so adding and removing are O(1)); "everything to reorder" is a copy of those sets and
+// costs the size of the answer, not of the catalog.
+//
+// The index follows the catalog through STOCK_CHANGED and PRODUCTS_UPSERTED events. A stock
+// change that leaves the SKU at its level - nearly all of them - is a map lookup and a compare,
+// without locking; only a change of level takes the index lock, re-reads the stock and moves
+// the entry. Listeners hear every change of level, in order, under that lock, so they must be
+// quick (ReplenishmentFeed appends a line).
+//
+// Thresholds file (reorder.csv): id, reorder point, reorder quantity per line; lines starting
+// with # and a header line with "reorder" are skipped. SKUs not in it use the default reorder
+// point and no reorder quantity.
+public class StockLevelIndex implements BillingListener {
+    public enum Level { OK, LOW, OUT }
+
+    public interface Listener {
+        // product moved from one level to another; stock is the quantity that moved it
+        void levelChanged(Product product, Level from, Level to, int stock, int reorderPoint, int reorderQuantity);
+    }
+
+    private final ProductCatalog catalog;
+    private final int defaultReorderPoint;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Indexed sets of the LOW and OUT entries; guarded by this
+    private Entry[] low = new Entry[16];
+    private int lowCount;
+    private Entry[] out = new Entry[16];
+    private int outCount;
+
+    private static class Entry {
+        final String id;
+        volatile int reorderPoint;
+        volatile int reorderQuantity;
+        volatile Level level = Level.OK;
+        // Position in the set of its level; -1 while OK
+        int position = -1;
+
+        Entry(String id, int reorderPoint) {
+            this.id = id;
+            this.reorderPoint = reorderPoint;
+        }
+
+        Level levelOf(int stock) {
+            return stock <= 0 ? Level.OUT : stock <= reorderPoint ? Level.LOW : Level.OK;
+        }
+    }
+
+    // Index every product of catalog and follow its changes
+    public StockLevelIndex(ProductCatalog catalog, int defaultReorderPoint) {
+        this.catalog = catalog;
+        this.defaultReorderPoint = defaultReorderPoint;
+        synchronized (this) {
+            for (Product product : catalog.snapshot()) {
+                update(product);
+            }
+        }
+        catalog.getEvents().subscribe(this);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Reorder point and quantity of a SKU; its level is re-evaluated at once
+    public void setThreshold(String id, int reorderPoint, int reorderQuantity) {
+        Entry entry = entries.computeIfAbsent(id, key -> new Entry(key, defaultReorderPoint));
+        synchronized (this) {
+            entry.reorderPoint = reorderPoint;
+            entry.reorderQuantity = reorderQuantity;
+            Product product = catalog.get(id);
+            if (product != null) {
+                move(entry, product);
+            }
+        }
+    }
+
+    // Thresholds from a reorder.csv file; returns the number of SKUs set. Malformed lines are
+    // reported to errors and skipped.
+    public int loadThresholds(File file, List<String> errors) throws IOException {
+        int count = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")
+                        || (lineNumber == 1 && trimmed.toLowerCase(Locale.ROOT).contains("reorder"))) {
+                    continue;
+                }
+                String[] fields = trimmed.split(",");
+                try {
+                    if (fields.length < 2 || fields.length > 3) {
+                        throw new NumberFormatException("expected id, reorder point[, reorder quantity]");
+                    }
+                    int reorderPoint = Integer.parseInt(fields[1].trim());
+                    int reorderQuantity = fields.length > 2 ? Integer.parseInt(fields[2].trim()) : 0;
+                    setThreshold(fields[0].trim(), reorderPoint, reorderQuantity);
+                    count++;
+                } catch (NumberFormatException e) {
+                    errors.add(file.getName() + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        return count;
+    }
+
+    public int getReorderPoint(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? defaultReorderPoint : entry.reorderPoint;
+    }
+
+    public int getReorderQuantity(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? 0 : entry.reorderQuantity;
+    }
+
+    public Level levelOf(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? Level.OK : entry.level;
+    }
+
+    // SKUs at or below their reorder point, out of stock first
+    public synchronized List<Product> belowThreshold() {
+        List<Product> products = new ArrayList<>(outCount + lowCount);
+        collect(out, outCount, products);
+        collect(low, lowCount, products);
+        return products;
+    }
+
+    public synchronized List<Product> outOfStock() {
+        List<Product> products = new ArrayList<>(outCount);
+        collect(out, outCount, products);
+        return products;
+    }
+
+    public synchronized int countBelowThreshold() {
+        return outCount + lowCount;
+    }
+
+    @Override
+    public void billingChanged(BillingEvent event) {
+        if (event.getType() == BillingEvent.Type.STOCK_CHANGED) {
+            Product product = event.getProduct();
+            Entry entry = entries.get(product.getId());
+            // Most changes stay at the level the SKU is at
+            if (entry != null && entry.levelOf(product.getQuantity()) == entry.level) {
+                return;
+            }
+            synchronized (this) {
+                // A product replaced since is indexed through its upsert
+                if (catalog.get(product.getId()) == product) {
+                    update(product);
+                }
+            }
+        } else if (event.getType() == BillingEvent.Type.PRODUCTS_UPSERTED) {
+            synchronized (this) {
+                for (Product product : event.getProducts()) {
+                    update(product);
+                }
+            }
+        }
+    }
+
+    private void update(Product product) {
+        Entry entry = entries.get(product.getId());
+        if (entry == null) {
+            entry = new Entry(product.getId(), defaultReorderPoint);
+            entries.put(entry.id, entry);
+        }
+        move(entry, product);
+    }
+
+    // Put entry at the level of the product's stock now; caller holds the lock. The stock is read
+    // again after the level is written: a change that skipped the lock in between, seeing the
+    // old level, is caught here.
+    private void move(Entry entry, Product product) {
+        while (true) {
+            int stock = product.getQuantity();
+            Level from = entry.level;
+            Level to = entry.levelOf(stock);
+            if (from == to) {
+                return;
+            }
+            if (from == Level.LOW) {
+                lowCount = remove(low, lowCount, entry);
+            } else if (from == Level.OUT) {
+                outCount = remove(out, outCount, entry);
+            }
+            if (to == Level.LOW) {
+                low = add(low, lowCount++, entry);
+            } else if (to == Level.OUT) {
+                out = add(out, outCount++, entry);
+            }
+            entry.level = to;
+            for (Listener listener : listeners) {
+                listener.levelChanged(product, from, to, stock, entry.reorderPoint, entry.reorderQuantity);
+            }
+        }
+    }
+
+    private static Entry[] add(Entry[] set, int count, Entry entry) {
+        if (count == set.length) {
+            set = Arrays.copyOf(set, count * 2);
+        }
+        set[count] = entry;
+        entry.position = count;
+        return set;
+    }
+
+    // Swap the last entry into the hole; returns the new count
+    private static int remove(Entry[] set, int count, Entry entry) {
+        Entry last = set[--count];
+        set[entry.position] = last;
+        last.position = entry.position;
+        set[count] = null;
+        entry.position = -1;
+        return count;
+    }
+
+    private void collect(Entry[] set, int count, List<Product> products) {
+        for (int i = 0; i < count; i++) {
+            Product product = catalog.get(set[i].id);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+    }
+}
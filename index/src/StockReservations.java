@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Stock held by carts, as reservation records with a time-to-live.
+// Every tryReserve of a cart becomes a Reservation owned by the cart's Holder. A reservation
+// lives while its cart is in use: each action on the cart (touch) moves the cart's
+// deadline to ttl from now. Once a cart has been idle for ttl - an abandoned lane, a crashed
+// kiosk - its reservations expire and their stock goes back to the catalog on its own.
+//
+// Expiry runs on a TimingWheel, one entry per reservation, advanced every tick by a daemon
+// thread, so the cost of a tick is the reservations that are due, not the number open. Touching
+// a cart costs one write: an entry that fires before its cart's deadline is scheduled again for
+// it.
+//
+// A reservation ends exactly once, by compare-and-set of its state: released (the item came
+// out of the cart), committed (sold) or expired. Expiry decides under the holder's lock, so once
+// touch returns nothing of that cart expires for ttl, and nothing of a held cart (one being
+// checked out) expires until it is unheld.
+public class StockReservations implements AutoCloseable {
+    public static final long DEFAULT_TTL_MILLIS = 15 * 60 * 1000L;
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    private static final int ACTIVE = 0, RELEASED = 1, COMMITTED = 2, EXPIRED = 3;
+
+    private final ProductCatalog catalog;
+    private final long ttlMillis;
+    private final long originNanos = System.nanoTime();
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService ticker;
+    private final LongAdder active = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    // The reservations of one cart
+    public static class Holder {
+        private long lastActivityMillis;
+        // Being checked out: nothing expires; guarded by the holder
+        private boolean held;
+        private volatile boolean expired;
+
+        private Holder(long nowMillis) {
+            this.lastActivityMillis = nowMillis;
+        }
+
+        // Whether reservations of this holder have expired since the last call; clears the flag
+        public boolean takeExpired() {
+            if (!expired) {
+                return false;
+            }
+            expired = false;
+            return true;
+        }
+    }
+
+    // Units of one product taken from stock for one cart
+    public static class Reservation extends TimingWheel.Entry {
+        private final Holder holder;
+        private final String productId;
+        private final int quantity;
+        private final AtomicInteger state = new AtomicInteger(ACTIVE);
+
+        private Reservation(Holder holder, String productId, int quantity) {
+            this.holder = holder;
+            this.productId = productId;
+            this.quantity = quantity;
+        }
+
+        public String getProductId() { return productId; }
+        public int getQuantity() { return quantity; }
+        public boolean isActive() { return state.get() == ACTIVE; }
+        public boolean isExpired() { return state.get() == EXPIRED; }
+    }
+
+    public StockReservations(ProductCatalog catalog) {
+        this(catalog, DEFAULT_TTL_MILLIS, DEFAULT_TICK_MILLIS);
+    }
+
+    public StockReservations(ProductCatalog catalog, long ttlMillis, long tickMillis) {
+        this.catalog = catalog;
+        this.ttlMillis = ttlMillis;
+        this.wheel = new TimingWheel(tickMillis, 0);
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public Holder newHolder() {
+        return new Holder(now());
+    }
+
+    // The holder's cart is in use: its reservations live another ttl
+    public void touch(Holder holder) {
+        synchronized (holder) {
+            holder.lastActivityMillis = now();
+        }
+    }
+
+    // Keep every reservation of holder from expiring until unhold. Returns false if some had
+    // expired already (takeExpired says so too); the rest are held all the same.
+    public boolean hold(Holder holder) {
+        synchronized (holder) {
+            holder.held = true;
+            holder.lastActivityMillis = now();
+            return !holder.expired;
+        }
+    }
+
+    // The checkout is over; the holder's reservations expire again once it has been idle for ttl
+    public void unhold(Holder holder) {
+        synchronized (holder) {
+            holder.held = false;
+            holder.lastActivityMillis = now();
+        }
+    }
+
+    // Take quantity units of product out of stock for holder, or null if that many are not available
+    public Reservation reserve(Holder holder, Product product, int quantity) {
+        if (!catalog.tryReserve(product, quantity)) {
+            return null;
+        }
+        Reservation reservation = new Reservation(holder, product.getId(), quantity);
+        active.increment();
+        BillingMetrics.COUNTERS.reservationsActive.increment();
+        long lastActivity;
+        synchronized (holder) {
+            lastActivity = holder.lastActivityMillis;
+        }
+        wheel.schedule(reservation, lastActivity + ttlMillis);
+        return reservation;
+    }
+
+    // The units came out of the cart: back to stock. False if the reservation had already ended
+    // (an expired one is back in stock already).
+    public boolean release(Reservation reservation) {
+        if (!end(reservation, RELEASED)) {
+            return false;
+        }
+        returnStock(reservation);
+        released.increment();
+        return true;
+    }
+
+    // The units were sold. False if the reservation had already ended.
+    public boolean commit(Reservation reservation) {
+        if (!end(reservation, COMMITTED)) {
+            return false;
+        }
+        catalog.sold(reservation.productId, reservation.quantity);
+        committed.increment();
+        BillingMetrics.COUNTERS.reservationsCommitted.increment();
+        return true;
+    }
+
+    public long getActiveCount() { return active.sum(); }
+    public long getReleasedCount() { return released.sum(); }
+    public long getCommittedCount() { return committed.sum(); }
+    public long getExpiredCount() { return expired.sum(); }
+
+    private boolean end(Reservation reservation, int state) {
+        if (!reservation.state.compareAndSet(ACTIVE, state)) {
+            return false;
+        }
+        wheel.cancel(reservation);
+        active.decrement();
+        BillingMetrics.COUNTERS.reservationsActive.decrement();
+        return true;
+    }
+
+    private void returnStock(Reservation reservation) {
+        Product product = catalog.get(reservation.productId);
+        if (product != null) {
+            catalog.release(product, reservation.quantity);
+        }
+    }
+
+    private void tick() {
+        try {
+            List<TimingWheel.Entry> due = new ArrayList<>();
+            long now = now();
+            wheel.advance(now, due);
+            for (TimingWheel.Entry entry : due) {
+                expire((Reservation) entry, now);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Reservation expiry failed: " + e);
+        }
+    }
+
+    private void expire(Reservation reservation, long now) {
+        Holder holder = reservation.holder;
+        synchronized (holder) {
+            if (reservation.state.get() != ACTIVE) {
+                return;
+            }
+            long deadline = holder.lastActivityMillis + ttlMillis;
+            if (holder.held) {
+                deadline = Math.max(deadline, now + ttlMillis);
+            }
+            if (deadline > now) {
+                // The cart was used since this was scheduled, or is being checked out
+                wheel.schedule(reservation, deadline);
+                return;
+            }
+            if (!reservation.state.compareAndSet(ACTIVE, EXPIRED)) {
+                return;
+            }
+            holder.expired = true;
+        }
+        active.decrement();
+        BillingMetrics.COUNTERS.reservationsActive.decrement();
+        returnStock(reservation);
+        expired.increment();
+        BillingMetrics.COUNTERS.reservationsExpired.increment();
+    }
+
+    // Milliseconds since construction, on the monotonic clock
+    private long now() {
+        return (System.nanoTime() - originNanos) / 1_000_000;
+    }
+
+    // Stop expiring; open reservations stay with their carts
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
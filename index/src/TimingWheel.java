@@ -0,0 +1,152 @@
+import java.util.List;
+
+// Hierarchical timing wheel: LEVELS wheels of SLOTS buckets each, the first a bucket per tick,
+// every next one a bucket per full turn of the one below. An entry goes into the lowest wheel
+// whose span covers its deadline; when a wheel completes a turn, the next bucket of the wheel
+// above is emptied into the lower ones. Scheduling and cancelling are O(1) (entries are linked
+// into their bucket), and a tick only touches the entries that are due or move down a level,
+// never the whole set. Deadlines beyond the top wheel's span fire at its end; the owner of an
+// entry checks its own deadline when it fires and schedules it again if it is not due.
+//
+// Entries are handed out by advance, under no lock, for the caller to run. All methods are
+// safe from any thread.
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final Entry[] buckets = new Entry[LEVELS * SLOTS];
+    private long currentTick;
+    private int size;
+
+    // Something to be timed out; a subclass holds what the owner needs to act on it
+    public static class Entry {
+        private long deadlineMillis;
+        private long tick;
+        private int bucket = -1;
+        private Entry previous;
+        private Entry next;
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public boolean isScheduled() {
+            return bucket >= 0;
+        }
+    }
+
+    // startMillis: time of tick 0 on the clock that schedule and advance are given
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Time out entry at deadlineMillis (rounded up to a tick), moving it if it was scheduled.
+    // A deadline already past fires at the next tick.
+    public synchronized void schedule(Entry entry, long deadlineMillis) {
+        unlink(entry);
+        entry.deadlineMillis = deadlineMillis;
+        entry.tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        link(entry);
+    }
+
+    // Returns false if the entry was not scheduled (it has fired or was never scheduled)
+    public synchronized boolean cancel(Entry entry) {
+        if (entry.bucket < 0) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    // Move the wheel up to nowMillis and add the entries that are due to expired, in no
+    // particular order. They are no longer scheduled.
+    public synchronized void advance(long nowMillis, List<Entry> expired) {
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            // A wheel that completed a turn brings down the next bucket above it, highest first
+            int level = 1;
+            while (level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                level++;
+            }
+            for (level--; level >= 1; level--) {
+                cascade(level * SLOTS + (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+            }
+            int due = (int) (currentTick & (SLOTS - 1));
+            for (Entry entry = buckets[due]; entry != null; ) {
+                Entry next = entry.next;
+                unlink(entry);
+                expired.add(entry);
+                entry = next;
+            }
+        }
+    }
+
+    private void cascade(int bucket) {
+        Entry entry = buckets[bucket];
+        buckets[bucket] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.bucket = -1;
+            entry.previous = null;
+            entry.next = null;
+            size--;
+            link(entry);
+            entry = next;
+        }
+    }
+
+    private void link(Entry entry) {
+        long delta = entry.tick - currentTick;
+        if (delta >= SPAN) {
+            entry.tick = currentTick + SPAN - 1;
+            delta = SPAN - 1;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int bucket = level * SLOTS + (int) ((entry.tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        entry.bucket = bucket;
+        entry.previous = null;
+        entry.next = buckets[bucket];
+        if (entry.next != null) {
+            entry.next.previous = entry;
+        }
+        buckets[bucket] = entry;
+        size++;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.bucket < 0) {
+            return;
+        }
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else {
+            buckets[entry.bucket] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.bucket = -1;
+        entry.previous = null;
+        entry.next = null;
+        size--;
+    }
+}